@@ -8,8 +8,10 @@ import android.content.pm.PackageManager;
 import android.media.AudioAttributes;
 import android.media.AudioPlaybackCaptureConfiguration;
 import android.media.AudioRecord;
+import android.media.AudioTimestamp;
 import android.media.projection.MediaProjection;
 import android.media.projection.MediaProjectionManager;
+import android.os.Binder;
 import android.os.IBinder;
 import android.util.Log;
 import androidx.annotation.Nullable;
@@ -20,7 +22,16 @@ import android.app.NotificationManager;
 import androidx.core.app.NotificationCompat;
 import android.app.Notification;                           // Notification クラス  [oai_citation:0‡Android Developers](https://developer.android.com/reference/android/app/Notification?utm_source=chatgpt.com)
 import android.media.AudioFormat;
-import java.util.Arrays;
+
+import com.nakazawa.musicvibe.core.BackgroundSignalPath;
+import com.nakazawa.musicvibe.core.LatencyStats;
+import com.nakazawa.musicvibe.core.PowerGovernor;
+
+import java.io.FileDescriptor;
+import java.io.PrintWriter;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.FloatBuffer;
 
 public class CaptureService extends Service {
     private static final String TAG = "CaptureService";
@@ -28,12 +39,28 @@ public class CaptureService extends Service {
     private static final int NOTIFICATION_ID = 1001;
 
     private AudioRecord recorder;
-    private HapticEngine haptic;
+    private volatile HapticEngine haptic;
+    // 無音がこれだけ続いたら解析を間引く（HapticEngine の省電力）
+    private volatile long idleAfterMs = PowerGovernor.DEFAULT_IDLE_AFTER_MS;
+    private final IBinder binder = new LocalBinder();
 
     // キャプチャ用定数
-    private static final int SAMPLE_RATE  = 44100;
+    static final int SAMPLE_RATE  = 44100;  // HapticEngine の帯域換算でも参照
     private static final int CHANNEL_MASK = AudioFormat.CHANNEL_IN_MONO;
     private static final int ENCODING     = AudioFormat.ENCODING_PCM_16BIT;
+    // float 取り込み：1 回の read で解析 1 フレームちょうどを direct バッファへ
+    private static final int FRAME_BYTES  = BackgroundSignalPath.FRAME_SAMPLES * 4;
+
+    /**
+     * Intent extra：float PCM で取り込む（既定 false = 従来の 16bit）。
+     * 再生キャプチャの float 対応は端末でまだ確かめていないので明示したときだけ使う。
+     * 端末が受け付けなければ 16bit に戻す
+     */
+    static final String EXTRA_FLOAT_PCM = "floatPcm";
+    private volatile boolean floatPcm;
+    /** Intent extra：取り込みと解析の間の間引き率（既定 HapticEngine.DEFAULT_DECIMATION，1 で間引かない） */
+    static final String EXTRA_DECIMATION = "decimation";
+    private volatile int decimation = HapticEngine.DEFAULT_DECIMATION;
 
 
 
@@ -91,57 +118,129 @@ public class CaptureService extends Service {
                         .addMatchingUsage(AudioAttributes.USAGE_MEDIA)
                         .build();
 
-        // AudioFormat を明示的に指定（必須） [oai_citation:5‡GitHub](https://github.com/hyochan/react-native-audio-recorder-player/issues/548?utm_source=chatgpt.com)
-        AudioFormat format = new AudioFormat.Builder()
-                .setEncoding(ENCODING)
-                .setSampleRate(SAMPLE_RATE)
-                .setChannelMask(CHANNEL_MASK)
-                .build();
-
-        // バッファサイズ算出
-        int minBuf = AudioRecord.getMinBufferSize(SAMPLE_RATE, CHANNEL_MASK, ENCODING);
-        final int bufferSize = Math.max(minBuf, 2048);  // ラムダで参照するため effectively final [oai_citation:6‡Codementor](https://www.codementor.io/%40wesome/variable-used-in-lambda-expression-should-be-final-or-effectively-final-1urrrjtmac?utm_source=chatgpt.com)
-
         // AudioRecord 初期化（例外キャッチで安全化） [oai_citation:7‡Android Developers](https://developer.android.com/reference/android/media/AudioRecord.Builder?utm_source=chatgpt.com)
+        // float を頼んで受け付けられなければ 16bit で作り直す
+        boolean wantFloat = intent.getBooleanExtra(EXTRA_FLOAT_PCM, false);
+        decimation = Math.max(1, intent.getIntExtra(EXTRA_DECIMATION, decimation));
         try {
-            recorder = new AudioRecord.Builder()
-                    .setAudioPlaybackCaptureConfig(config)
-                    .setAudioFormat(format)
-                    .setBufferSizeInBytes(bufferSize)
-                    .build();
-        } catch (SecurityException e) {
+            recorder = null;
+            if (wantFloat) {
+                try {
+                    recorder = buildRecorder(config, AudioFormat.ENCODING_PCM_FLOAT);
+                } catch (UnsupportedOperationException e) {
+                    Log.w(TAG, "float capture unsupported, falling back to 16bit", e);
+                }
+            }
+            floatPcm = (recorder != null);
+            if (recorder == null) recorder = buildRecorder(config, ENCODING);
+        } catch (SecurityException | UnsupportedOperationException e) {
             Log.e(TAG, "AudioRecord init failed", e);
             stopSelf();
             return START_STICKY;
         }
-
-        recorder.startRecording();
+        final AudioRecord rec = recorder;
+        rec.startRecording();
 
         // HapticEngine へ PCM データを逐次渡す
-        haptic = new HapticEngine(this, 0);
+        final HapticEngine engine = new HapticEngine(this, 0);
+        engine.setIdleAfterMs(idleAfterMs);
+        engine.setDecimation(decimation);
+        haptic = engine;
+        final boolean useFloat = floatPcm;
         new Thread(() -> {
-            short[] buffer = new short[bufferSize / 2];
-            while (recorder != null
-                    && recorder.getRecordingState() == AudioRecord.RECORDSTATE_RECORDING) {
-                int read;
-                try {
-                    read = recorder.read(buffer, 0, buffer.length);
-                } catch (Exception e) {
-                    Log.w(TAG, "AudioRecord.read failed, stopping loop", e);
-                    break;  // 読み取り中に例外が出たら安全に抜ける
-                }
-                if (read > 0) {
-                    haptic.onPCM(Arrays.copyOf(buffer, read));
-                } else if (read < 0) {
-                    Log.w(TAG, "AudioRecord.read returned error: " + read);
-                    break;  // エラーコードが返ったら抜ける
-                }
-            }
+            if (useFloat) captureFloat(rec, engine);
+            else          captureShort(rec, engine);
         }).start();
 
         return START_STICKY;
     }
 
+    private static AudioRecord buildRecorder(AudioPlaybackCaptureConfiguration config, int encoding) {
+        // AudioFormat を明示的に指定（必須） [oai_citation:5‡GitHub](https://github.com/hyochan/react-native-audio-recorder-player/issues/548?utm_source=chatgpt.com)
+        AudioFormat format = new AudioFormat.Builder()
+                .setEncoding(encoding)
+                .setSampleRate(SAMPLE_RATE)
+                .setChannelMask(CHANNEL_MASK)
+                .build();
+        // バッファサイズ算出（float は 1 回の read で 1 フレーム読むので少なくとも 2 フレーム分）
+        int minBuf = AudioRecord.getMinBufferSize(SAMPLE_RATE, CHANNEL_MASK, encoding);
+        int floor  = (encoding == AudioFormat.ENCODING_PCM_FLOAT) ? 2 * FRAME_BYTES : 2048;
+        return new AudioRecord.Builder()
+                .setAudioPlaybackCaptureConfig(config)
+                .setAudioFormat(format)
+                .setBufferSizeInBytes(Math.max(minBuf, floor))
+                .build();
+    }
+
+    /** 16bit：read した配列をそのまま HapticEngine のリングへ（コピー配列を作らない） */
+    private void captureShort(AudioRecord rec, HapticEngine engine) {
+        int minBuf = AudioRecord.getMinBufferSize(SAMPLE_RATE, CHANNEL_MASK, ENCODING);
+        short[] buffer = new short[Math.max(minBuf, 2048) / 2];
+        AudioTimestamp ts = new AudioTimestamp();
+        long framesRead = 0;   // モノラルなのでサンプル数 = フレーム数
+        while (rec.getRecordingState() == AudioRecord.RECORDSTATE_RECORDING) {
+            int read;
+            try {
+                read = rec.read(buffer, 0, buffer.length);
+            } catch (Exception e) {
+                Log.w(TAG, "AudioRecord.read failed, stopping loop", e);
+                break;  // 読み取り中に例外が出たら安全に抜ける
+            }
+            if (read > 0) {
+                long arrivalNs = System.nanoTime();
+                framesRead += read;
+                long captureNs = captureTimeNs(rec, engine, ts, framesRead, arrivalNs);
+                engine.onPCM(buffer, read, captureNs, arrivalNs);
+            } else if (read < 0) {
+                Log.w(TAG, "AudioRecord.read returned error: " + read);
+                break;  // エラーコードが返ったら抜ける
+            }
+        }
+    }
+
+    /**
+     * float：使い回しの direct バッファへ 1 フレームずつ読み，そのバッファのまま解析させる
+     * （short[] → リング → double[] の写しも，サンプルごとの整数 → 実数変換もしない）。
+     */
+    private void captureFloat(AudioRecord rec, HapticEngine engine) {
+        ByteBuffer  bytes = ByteBuffer.allocateDirect(FRAME_BYTES).order(ByteOrder.nativeOrder());
+        FloatBuffer frame = bytes.asFloatBuffer();   // read() は position を動かさないので作り直さない
+        AudioTimestamp ts = new AudioTimestamp();
+        long framesRead = 0;
+        while (rec.getRecordingState() == AudioRecord.RECORDSTATE_RECORDING) {
+            int read;
+            try {
+                read = rec.read(bytes, FRAME_BYTES, AudioRecord.READ_BLOCKING);
+            } catch (Exception e) {
+                Log.w(TAG, "AudioRecord.read failed, stopping loop", e);
+                break;
+            }
+            if (read == FRAME_BYTES) {
+                long arrivalNs = System.nanoTime();
+                framesRead += BackgroundSignalPath.FRAME_SAMPLES;
+                long captureNs = captureTimeNs(rec, engine, ts, framesRead, arrivalNs);
+                engine.onPcmFrame(frame, captureNs, arrivalNs);
+            } else if (read < 0) {
+                Log.w(TAG, "AudioRecord.read returned error: " + read);
+                break;
+            }
+            // 0..FRAME_BYTES 未満は停止途中の読み残し：捨てる
+        }
+    }
+
+    /**
+     * 最後のサンプルの取り込み時刻 = 基準フレームの時刻 + フレーム差 / SR。
+     * 省電力中は振動しないので取り込み時刻の問い合わせも省く（read() が返った時刻で代用）。
+     */
+    private static long captureTimeNs(AudioRecord rec, HapticEngine engine, AudioTimestamp ts,
+                                      long framesRead, long arrivalNs) {
+        if (engine.getPower().isActive()
+                && rec.getTimestamp(ts, AudioTimestamp.TIMEBASE_MONOTONIC) == AudioRecord.SUCCESS) {
+            return ts.nanoTime + (framesRead - 1 - ts.framePosition) * 1_000_000_000L / SAMPLE_RATE;
+        }
+        return arrivalNs;
+    }
+
     @Override
     public void onDestroy() {
         if (recorder != null) {
@@ -154,9 +253,60 @@ public class CaptureService extends Service {
         super.onDestroy();
     }
 
+    /** 実行中のキャプチャのレイテンシを外から読むための Binder */
+    public class LocalBinder extends Binder {
+        /** エンジン未起動なら null */
+        public LatencyStats getLatency() {
+            HapticEngine h = haptic;
+            return (h != null) ? h.getLatency() : null;
+        }
+
+        /** 無音がこれだけ続いたら省電力に入る（ms，0 以下で入らない） */
+        public void setIdleAfterMs(long ms) {
+            idleAfterMs = ms;
+            HapticEngine h = haptic;
+            if (h != null) h.setIdleAfterMs(ms);
+        }
+
+        /** 取り込みと解析の間の間引き率（1 で間引かない）。次のチャンクから反映 */
+        public void setDecimation(int factor) {
+            if (factor < 1) throw new IllegalArgumentException("factor must be >= 1");
+            decimation = factor;
+            HapticEngine h = haptic;
+            if (h != null) h.setDecimation(factor);
+        }
+
+        /** 省電力の状態と滞在時間。エンジン未起動なら null */
+        public PowerGovernor getPower() {
+            HapticEngine h = haptic;
+            return (h != null) ? h.getPower() : null;
+        }
+    }
+
     @Nullable
     @Override
     public IBinder onBind(Intent intent) {
-        return null;
+        return binder;
+    }
+
+    /** adb shell dumpsys activity service com.nakazawa.musicvibe/.CaptureService */
+    @Override
+    protected void dump(FileDescriptor fd, PrintWriter pw, String[] args) {
+        HapticEngine h = haptic;
+        AudioRecord  r = recorder;
+        pw.println("CaptureService:");
+        pw.println("  recording = " + (r != null && r.getRecordingState() == AudioRecord.RECORDSTATE_RECORDING)
+                + ", encoding = " + (floatPcm ? "float" : "16bit") + ", decimation = " + decimation);
+        if (h == null) {
+            pw.println("  engine = none");
+            return;
+        }
+        pw.println("  " + h.getPower() + ", idleAfter = " + idleAfterMs + " ms");
+        pw.println("  metrics:");
+        h.getMetrics().dump(pw, "    ");
+        pw.println("  latency:");
+        for (String line : h.getLatency().toString().split("\n")) {
+            if (!line.isEmpty()) pw.println("    " + line);
+        }
     }
 }
\ No newline at end of file
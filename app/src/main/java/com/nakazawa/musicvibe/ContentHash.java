@@ -0,0 +1,45 @@
+package com.nakazawa.musicvibe;
+
+import android.content.Context;
+import android.net.Uri;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * ContentHash
+ * ──────────────────────────────────────────────────────────────
+ * ・URI の中身（バイト列）の SHA-256 を 16 進文字列で返す
+ * ・同じ曲なら URI が変わっても同じキャッシュキーになる
+ * ・ワーカースレッドから呼ぶこと
+ */
+final class ContentHash {
+
+    private ContentHash() {}
+
+    static String sha256(Context ctx, Uri uri, AtomicBoolean cancelled) throws IOException {
+        MessageDigest md;
+        try {
+            md = MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IOException(e);
+        }
+        try (InputStream in = ctx.getContentResolver().openInputStream(uri)) {
+            if (in == null) throw new IOException("cannot open: " + uri);
+            byte[] buf = new byte[64 * 1024];
+            int n;
+            while ((n = in.read(buf)) > 0) {
+                if (cancelled.get()) throw new CancellationException();
+                md.update(buf, 0, n);
+            }
+        }
+        byte[] digest = md.digest();
+        StringBuilder sb = new StringBuilder(digest.length * 2);
+        for (byte b : digest) sb.append(String.format("%02x", b & 0xFF));
+        return sb.toString();
+    }
+}
@@ -0,0 +1,98 @@
+package com.nakazawa.musicvibe;
+
+import android.content.Context;
+import android.os.Build;
+import android.os.VibrationEffect;
+import android.os.Vibrator;
+import android.os.VibratorManager;
+
+import java.util.Arrays;
+
+/**
+ * HapticCapabilities
+ * ──────────────────────────────────────────────────────────────
+ * ・端末の振動能力のスナップショット（不変）
+ *     対応プリミティブとその長さ / 振幅制御 / Vibrator ID / 共振周波数
+ * ・どれも binder を跨ぐ問い合わせなので HapticEngine 生成時に 1 回だけ引き，
+ *   フレームごとの処理ではこのスナップショットだけを見る
+ * ・オンセット戦略（COMPOSITION / ONSET）の効果の出し方（strategy）もここで決めておく
+ */
+final class HapticCapabilities {
+
+    /** オンセット戦略の効果の出し方 */
+    enum Strategy {
+        COMPOSITION,  // THUD / SPIN / TICK の Composition
+        PREDEFINED,   // EFFECT_HEAVY_CLICK
+        ONE_SHOT      // 振幅付き単発
+    }
+
+    /** 問い合わせるプリミティブ（この順で supported / durations を持つ） */
+    static final int[] PRIMITIVES = {
+            VibrationEffect.Composition.PRIMITIVE_THUD,
+            VibrationEffect.Composition.PRIMITIVE_SPIN,
+            VibrationEffect.Composition.PRIMITIVE_TICK,
+    };
+
+    final VibratorManager manager;            // 無い端末では null
+    final boolean   hasVibrator;
+    final boolean   hasAmplitudeControl;
+    final boolean[] primitiveSupported;       // PRIMITIVES と同じ順
+    final int[]     primitiveDurationsMs;     // 未対応は 0
+    final boolean   allPrimitivesSupported;
+    final int[]     vibratorIds;
+    final float     resonantFrequencyHz;      // 不明なら NaN
+    final Strategy  strategy;
+
+    private HapticCapabilities(VibratorManager manager, Vibrator vibrator) {
+        this.manager             = manager;
+        this.hasVibrator         = vibrator.hasVibrator();
+        this.hasAmplitudeControl = vibrator.hasAmplitudeControl();
+
+        boolean[] supported = vibrator.arePrimitivesSupported(PRIMITIVES);
+        int[]     durations = vibrator.getPrimitiveDurations(PRIMITIVES);
+        this.primitiveSupported   = (supported != null) ? supported : new boolean[PRIMITIVES.length];
+        this.primitiveDurationsMs = (durations != null) ? durations : new int[PRIMITIVES.length];
+        boolean all = true;
+        for (boolean s : primitiveSupported) all &= s;
+        this.allPrimitivesSupported = all;
+
+        int[] ids = (manager != null) ? manager.getVibratorIds() : null;
+        this.vibratorIds         = (ids != null) ? ids : new int[0];
+        this.resonantFrequencyHz = vibrator.getResonantFrequency();
+
+        if (allPrimitivesSupported) {
+            strategy = Strategy.COMPOSITION;
+        } else if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.Q) {
+            strategy = Strategy.PREDEFINED;
+        } else {
+            strategy = Strategy.ONE_SHOT;
+        }
+    }
+
+    /** 端末に問い合わせてスナップショットを作る（binder を跨ぐので毎フレーム呼ばないこと） */
+    static HapticCapabilities query(Context context, Vibrator vibrator) {
+        VibratorManager vm = null;
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.S) {
+            vm = (VibratorManager) context.getSystemService(Context.VIBRATOR_MANAGER_SERVICE);
+        }
+        return new HapticCapabilities(vm, vibrator);
+    }
+
+    /** プリミティブの長さ(ms)。未対応・対象外は 0 */
+    int durationOf(int primitiveId) {
+        for (int i = 0; i < PRIMITIVES.length; i++) {
+            if (PRIMITIVES[i] == primitiveId) return primitiveDurationsMs[i];
+        }
+        return 0;
+    }
+
+    @Override
+    public String toString() {
+        return "HapticCapabilities{strategy=" + strategy
+                + ", amplitudeControl=" + hasAmplitudeControl
+                + ", primitives(THUD,SPIN,TICK)=" + Arrays.toString(primitiveSupported)
+                + ", durationsMs=" + Arrays.toString(primitiveDurationsMs)
+                + ", vibratorIds=" + Arrays.toString(vibratorIds)
+                + ", f0=" + resonantFrequencyHz + "Hz}";
+    }
+}
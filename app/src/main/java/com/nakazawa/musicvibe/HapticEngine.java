@@ -2,10 +2,10 @@ package com.nakazawa.musicvibe;
 
 import android.content.Context;
 import android.media.audiofx.HapticGenerator;
-import android.media.audiofx.Visualizer;
 import android.os.Build;
 import android.os.Handler;
 import android.os.HandlerThread;
+import android.os.SystemClock;
 import android.os.VibrationEffect;
 import android.os.Vibrator;
 import android.os.VibratorManager;
@@ -13,335 +13,868 @@ import android.util.Log;
 
 import androidx.annotation.RequiresApi;
 
-import java.util.concurrent.ArrayBlockingQueue;
-import android.os.CombinedVibration;
+import com.nakazawa.musicvibe.core.AlignmentDelayLine;
+import com.nakazawa.musicvibe.core.BackgroundSignalPath;
+import com.nakazawa.musicvibe.core.Dsp;
+import com.nakazawa.musicvibe.core.FrameStats;
+import com.nakazawa.musicvibe.core.LatencyStats;
+import com.nakazawa.musicvibe.core.LookaheadWindow;
+import com.nakazawa.musicvibe.core.MetricsRegistry;
+import com.nakazawa.musicvibe.core.OnsetDetector;
+import com.nakazawa.musicvibe.core.OnsetSignalPath;
+import com.nakazawa.musicvibe.core.PcmRingBuffer;
+import com.nakazawa.musicvibe.core.PolyphaseDecimator;
+import com.nakazawa.musicvibe.core.PowerGovernor;
+import com.nakazawa.musicvibe.core.StrategySwitch;
+import com.nakazawa.musicvibe.core.TempoTracker;
+import com.nakazawa.musicvibe.core.TransferCurve;
+import com.nakazawa.musicvibe.core.WaveformBatcher;
+
+import java.nio.ByteBuffer;
+import java.nio.FloatBuffer;
 
 /**
  * HapticEngine
  * ──────────────────────────────────────────────────────────────
- * ・アプリ内再生（audioSession > 0）
+ * ・アプリ内再生（audioSession > 0，PCM タップ）
  *     ├─ HapticGenerator が使える端末 → そのまま HG
- *     └─ 使えない端末 → Visualizer + Primitive 合成
+ *     └─ それ以外 → ExoPlayer の AudioProcessor でタップした PCM を聞こえる前に解析し，
+ *         WAVEFORM は先読み窓から聞こえる時刻に合わせた波形，
+ *         COMPOSITION / ONSET はオンセット → Primitive 合成を遅延線で聞こえる時刻に合わせて鳴らす
  * ・BackGround 再生（audioSession == 0）
- *     └─ AudioRecord から PCM を受け取り，本 Runnable で滑らか振動
+ *     └─ AudioRecord から PCM を受け取り，フレームが揃い次第その場で解析して滑らか振動
+ * ・信号処理本体は haptic-core（BackgroundSignalPath / OnsetSignalPath）にあり，
+ *   本クラスは Android 側の入出力（PCM の受け取り, Vibrator）だけを受け持つ
+ * ・振動の出し方は HapticStrategy として差し替える（setStrategy）
+ *     入力・解析・sink スレッドはそのままで，sink スレッドで原子的に切り替える
+ *     （Advanced の切り替えや BackGround の開始・停止でエンジンを作り直さない）
+ *     要求から反映までの時間は strategy.switch* として metrics に出す
+ * ・BackGround / PCM タップは無音が続くと省電力（PowerGovernor の IDLE）に入り，
+ *   まばらなプローブだけ解析して振動は出さない。音が戻ればそのフレームから全解析
+ * ・BackGround / PCM タップは取り込みと解析の間で PolyphaseDecimator により間引く
+ *   （既定 1/10：44.1 kHz → 4.41 kHz）。1 フレームの時間長（判定・振動の更新間隔）は変えず，
+ *   帯域フィルタ・包絡・ゲートが触るサンプル数だけ減らす（setDecimation で変更，1 で間引かない）
  */
 @RequiresApi(api = Build.VERSION_CODES.S)
 public class HapticEngine {
 
     /*==== 共通定数 =====================================================*/
     private static final String TAG = "HapticEngine";
-    private static final int    FRAME_MS      = 20;   // Visualizer 版用（従来どおり）
-    private static final float  DEFAULT_SCALE = 1.2f; // 音量スケール初期値
+    private static final int    FRAME_MS      = 20;   // 単発振動（ONE_SHOT）の長さ
+    private static final int    ACTUATOR_RISE_MS = 30; // vibrate() が返ってから THUD が立ち上がるまでの見込み
+    private static final float  BEAT_STRENGTH   = 0.8f;
 
     /*==== BackGround 専用定数 ==========================================*/
-    private static final int    FRAME_MS_BG   = 10;   // 1 フレーム 30 ms
-    private static final int    MIN_AMPLITUDE = 15;   // 振幅下限
-    private static final double GATE_MARGIN   = 0.02; // ノイズ床 + 2 %
+    private static final int    FRAME_MS_BG   = 10;   // 振動波形の 1 セグメント長
+    // 解析が詰まったら古い側から捨てる。溜めるのは 8 フレーム（44.1 kHz で 186 ms）まで
+    private static final int    RING_CAPACITY = 8 * BackgroundSignalPath.FRAME_SAMPLES;
+    private static final int    BG_WINDOW_MS  = 100;
+    private static final int    BG_TOLERANCE  = 8;    // 保持中の振幅との差がこれを超えたら投げ直す
+
+    /*==== PCM タップ専用定数 ===========================================*/
+    public  static final int    DEFAULT_LOOKAHEAD_MS = 200; // 1 回の vibrate で投げる先読みの長さ
+    private static final int    LOOKAHEAD_FRAMES     = 64;  // 先読み窓の上限（1024 サンプル × 64 ≒ 1.4 s）
+    private static final long   PLAN_TICK_MS         = 20;  // 先読み窓を見直す間隔
+
+    /*==== 解析前段 =====================================================*/
+    // 44.1 kHz → 4.41 kHz（ナイキスト 2.2 kHz）。bass / melody 帯域（〜1.5 kHz）は通過域に残る
+    public  static final int    DEFAULT_DECIMATION   = 10;
     /*==== フィールド ===================================================*/
     private final Vibrator vibrator;
-    private final ArrayBlockingQueue<short[]> pcmQueue = new ArrayBlockingQueue<>(64);
-
-    private boolean useHg;
-    private HapticGenerator hg;
-    private HandlerThread thread;
-    private Handler handler;
-
-    private float  userScale    = DEFAULT_SCALE;
-    private double noiseFloor   = 0.0; // ゲート用 EMA
-    private double smoothedNorm = 0.0; // 追加平滑化用
-    private int lastBgAmp = 0;
-    private static final int AMP_DELTA       = 5;   // 振幅差の最小変化量
-    private boolean bgLooping = false;
-    private volatile short[] latestPcm = new short[0];
+    private final HapticCapabilities caps;   // 生成時に 1 回だけ問い合わせる
+    private final PcmRingBuffer pcmRing  = new PcmRingBuffer(RING_CAPACITY);
+    private final short[]       bgFrame  = new short[BackgroundSignalPath.FRAME_SAMPLES]; // 解析スレッド専用
+    private final BackgroundSignalPath bgPath =
+            new BackgroundSignalPath(CaptureService.SAMPLE_RATE);
+    // オンセット・テンポ（解析スレッド専用。時刻はフレーム先頭が聞こえる時刻）
+    private final OnsetSignalPath onsetPath = new OnsetSignalPath(CaptureService.SAMPLE_RATE);
+    // ライブ解析は先が見えない（今の 1 フレームしか渡さない）ので，
+    // 窓は最後の値で埋まり保持ループになる（解析スレッド専用）
+    private final WaveformBatcher bgBatcher =
+            new WaveformBatcher(FRAME_MS_BG, BG_WINDOW_MS, BG_TOLERANCE);
+    private final int[]          bgUpcoming = new int[1];
+    // 量子化済み VibrationEffect の使い回し（定常状態で確保しない）
+    private final VibrationEffectCache effects = new VibrationEffectCache(FRAME_MS_BG, FRAME_MS);
+
+    private final boolean hgSupported;                        // HapticGenerator を作れる端末・セッション
+    private volatile HapticGenerator hg;                      // 初めて HG に切り替えた時に作る（sink スレッド）
+
+    private final boolean bgMode;                             // audioSession == 0
+    private final boolean pcmTap;                             // PCM タップから解析する（audioSession > 0）
+    private volatile boolean released = false;
+    private final FrameStats bgStats = new FrameStats();
+    private final LatencyStats latency = new LatencyStats();   // 段階別レイテンシ（lock-free）
+    // 運用カウンタ（dumpsys / Binder 向け，lock-free）
+    private final MetricsRegistry metrics = new MetricsRegistry();
+    private final MetricsRegistry.Counter mCaptureReads   = metrics.counter("capture.reads");
+    private final MetricsRegistry.Counter mCaptureSamples = metrics.counter("capture.samples");
+    private final MetricsRegistry.Counter mFrames         = metrics.counter("frames.analysed");
+    private final MetricsRegistry.Counter mFramesGateOpen = metrics.counter("frames.gateOpen");
+    private final MetricsRegistry.Counter mFramesSkipped  = metrics.counter("frames.skippedIdle");
+    private final MetricsRegistry.Meter   mVibrate        = metrics.meter("vibrator.vibrate");
+    private final MetricsRegistry.Meter   mCancel         = metrics.meter("vibrator.cancel");
     private final Context mContext;
     private final int     mAudioSessionId;
     private volatile boolean isPaused = false;
-    private Visualizer visualizer;
+    private long    scheduledBeatMs = -1;    // 予約済み THUD の拍時刻（聞こえる時刻，strategyLock 内）
+    private boolean beatLocked      = false;
+    // 解析 → 聞こえる時刻の合わせ込み
+    // （オンセットは遅延線として，WAVEFORM の先読み窓はレイテンシの較正値だけ使う）
+    private final AlignmentDelayLine<VibrationEffectCache.Entry> align =
+            new AlignmentDelayLine<>(AlignmentDelayLine.DEFAULT_CAPACITY,
+                    AlignmentDelayLine.DEFAULT_MAX_DELAY_MS, ACTUATOR_RISE_MS);
+    private HandlerThread sinkThread;
+    private volatile Handler sink;
+
+    private volatile boolean bgResetPending = false;          // 一時停止後に batcher を作り直す
+    // 取り込み → 解析の間引き（要求はどのスレッドからでも，反映は解析スレッドで次のチャンクから）
+    private volatile int decimation = DEFAULT_DECIMATION;
+    private volatile boolean decimatorResetPending = false;
+    private PolyphaseDecimator decimator;                    // 解析スレッド専用（null で間引かない）
+    private int  inputRate = CaptureService.SAMPLE_RATE;    // 間引く前のサンプルレート（解析スレッド専用）
+    private long chunkCaptureNs, chunkArrivalNs;            // 間引き中のチャンクの時刻（解析スレッド専用）
+    private final PolyphaseDecimator.FrameSink decimatedSink = this::onDecimatedFrame;
+    // 無音が続いたら解析を間引く（BackGround / PCM タップ，解析スレッドで更新）
+    private final PowerGovernor power = new PowerGovernor();
+    // PCM タップ：解析済み振幅を聞こえる時刻付きで溜め，sink スレッドが波形にする
+    private final LookaheadWindow lookahead = new LookaheadWindow(LOOKAHEAD_FRAMES);
+    private volatile int     lookaheadMs = DEFAULT_LOOKAHEAD_MS;
+    private volatile boolean planning = false;
+    private volatile boolean planResetPending = false;
+    private WaveformBatcher  planBatcher;                    // sink スレッド専用
+    private int[]            planUpcoming;
+
+    // 振動の出し方：反映は sink スレッド，使用は入力スレッド（strategyLock で排他）
+    private final Object strategyLock = new Object();
+    private final StrategySwitch<HapticStrategy> strategies = new StrategySwitch<>((from, to) -> {
+        if (from != null) from.deactivate();
+        to.activate();
+    });
+    private final HapticStrategy hgStrategy          = new HapticGeneratorStrategy();
+    private final HapticStrategy waveformStrategy    = new WaveformStrategy();
+    private final HapticStrategy compositionStrategy = new OnsetStrategy(true);
+    private final HapticStrategy onsetStrategy       = new OnsetStrategy(false);
+    private final HapticStrategy offStrategy         = new HapticStrategy() {
+        @Override public Kind kind() { return Kind.OFF; }
+    };
 
 
     public HapticEngine(Context context, int audioSessionId) {
-        this.mContext        = context;   // ← 初期化
-        this.mAudioSessionId = audioSessionId; // ← 初期化
-        this.vibrator        =
-                (Vibrator) mContext.getSystemService(Context.VIBRATOR_SERVICE);
+        this(context, audioSessionId, false);
+    }
+
+    /** 既存の統計を読み出し時に覗くだけのゲージ（更新側の負担なし） */
+    private void registerGauges() {
+        metrics.gauge("ring.overflowSamples", () -> pcmRing.getOverflowSamples());
+        metrics.gauge("ring.underruns",       () -> pcmRing.getUnderrunCount());
+        metrics.gauge("gate.openRatio", () -> {
+            long n = mFrames.get();
+            return (n == 0) ? 0 : (double) mFramesGateOpen.get() / n;
+        });
+        metrics.gauge("bg.noiseFloor",        () -> bgPath.getNoiseFloor());
+        metrics.gauge("analysis.avgUs",       () -> bgStats.getAvgFrameNanos() / 1e3);
+        metrics.gauge("analysis.maxUs",       () -> bgStats.getMaxFrameNanos() / 1e3);
+        metrics.gauge("analysis.fps",         () -> bgStats.getFramesPerSecond());
+        metrics.gauge("bg.ipcPerSecond",      () -> bgBatcher.getIpcPerSecond());
+        metrics.gauge("effectCache.hitRate",  () -> effects.getHitRate());
+        metrics.gauge("tempo.bpm",            () -> onsetPath.getTempo().getBpm());
+        metrics.gauge("tempo.confidence",     () -> onsetPath.getTempo().getConfidence());
+        metrics.gauge("align.delayMs",        () -> align.getDelayMs());
+        metrics.gauge("align.audioLatencyMs", () -> align.getAudioLatencyMs());
+        metrics.gauge("align.vibratorLatencyMs", () -> align.getVibratorLatencyMs());
+        metrics.gauge("align.dropped",        () -> align.getDropped());
+        metrics.gauge("lookahead.frames",     () -> lookahead.size());
+        metrics.gauge("lookahead.aheadMs",    () -> {
+            long h = lookahead.horizonNs();
+            return (h == Long.MIN_VALUE) ? 0 : (h - System.nanoTime()) / 1e6;
+        });
+        metrics.gauge("lookahead.dropped",    () -> lookahead.getDropped());
+        metrics.gauge("power.idle",           () -> power.isActive() ? 0 : 1);
+        metrics.gauge("power.activeSec",      () -> power.getTimeNanos(PowerGovernor.ACTIVE) / 1e9);
+        metrics.gauge("power.idleSec",        () -> power.getTimeNanos(PowerGovernor.IDLE) / 1e9);
+        metrics.gauge("power.idleRatio",      () -> power.getIdleRatio());
+        metrics.gauge("power.wakeups",        () -> power.getWakeups());
+        metrics.gauge("strategy.switches",    () -> strategies.getSwitchCount());
+        metrics.gauge("strategy.switchLastMs", () -> strategies.getLastSwitchNanos() / 1e6);
+        metrics.gauge("strategy.switchP95Ms", () -> strategies.getLatency().percentileMicros(95) / 1e3);
+        metrics.gauge("strategy.switchMaxMs", () -> strategies.getLatency().maxMicros() / 1e3);
+        metrics.gauge("analysis.decimation",  () -> decimation);
+        metrics.gauge("analysis.sampleRate",  () -> bgPath.getSampleRate());
     }
 
 
     /*==================================================================*/
 
+    /**
+     * @param audioSession  0 なら BackGround（{@link #onPCM} / {@link #onPcmFrame}），
+     *                      それ以外はそのセッションの PCM タップ（{@link #onPcmBuffer}）から解析する
+     *                      （出力レイテンシは呼び出し側が updateAudioLatency() で入れる）
+     * @param forceFallback HapticGenerator を使わずに始める（後から {@link #setStrategy} で変えられる）
+     */
     public HapticEngine(Context ctx, int audioSession, boolean forceFallback) {
-        // ① mContext, mAudioSessionId, vibrator はここで初期化される
-        this(ctx, audioSession);
+        this.mContext        = ctx;
+        this.mAudioSessionId = audioSession;
+        this.vibrator        = (Vibrator) mContext.getSystemService(Context.VIBRATOR_SERVICE);
+        this.caps            = HapticCapabilities.query(mContext, vibrator);
+        this.bgMode          = (audioSession == 0);
+        this.pcmTap          = !bgMode;
+        this.hgSupported     = audioSession > 0 && HapticGenerator.isAvailable();
+        Log.d(TAG, "Capabilities: " + caps);
+        registerGauges();
+
+        // BackGround / PCM タップは onPCM() 呼び出し側スレッドで解析する。
+        // sink スレッドは遅延線・先読み・戦略の切り替えに使う
+        startSink();
+        setStrategy(forceFallback ? fallback().kind() : HapticStrategy.Kind.HAPTIC_GENERATOR);
+    }
 
-        // ② HapticGenerator 利用可否を判定
-        boolean hgAvailable = !forceFallback
-                && HapticGenerator.isAvailable()
-                && audioSession > 0;
-        this.useHg = false;
+    /** 遅延線から振動を鳴らし，戦略の切り替えを反映するスレッド */
+    private void startSink() {
+        if (sinkThread != null) return;
+        sinkThread = new HandlerThread("HapticAlignSink");
+        sinkThread.start();
+        sink = new Handler(sinkThread.getLooper());
+    }
 
-        if (hgAvailable) {
-            try {
-                hg = HapticGenerator.create(audioSession);
-                hg.setEnabled(true);
-                useHg = true;
-                return;
-            } catch (Exception e) {
-                Log.w(TAG, "HapticGenerator init failed, fallbackへ", e);
+    /*-----------------------------------------------------------------------
+     * BackGround / PCM タップ：滑らか振動（リングに 1 フレーム揃うたびに呼ばれる）
+     *---------------------------------------------------------------------*/
+    /**
+     * @param captureNs 直前に書いたチャンクの最後のサンプルが取り込まれた時刻
+     * @param arrivalNs そのチャンクの read() が返った時刻
+     */
+    private void drainBgFrames(long captureNs, long arrivalNs) {
+        while (!released && pcmRing.available() >= bgFrame.length) {
+            pcmRing.readFrame(bgFrame);
+            long start = System.nanoTime();
+            if (!admitFrame(Dsp.peakOf(bgFrame, 0, bgFrame.length) / 32768.0, start)) continue;
+            // リングに残ったサンプル数ぶん，このフレームの末尾は古い
+            long frameCaptureNs = captureNs
+                    - pcmRing.available() * 1_000_000_000L / bgPath.getSampleRate();
+            latency.record(LatencyStats.QUEUE, start - arrivalNs);
+            bgPath.process(bgFrame, bgFrame.length);
+            onsetPath.process(bgFrame, bgFrame.length, presentNs(bgFrame.length, frameCaptureNs) / 1_000_000L);
+            onBgFrameAnalysed(bgFrame.length, start, frameCaptureNs);
+        }
+    }
+
+    /**
+     * 間引いた 1 フレームを解析する（PolyphaseDecimator から，取り込み／再生スレッド）。
+     * フレーム末尾はチャンクの残りとフィルタの群遅延のぶん古い。
+     */
+    private void onDecimatedFrame(FloatBuffer frame, int inputAfter) {
+        if (released) return;
+        int n = frame.remaining();
+        long start = System.nanoTime();
+        if (!admitFrame(Dsp.peakOf(frame, n), start)) return;
+        long frameCaptureNs = chunkCaptureNs
+                - (long) ((inputAfter + decimator.getDelaySamples()) * 1e9 / inputRate);
+        latency.record(LatencyStats.QUEUE, start - chunkArrivalNs);
+        bgPath.process(frame, n);
+        onsetPath.process(frame, n, presentNs(n, frameCaptureNs) / 1_000_000L);
+        onBgFrameAnalysed(n, start, frameCaptureNs);
+    }
+
+    /**
+     * 要求された間引き率と入力レートに合わせて前段と解析のレートを揃える（解析スレッド，チャンクごと）。
+     * 作り直したら組み立て中のフレームは捨てる。間引くなら decimator を返す（間引かないなら null）。
+     */
+    private PolyphaseDecimator ensureDecimator(int rate) {
+        int factor = decimation;
+        PolyphaseDecimator d = decimator;
+        int current = (d != null) ? d.getFactor() : 1;
+        if (factor != current || rate != inputRate) {
+            inputRate = rate;
+            pcmRing.clear();
+            d = (factor > 1) ? new PolyphaseDecimator(factor, PolyphaseDecimator.frameLengthFor(factor)) : null;
+            decimator = d;
+            bgPath.setSampleRate(rate / factor);
+            onsetPath.setSampleRate(rate / factor);
+            onsetPath.reset();
+            decimatorResetPending = false;
+            Log.d(TAG, "Analysis: " + rate + " Hz / " + factor + " -> " + bgPath.getSampleRate() + " Hz");
+        } else if (decimatorResetPending) {
+            decimatorResetPending = false;
+            if (d != null) d.reset();
+            onsetPath.reset();   // 拍の位相も前の位置のもの
+        }
+        return d;
+    }
+
+    /**
+     * フレーム先頭が聞こえる時刻（ns）。PCM タップは出力レイテンシのぶん先，
+     * BackGround は取り込んだ時点で聞こえている。
+     */
+    private long presentNs(int samples, long frameCaptureNs) {
+        long startNs = frameCaptureNs - samples * 1_000_000_000L / bgPath.getSampleRate();
+        return pcmTap ? startNs + (long) (align.getAudioLatencyMs() * 1e6) : startNs;
+    }
+
+    /** 省電力中は帯域解析を回さず，ゲートを開け得るフレームとプローブだけ解析する（level はピーク |x|） */
+    private boolean admitFrame(double level, long startNs) {
+        if (power.shouldAnalyse(level, bgPath.getWakeLevel(), startNs)) return true;
+        mFramesSkipped.inc();
+        return false;
+    }
+
+    /**
+     * bgPath.process() の後処理。解析は戦略によらず行う（切り替えた時に温まっているように）。
+     * 省電力中のプローブは解析だけで，振動（vibrate / cancel）は出さない。
+     */
+    private void onBgFrameAnalysed(int samples, long startNs, long frameCaptureNs) {
+        boolean wasActive = power.isActive();
+        power.onAnalysed(bgPath.isGateOpen(), startNs);
+        if (wasActive != power.isActive()) Log.d(TAG, "Power: " + power);
+        if (power.isActive()) {
+            synchronized (strategyLock) {
+                HapticStrategy s = strategies.current();
+                if (s != null) s.onFrame(bgPath, samples, startNs, frameCaptureNs);
             }
         }
+        mFrames.inc();
+        if (bgPath.isGateOpen()) mFramesGateOpen.inc();
+        if (bgStats.record(startNs, System.nanoTime())) {
+            Log.v(TAG, "BG analysis: " + bgStats
+                    + String.format(java.util.Locale.US, ", %.1f ipc/s", bgBatcher.getIpcPerSecond())
+                    + ", " + effects);
+        }
+    }
 
-        // ③ フォールバック経路
-        if (audioSession == 0) {
-            thread = new HandlerThread("HapticEngineBgThread");
-            thread.start();
-            handler = new Handler(thread.getLooper());
-            handler.postDelayed(processRmsRunnableBg, FRAME_MS_BG);
-        } else {
-            setupPrimitiveVisualizer();
+    /**
+     * 振幅を保持ループで鳴らし続ける（BackGround の WAVEFORM）。
+     * 保持中の振幅との差が BG_TOLERANCE を超えた時だけ投げ直す。
+     */
+    private void holdLoop(int amplitude, long startNs, long originNs) {
+        if (bgResetPending) {
+            bgResetPending = false;
+            bgBatcher.reset();   // 一時停止中に cancel 済み：次のフレームで必ず投げ直す
         }
+        bgUpcoming[0] = amplitude;
+        int action = bgBatcher.update(SystemClock.uptimeMillis(), bgUpcoming, 1);
+        long ipcStart = System.nanoTime();
+        latency.record(LatencyStats.ANALYSIS, ipcStart - startNs);
+        switch (action) {
+            case WaveformBatcher.ACTION_SUBMIT:
+                // 計画は常に保持ループなので，同じ振幅の 1 セグメントループと等価
+                // 差が BG_TOLERANCE を超えるまで投げ直さない
+                vibrator.vibrate(effects.loop(bgUpcoming[0]).effect);
+                mVibrate.mark(ipcStart);
+                break;
+            case WaveformBatcher.ACTION_CANCEL:
+                vibrator.cancel();
+                mCancel.mark(ipcStart);
+                break;
+            default:
+                return;
+        }
+        long ipcEnd = System.nanoTime();
+        latency.record(LatencyStats.IPC, ipcEnd - ipcStart);
+        latency.record(LatencyStats.END_TO_END, ipcEnd - originNs);
     }
 
-    /*-----------------------------------------------------------------------
-     * BackGround 専用：滑らか振動 Runnable
-     *---------------------------------------------------------------------*/
-    private final Runnable processRmsRunnableBg = new Runnable() {
+    /*==== PCM タップ：先読み窓 → 波形（sink スレッド） ================*/
+    private void schedulePlan() {
+        if (planning) return;
+        Handler h = sink;
+        if (h == null) return;
+        planning = true;
+        h.post(planTick);
+    }
+
+    /**
+     * 「今 vibrate したものが体に届く時刻」から先読み窓ぶんの振幅を引き，
+     * 計画とずれた時だけ波形を投げ直す。窓が空になったら止まる（次の push で再開）。
+     */
+    private final Runnable planTick = new Runnable() {
         @Override public void run() {
-            // 1. PCMデータをキューから取得
-            short[] pcm = pcmQueue.poll();
-            if (pcm == null) {
-                // データ無 -> 次フレーム予約
-                handler.postDelayed(this, FRAME_MS_BG);
-                return;
+            if (released) return;
+            if (planResetPending) {          // シーク・一時停止：前の計画を捨てる
+                planResetPending = false;
+                planBatcher = null;
+                vibrator.cancel();
             }
-
-            // 2. 擬似3バンドRMSを計算
-            int n = pcm.length / 3;
-            double bass   = rmsOf(pcm, 0, n);
-            double melody = rmsOf(pcm, n, 2 * n);
-            double other  = rmsOf(pcm, 2 * n, pcm.length);
-            double weighted = 1.5 * bass + 2.5 * melody + 0.25 * other;
-            double x = Math.min(1.0, weighted / 32768.0);
-
-            // 3. ノイズゲート判定 (更新前の noiseFloor を使用)
-            double threshold = noiseFloor + GATE_MARGIN;
-            boolean gateOpen = (x >= threshold);
-
-            // 4. ノイズ床をEMAでゆっくり更新
-            double target = gateOpen ? threshold : x;
-            noiseFloor = noiseFloor * 0.99 + target * 0.01;
-
-            if (!gateOpen) {
-                // ゲート閉 -> 振動停止 or 継続無し
-                if (bgLooping) {
+            int windowMs = lookaheadMs;
+            if (planBatcher == null || planBatcher.segmentCount() != (windowMs + FRAME_MS_BG - 1) / FRAME_MS_BG) {
+                planBatcher  = new WaveformBatcher(FRAME_MS_BG, windowMs, BG_TOLERANCE);
+                planUpcoming = new int[planBatcher.segmentCount()];
+            }
+            // 正のユーザ補正は振動を遅らせる = その分だけ前の音を当てる
+            long fromNs = System.nanoTime()
+                    + (long) ((align.getVibratorLatencyMs() - align.getUserOffsetMs()) * 1e6);
+            int n = isPaused ? 0
+                    : lookahead.fill(fromNs, FRAME_MS_BG * 1_000_000L, planUpcoming, planUpcoming.length);
+            int action = planBatcher.update(SystemClock.uptimeMillis(), planUpcoming, n);
+            if (action != WaveformBatcher.ACTION_NONE) {
+                long ipcStart = System.nanoTime();
+                if (action == WaveformBatcher.ACTION_SUBMIT) {
+                    vibrator.vibrate(VibrationEffect.createWaveform(planBatcher.getTimings(),
+                            planBatcher.getAmplitudes(), planBatcher.getRepeatIndex()));
+                    mVibrate.mark(ipcStart);
+                } else {
                     vibrator.cancel();
-                    bgLooping = false;
+                    mCancel.mark(ipcStart);
                 }
-                handler.postDelayed(this, FRAME_MS_BG);
+                long ipcNs = System.nanoTime() - ipcStart;
+                latency.record(LatencyStats.IPC, ipcNs);
+                align.recordVibratorCall(ipcNs);
+            }
+            if (n == 0) {
+                planning = false;
                 return;
             }
+            Handler h = sink;
+            if (h != null) h.postDelayed(this, PLAN_TICK_MS);
+        }
+    };
+
+    public void pauseHaptics() {
+        isPaused = true;
+        stopVibration();
+    }
+
+    // 再開メソッド
+    public void resumeHaptics() {
+        if (!isPaused) return;
+        isPaused = false;
+    }
+
+    /*==== 振動の出し方（HapticStrategy） ==============================*/
+    /** 端末の HapticGenerator に任せる。生成は初回の切り替え時だけ */
+    private final class HapticGeneratorStrategy implements HapticStrategy {
+        @Override public Kind kind() { return Kind.HAPTIC_GENERATOR; }
 
-            // 5. 非線形圧縮 + 追加ロー・パス平滑化
-            double t = 0.25;
-            double norm = (x < t)
-                    ? Math.pow(x / t, 3.5) * 0.35
-                    : 0.4 + Math.pow((x - t) / (1 - t), 7) * 0.6;
-            smoothedNorm = 0.3 * norm + 0.7 * smoothedNorm;
-
-            // 6. 振動開始 or 更新
-            int amp = (int) (smoothedNorm * userScale * 255);
-            if (amp >= MIN_AMPLITUDE) {
-                if (!bgLooping || Math.abs(amp - lastBgAmp) > AMP_DELTA) {
-                    long[] timings    = {0, FRAME_MS_BG};
-                    int[]  amplitudes = {0, amp};
-                    // 一度だけ設定しループ再生 (repeat=0)
-                    VibrationEffect effect =
-                            VibrationEffect.createWaveform(timings, amplitudes, 0);
-                    vibrator.vibrate(effect);
-                    bgLooping = true;
-                    lastBgAmp = amp;
+        @Override public void prepare() {
+            if (hg != null || released) return;
+            try {
+                HapticGenerator g = HapticGenerator.create(mAudioSessionId);
+                if (released) {          // 作っている間に release() された
+                    g.release();
+                    return;
                 }
-            } else if (bgLooping) {
-                vibrator.cancel();
-                bgLooping = false;
+                hg = g;
+            } catch (Exception e) {
+                Log.w(TAG, "HapticGenerator init failed, fallbackへ", e);
             }
+        }
 
-            // 7. 次フレーム予約
-            handler.postDelayed(this, FRAME_MS_BG);
+        @Override public void activate()   { if (hg != null) hg.setEnabled(true); }
+        @Override public void deactivate() { if (hg != null) hg.setEnabled(false); }
+    }
+
+    /** RMS 振幅の波形。PCM タップは先読み窓へ，BackGround は保持ループ */
+    private final class WaveformStrategy implements HapticStrategy {
+        @Override public Kind kind() { return Kind.WAVEFORM; }
+        @Override public void deactivate() { stopVibration(); }
+
+        @Override
+        public void onFrame(BackgroundSignalPath p, int samples, long startNs, long frameCaptureNs) {
+            int amp = p.isLooping() ? p.getAmplitude() : 0;
+            if (!pcmTap) {
+                holdLoop(amp, startNs, frameCaptureNs);
+                return;
+            }
+            // タップした PCM はまだ聞こえていない：聞こえる時刻を付けて先読み窓へ
+            long durNs = samples * 1_000_000_000L / p.getSampleRate();
+            lookahead.push(presentNs(samples, frameCaptureNs), durNs, amp);
+            latency.record(LatencyStats.ANALYSIS, System.nanoTime() - startNs);
+            schedulePlan();
         }
-    };
+    }
+
+    /**
+     * オンセットのあったフレームだけハプティクスを生成する（BackGround / PCM タップ共通）。
+     * 振動は遅延線を通し，元の音が聞こえる時刻に合わせて鳴らす。
+     * predictBeats なら，テンポが取れている間は拍の THUD を先に予約し，kick には反応しない。
+     */
+    private final class OnsetStrategy implements HapticStrategy {
+        private final boolean predictBeats;
+
+        OnsetStrategy(boolean predictBeats) { this.predictBeats = predictBeats; }
 
-    /*==== Visualizer → Primitive 経路（従来どおり） ==================*/
-    private void setupPrimitiveVisualizer() {
-        try {
-            // ① もし前回の visualizer が生きていれば必ず無効化＆解放
-            if (visualizer != null) {
-                visualizer.setEnabled(false);   // 停止
-                visualizer.release();           // リソース解放
+        @Override public Kind kind() { return predictBeats ? Kind.COMPOSITION : Kind.ONSET; }
+
+        @Override public void deactivate() {
+            stopVibration();
+            scheduledBeatMs = -1;
+            beatLocked = false;
+        }
+
+        @Override
+        public void onFrame(BackgroundSignalPath p, int samples, long startNs, long frameCaptureNs) {
+            int onsets = onsetPath.getOnsets();
+            // オンセット・テンポの時刻（フレーム先頭が聞こえる時刻）と，その音を取り込んだ時刻
+            long durNs    = samples * 1_000_000_000L / p.getSampleRate();
+            long nowMs    = presentNs(samples, frameCaptureNs) / 1_000_000L;
+            long originNs = frameCaptureNs - durNs;
+
+            // 拍予測：信頼度が低ければリアクティブ（従来の kick → THUD）に戻す
+            TempoTracker tempo = onsetPath.getTempo();
+            boolean locked = predictBeats
+                    && caps.strategy == HapticCapabilities.Strategy.COMPOSITION && tempo.isLocked();
+            if (locked != beatLocked) {
+                beatLocked = locked;
+                Log.d(TAG, String.format(java.util.Locale.US, "Beat tracking %s (%.1f BPM, conf %.2f)",
+                        locked ? "locked" : "lost", tempo.getBpm(), tempo.getConfidence()));
+            }
+            if (locked) {
+                if (scheduleBeat(tempo, nowMs, durNs / 1_000_000L, originNs, startNs)) return;
+                // 予約した THUD より前の音では鳴らさない（後の vibrate が予約を打ち消すため）
+                if (scheduledBeatMs > nowMs) return;
+                onsets &= ~(1 << OnsetDetector.BAND_KICK);
+            }
+            if (onsets == 0) return;   // 立ち上がりの無いフレームでは鳴らさない
+
+            // kick → THUD，snare / hat → TICK。強さを量子化してキャッシュから引く
+            boolean kick = (onsets & (1 << OnsetDetector.BAND_KICK)) != 0;
+            boolean tick = (onsets & (1 << OnsetDetector.BAND_SNARE | 1 << OnsetDetector.BAND_HAT)) != 0;
+            float kickStrength = onsetPath.getOnsetStrength(OnsetDetector.BAND_KICK);
+            float tickStrength = Math.max(onsetPath.getOnsetStrength(OnsetDetector.BAND_SNARE),
+                                          onsetPath.getOnsetStrength(OnsetDetector.BAND_HAT));
+
+            // 効果選択：生成時に決めた caps.strategy に従う（毎フレームの能力問い合わせはしない）
+            VibrationEffectCache.Entry effect;
+            if (caps.strategy == HapticCapabilities.Strategy.COMPOSITION) {
+                effect = effects.onset(VibrationEffectCache.level(kickStrength, kick),
+                                       VibrationEffectCache.level(tickStrength, tick));
+            }
+            else if (caps.strategy != HapticCapabilities.Strategy.ONE_SHOT) {
+                effect = effects.predefined(VibrationEffect.EFFECT_HEAVY_CLICK);
+            }
+            else {
+                float strength = Math.max(kick ? kickStrength : 0, tick ? tickStrength : 0);
+                effect = effects.oneShot(Math.round(strength * 255));
             }
 
-            visualizer = new Visualizer(mAudioSessionId);
-            // ③ STATE_INITIALIZED の状態なのでキャプチャサイズ設定OK
-            visualizer.setCaptureSize(Visualizer.getCaptureSizeRange()[1]);
-            visualizer.setDataCaptureListener(
-                    new Visualizer.OnDataCaptureListener() {
-                        @Override
-                        public void onWaveFormDataCapture(Visualizer v, byte[] wf, int sr) {
-                            if (wf == null) return;
-                            short[] pcm = new short[wf.length];
-                            for (int i = 0; i < wf.length; i++) {
-                                pcm[i] = (short) (((wf[i] & 0xFF) - 128) << 8);
-                            }
-                            latestPcm = pcm;
-                        }
-
-                        @Override
-                        public void onFftDataCapture(Visualizer v, byte[] fft, int sr) {
-                            // 一時停止中は振動処理に入らない
-                            if (isPaused) return;
-                            if (fft != null && latestPcm.length > 0) {
-                                processFftPrimitives(latestPcm, fft, mAudioSessionId);
-                            }
-                        }
-                    },
-                    Visualizer.getMaxCaptureRate() / 2,
-                    true,   // waveform
-                    true    // fft
-            );
-            visualizer.setEnabled(true);
-        } catch (Exception e) {
-            Log.e(TAG, "Visualizer init error", e);
+            play(effect, startNs, originNs);
         }
     }
 
-    public void pauseHaptics() {
-        isPaused = true;
-        vibrator.cancel();
-        if (visualizer != null) {
-            // キャプチャエンジンを停止するだけ → release() は呼ばない
-            visualizer.setEnabled(false);  // Visualizer must be disabled before release  [oai_citation:0‡Android Developers](https://developer.android.com/reference/android/media/audiofx/Visualizer?utm_source=chatgpt.com)
+    /** この入力で使えない戦略は近いものに置き換える */
+    private HapticStrategy resolve(HapticStrategy.Kind kind) {
+        switch (kind) {
+            case HAPTIC_GENERATOR: return hgSupported ? hgStrategy : fallback();
+            case WAVEFORM:         return waveformStrategy;
+            case COMPOSITION:      return compositionStrategy;
+            case ONSET:            return onsetStrategy;
+            default:               return offStrategy;
         }
     }
 
-    // 再開メソッド
-    public void resumeHaptics() {
-        if (!isPaused || visualizer == null) return;
-        isPaused = false;
-        visualizer.setEnabled(true);     // 再度キャプチャをオンにする  [oai_citation:1‡マイクロソフトラーニング](https://learn.microsoft.com/en-us/dotnet/api/android.media.audiofx.visualizer.setenabled?view=net-android-34.0&utm_source=chatgpt.com)
+    /** HapticGenerator を使わない時の既定 */
+    private HapticStrategy fallback() {
+        return waveformStrategy;
     }
 
     /**
-     * 時間領域（PCM）と周波数領域（FFT）の情報を解析し，
-     * ハプティクスを生成する。
+     * 保留中の切り替えを反映する（sink スレッド）。
+     * 重い準備はロックの外で済ませ，入れ替えだけをロックの中で行う。
      */
-    private void processFftPrimitives(short[] pcm, byte[] fft, int audioSessionId) {
-        // 1) 時間領域：振幅ノーマライズ
-        int n = pcm.length / 3;
-        double bass   = rmsOf(pcm, 0,   n);
-        double melody = rmsOf(pcm, n, 2*n);
-        double other  = rmsOf(pcm, 2*n, pcm.length);
-        double weighted = 2.0*bass + 1.0*melody + 0.5*other;
-        double x = Math.min(1.0, weighted / 32768.0);
-        final double t = 0.3, lowExp = 5.0, highExp = 6.0;
-        double normAmp = (x < t)
-                ? Math.pow(x/t, lowExp) * 2.0
-                : 0.3 + Math.pow((x-t)/(1-t), highExp) * 4.0;
-        int rmsAmp = (int)(normAmp * userScale * 255);
-
-        // 2) 周波数領域：各帯域エネルギー比率
-        int len = fft.length / 2;
-        float[] mag = new float[len];
-        for (int i = 0; i < len; i++) {
-            int re = fft[2*i], im = fft[2*i+1];
-            mag[i] = (float)Math.hypot(re, im);
-        }
-        int bassEnd = len * 200  / 22050;
-        int midEnd  = len * 1500 / 22050;
-        double bassSum=0, midSum=0, highSum=0;
-        for (int i = 0; i < len; i++) {
-            if      (i < bassEnd) bassSum += mag[i];
-            else if (i < midEnd)  midSum  += mag[i];
-            else                  highSum += mag[i];
-        }
-        float bassNorm = (float)(bassSum / (bassSum+midSum+highSum+1e-9));
-        float midNorm  = (float)(midSum  / (bassSum+midSum+highSum+1e-9));
-        float highNorm = (float)(highSum / (bassSum+midSum+highSum+1e-9));
-
-        // 3) Composition：プリミティブを追加
-        boolean hasPrimitive = false;
-        VibrationEffect.Composition comp = VibrationEffect.startComposition();
-        if (bassNorm > 0.15f) {
-            comp.addPrimitive(VibrationEffect.Composition.PRIMITIVE_THUD,      bassNorm,   0);
-            hasPrimitive = true;
-        }
-        if (midNorm  > 0.15f) {
-            comp.addPrimitive(VibrationEffect.Composition.PRIMITIVE_SPIN,      midNorm,   60);
-            hasPrimitive = true;
+    private final Runnable applyStrategy = new Runnable() {
+        @Override public void run() {
+            HapticStrategy next;
+            while (!released && (next = strategies.pending()) != null) {
+                HapticStrategy from = strategies.current();
+                next.prepare();
+                if (next == hgStrategy && hg == null) {   // 作れなかった：既定へ
+                    strategies.request(fallback());
+                    continue;
+                }
+                synchronized (strategyLock) {
+                    if (!strategies.apply(next)) continue;   // 準備中に要求が変わった
+                }
+                Log.d(TAG, String.format(java.util.Locale.US, "Strategy %s → %s in %.2f ms",
+                        (from != null) ? from.kind() : "-", next.kind(),
+                        strategies.getLastSwitchNanos() / 1e6));
+            }
         }
-        if (highNorm > 0.15f) {
-            comp.addPrimitive(VibrationEffect.Composition.PRIMITIVE_TICK,      highNorm,  120);
-            hasPrimitive = true;
+    };
+
+    /**
+     * 次の予測拍がこのフレームか次のフレームのうちに聞こえるなら，THUD を先に予約する。
+     * 拍は聞こえる時刻なので，このフレームの取り込み時刻からの差ぶんずらした時刻を起点にして
+     * 遅延線へ入れる（後続フレームの振動は拍まで止めるので遅延線の順序は崩れない）。
+     * 合わせ込みの offset が負（遅延線を使わない）なら，前倒しぶんを Composition の delay 引数で付ける。
+     * @param nowMs    このフレームの先頭が聞こえる時刻
+     * @param frameMs  1 フレームの長さ
+     * @param originNs このフレームの先頭を取り込んだ時刻
+     * @return 予約した
+     */
+    private boolean scheduleBeat(TempoTracker tempo, long nowMs, long frameMs, long originNs, long startNs) {
+        long beat = tempo.nextBeatAfter(nowMs);
+        if (beat < 0 || beat - nowMs > 2 * frameMs) return false;                   // 次回で間に合う
+        if (Math.abs(beat - scheduledBeatMs) < tempo.getPeriodMs() / 2) return false; // 予約済み
+        long beatOriginNs = originNs + (beat - nowMs) * 1_000_000L;
+        int level = VibrationEffectCache.level(BEAT_STRENGTH, true);
+        latency.record(LatencyStats.ANALYSIS, System.nanoTime() - startNs);
+        if (align.getDelayMs() > 0) {
+            dispatch(effects.delayedThud(level, 0), beatOriginNs);
+        } else {
+            long delayMs = (beatOriginNs - System.nanoTime()) / 1_000_000L + align.getOffsetMs();
+            vibrateNow(effects.delayedThud(level, delayMs), startNs);
         }
+        scheduledBeatMs = beat;
+        return true;
+    }
+
+    /**
+     * 合わせ込みの遅延が要るなら遅延線に入れて sink スレッドで鳴らし，
+     * 要らなければその場で鳴らす。
+     * @param originNs 元の音を取り込んだ時刻（遅延はここから数える）
+     */
+    private void play(VibrationEffectCache.Entry effect, long startNs, long originNs) {
+        latency.record(LatencyStats.ANALYSIS, System.nanoTime() - startNs);
+        dispatch(effect, originNs);
+    }
 
-        // 4) 効果選択：プリミティブ有効かつサポートなら compose、そうでなければフォールバック
-        VibrationEffect effect;
-        if (hasPrimitive
-                && vibrator.areAllPrimitivesSupported(
-                VibrationEffect.Composition.PRIMITIVE_THUD,
-                VibrationEffect.Composition.PRIMITIVE_SPIN,
-                VibrationEffect.Composition.PRIMITIVE_TICK)) {
-            effect = comp.compose();
+    /**
+     * @param effect   鳴らすもの
+     * @param originNs 元になった音を見た時刻（遅延はここから数える）
+     */
+    private void dispatch(VibrationEffectCache.Entry effect, long originNs) {
+        Handler h = sink;
+        if (h == null || align.getDelayMs() == 0) {
+            vibrateNow(effect, originNs);
+            return;
         }
-        else if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.Q) {
-            effect = VibrationEffect.createPredefined(VibrationEffect.EFFECT_HEAVY_CLICK);
+        long dueNs = align.offer(effect, originNs);
+        h.postDelayed(drainAligned, Math.max(0, (dueNs - System.nanoTime()) / 1_000_000L));
+    }
+
+    /** 時刻が来た振動を鳴らす（sink スレッド） */
+    private final Runnable drainAligned = new Runnable() {
+        @Override public void run() {
+            VibrationEffectCache.Entry e;
+            while (!released && !isPaused && (e = align.poll(System.nanoTime())) != null) {
+                vibrateNow(e, align.getPolledOfferNs());
+            }
         }
-        else {
-            effect = VibrationEffect.createOneShot(FRAME_MS, rmsAmp);
+    };
+
+    /** CombinedVibration（VibratorManager がある端末）または従来 vibrator.vibrate */
+    private void vibrateNow(VibrationEffectCache.Entry effect, long originNs) {
+        long ipcStart = System.nanoTime();
+        VibratorManager vm = caps.manager;
+        if (vm != null) {
+            vm.vibrate(effect.parallel());
+        } else {
+            vibrator.vibrate(effect.effect);
         }
+        mVibrate.mark(ipcStart);
+        long ipcEnd = System.nanoTime();
+        latency.record(LatencyStats.IPC, ipcEnd - ipcStart);
+        latency.record(LatencyStats.END_TO_END, ipcEnd - originNs);
+        align.recordVibratorCall(ipcEnd - ipcStart);
+    }
 
-        // 5) CombinedVibration（API31+）または従来 vibrator.vibrate
-        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.S) {
-            VibratorManager vm = (VibratorManager)
-                    mContext.getSystemService(Context.VIBRATOR_MANAGER_SERVICE);
-            if (vm != null) {
-                vm.vibrate(CombinedVibration.createParallel(effect));
+    /*==== 外部公開メソッド ============================================*/
+    /**
+     * pcm[0, len) をリングへ書き込む（呼び出し側の配列はそのまま再利用してよい）。
+     * 入り切らなければ古い側を捨てて（overflow として数える）最新のサンプルを残す。
+     */
+    public void onPCM(short[] pcm, int len) {
+        long now = System.nanoTime();
+        onPCM(pcm, len, now, now);
+    }
+
+    /**
+     * 取り込み時刻付きの onPCM。
+     * @param captureNs pcm の最後のサンプルが取り込まれた時刻（System.nanoTime 基準）
+     * @param arrivalNs read() が返った時刻
+     */
+    public void onPCM(short[] pcm, int len, long captureNs, long arrivalNs) {
+        if (!released) {
+            if (captureNs < arrivalNs) latency.record(LatencyStats.CAPTURE, arrivalNs - captureNs);
+            mCaptureReads.inc();
+            mCaptureSamples.add(len);
+            PolyphaseDecimator d = bgMode ? ensureDecimator(inputRate) : null;
+            if (d != null) {
+                chunkCaptureNs = captureNs;
+                chunkArrivalNs = arrivalNs;
+                d.process(pcm, 0, len, decimatedSink);
                 return;
             }
+            pcmRing.write(pcm, 0, len);
+            if (bgMode) drainBgFrames(captureNs, arrivalNs);
         }
-        vibrator.vibrate(effect);
     }
 
-    /*==== 外部公開メソッド ============================================*/
-    public void onPCM(short[] pcm) {
-        if (!useHg) {
-            // 古いデータを捨てつつキューに格納
-            if (!pcmQueue.offer(pcm.clone())) {
-                pcmQueue.poll();
-                pcmQueue.offer(pcm.clone());
-            }
+    /**
+     * BackGround：float PCM（-1..1，モノラル）の 1 フレームをその場で解析する（取り込みスレッド）。
+     * frame の position から limit までを絶対位置で読み，リングにも中間配列にも写さない
+     * （direct バッファを 1 回の read で 1 フレームちょうど埋める取り込み側向け）。
+     * 間引き中は frame をそのまま PolyphaseDecimator に流す（長さは問わない）。
+     * @param captureNs フレームの最後のサンプルが取り込まれた時刻
+     * @param arrivalNs read() が返った時刻
+     */
+    public void onPcmFrame(FloatBuffer frame, long captureNs, long arrivalNs) {
+        if (!bgMode || released) return;
+        int n = frame.remaining();
+        PolyphaseDecimator d = ensureDecimator(inputRate);
+        if (d != null) {
+            if (captureNs < arrivalNs) latency.record(LatencyStats.CAPTURE, arrivalNs - captureNs);
+            mCaptureReads.inc();
+            mCaptureSamples.add(n);
+            chunkCaptureNs = captureNs;
+            chunkArrivalNs = arrivalNs;
+            d.process(frame, n, decimatedSink);
+            return;
+        }
+        if (n != BackgroundSignalPath.FRAME_SAMPLES) {
+            throw new IllegalArgumentException("frame must be " + BackgroundSignalPath.FRAME_SAMPLES
+                    + " samples: " + n);
         }
+        if (captureNs < arrivalNs) latency.record(LatencyStats.CAPTURE, arrivalNs - captureNs);
+        mCaptureReads.inc();
+        mCaptureSamples.add(n);
+        long start = System.nanoTime();
+        if (!admitFrame(Dsp.peakOf(frame, n), start)) return;
+        latency.record(LatencyStats.QUEUE, start - arrivalNs);
+        bgPath.process(frame, n);
+        onsetPath.process(frame, n, presentNs(n, captureNs) / 1_000_000L);
+        onBgFrameAnalysed(n, start, captureNs);
     }
 
-    public void onFFT(byte[] fft) {
-        short[] pcm = new short[fft.length];
-        for (int i = 0; i < fft.length; i++) pcm[i] = (short) (Math.abs(fft[i]) & 0xFF);
-        onPCM(pcm);
+    /**
+     * PCM タップ（ExoPlayer の AudioProcessor）からの 16bit インターリーブ PCM。
+     * ByteBuffer は position..limit を絶対位置で読み，モノラルへ平均しながら
+     * リングへ直接書く（中間配列へのコピーなし）。position は動かさない。
+     * 間引き中はリングを通さず PolyphaseDecimator へ流す。
+     * 再生スレッドから呼ばれ，フレームが揃えばその場で解析する。
+     */
+    public void onPcmBuffer(ByteBuffer pcm, int sampleRate, int channels) {
+        if (!pcmTap || released || isPaused) return;
+        long now = System.nanoTime();
+        PolyphaseDecimator d = ensureDecimator(sampleRate);
+        if (d != null) {
+            mCaptureReads.inc();
+            mCaptureSamples.add(pcm.remaining() / (2 * channels));
+            chunkCaptureNs = now;
+            chunkArrivalNs = now;
+            d.process(pcm, channels, decimatedSink);
+            return;
+        }
+        int written = pcmRing.write(pcm, channels);
+        mCaptureReads.inc();
+        mCaptureSamples.add(written);
+        drainBgFrames(now, now);
     }
 
-    public void setUserScale(float scale) { userScale = scale; }
+    /**
+     * 無音（ゲート閉）がこれだけ続いたら省電力に入る（ms，0 以下で入らない）。
+     * BackGround / PCM タップ経路のみ。
+     */
+    public void setIdleAfterMs(long ms) { power.setIdleAfterMs(ms); }
 
-    public void release() {
-        if (useHg && hg != null) hg.release();
-        if (!useHg && handler != null) {
-            handler.removeCallbacksAndMessages(null);
-            thread.quitSafely();
-        }
+    /**
+     * 取り込みと解析の間の間引き率（1 で間引かない）。BackGround / PCM タップ経路のみ。
+     * 次のチャンクから反映し，その時点で組み立て中のフレームは捨てる。
+     */
+    public void setDecimation(int factor) {
+        if (factor < 1) throw new IllegalArgumentException("factor must be >= 1");
+        decimation = factor;
+    }
+
+    public int getDecimation() { return decimation; }
+
+    /** 省電力の状態と状態ごとの滞在時間 */
+    public PowerGovernor getPower() { return power; }
+
+    /** PCM タップ経路の先読みの長さ（ms）。次の計画から反映 */
+    public void setLookaheadMs(int ms) { lookaheadMs = Math.max(FRAME_MS_BG, ms); }
+
+    /** シーク等で PCM が不連続になった（再生スレッド） */
+    public void onPcmDiscontinuity() {
+        if (!pcmTap) return;
+        pcmRing.clear();
+        decimatorResetPending = true;   // フィルタの履歴も前の位置のもの
+        stopVibration();
+    }
+
+    /**
+     * 鳴っている振動と遅延線の中身を止める（一時停止状態にはしない）。
+     * 次に解析結果が出れば改めて鳴らす。
+     */
+    public void stopVibration() {
+        Handler h = sink;
+        if (h != null) h.removeCallbacks(drainAligned);
+        align.clear();
+        lookahead.flush();
+        bgResetPending = true;
+        if (pcmTap) planResetPending = true;   // sink スレッドで計画ごと捨てる
         vibrator.cancel();
     }
 
-    /*==== ユーティリティ ==============================================*/
-    private static double rmsOf(short[] buf, int from, int to) {
-        long sumSq = 0;
-        for (int i = from; i < to; i++) sumSq += (long) buf[i] * buf[i];
-        return Math.sqrt(sumSq / (double)(to - from));
+    public long getOverflowSamples() { return pcmRing.getOverflowSamples(); }
+    public long getUnderrunCount()   { return pcmRing.getUnderrunCount(); }
+    /** BackGround 解析のフレーム数／処理時間（1 秒窓） */
+    public FrameStats getAnalysisStats() { return bgStats; }
+    /** 段階別レイテンシ（capture → queue → analysis → IPC，end-to-end） */
+    public LatencyStats getLatency() { return latency; }
+    /**
+     * プレーヤ／AudioTrack のタイムスタンプから求めた出力レイテンシ（ms）を入れる。
+     * 見積もり値を実測で置き換えていく（EMA）。
+     */
+    public void updateAudioLatency(double ms) { align.updateAudioLatency(ms); }
+
+    /** 振動の手動補正（ms，正で遅らせる） */
+    public void setAlignmentOffsetMs(int ms) { align.setUserOffsetMs(ms); }
+
+    /** 解析 → 振動の合わせ込みの現状 */
+    public AlignmentDelayLine<?> getAlignment() { return align; }
+
+    /** 運用カウンタ（取り込み・解析・ゲート・Vibrator 呼び出しなど） */
+    public MetricsRegistry getMetrics() { return metrics; }
+    /** BackGround 経路の Vibrator 呼び出し回数/秒（1 秒窓） */
+    public double getIpcPerSecond() { return bgBatcher.getIpcPerSecond(); }
+    /** VibrationEffect キャッシュのヒット率 0..1 */
+    public double getEffectCacheHitRate() { return effects.getHitRate(); }
+    /** 生成時に問い合わせた端末の振動能力 */
+    HapticCapabilities getCapabilities() { return caps; }
+
+    /**
+     * 振動の出し方を切り替える（どのスレッドからでもよい。待たない）。
+     * 入力・解析・スレッドはそのままで，sink スレッドで原子的に入れ替える。
+     * この入力で使えないものは近いものに置き換える（HapticGenerator の無い端末・BackGround → WAVEFORM）。
+     */
+    void setStrategy(HapticStrategy.Kind kind) {
+        if (released) return;
+        if (!strategies.request(resolve(kind))) return;
+        Handler h = sink;
+        if (h != null) h.post(applyStrategy);
+    }
+
+    /** 今使っている振動の出し方（切り替え前なら null） */
+    HapticStrategy.Kind getStrategy() {
+        HapticStrategy s = strategies.current();
+        return (s != null) ? s.kind() : null;
+    }
+
+    public void setUserScale(float scale) {
+        bgPath.setUserScale(scale);
+    }
+
+    /** 圧縮カーブのプリセットを切り替える（エンジンは作り直さない） */
+    public void setCurvePreset(TransferCurve.Preset preset) {
+        bgPath.setTransferCurve(preset.background);
+    }
+
+    /** BackGround 経路の帯域境界（Hz）を変更する。上限は間引き後のサンプルレート / 2。 */
+    public void setBandEdges(double bassHz, double melodyHz) {
+        bgPath.setBandEdges(bassHz, melodyHz);
+    }
+
+    public void release() {
+        released = true;
+        if (sinkThread != null) {
+            sink.removeCallbacks(drainAligned);
+            sink.removeCallbacks(planTick);
+            sink.removeCallbacks(applyStrategy);
+            sinkThread.quitSafely();
+        }
+        align.clear();
+        synchronized (strategyLock) {
+            if (hg != null) hg.release();
+        }
+        vibrator.cancel();
     }
 }
\ No newline at end of file
@@ -0,0 +1,40 @@
+package com.nakazawa.musicvibe;
+
+import com.nakazawa.musicvibe.core.BackgroundSignalPath;
+
+/**
+ * HapticStrategy
+ * ──────────────────────────────────────────────────────────────
+ * ・HapticEngine の「解析結果 → 振動」の出し方（差し替え可能）
+ *     HAPTIC_GENERATOR … 端末の HapticGenerator に任せる（解析結果は使わない）
+ *     WAVEFORM         … RMS 振幅の波形（BackGround / PCM タップは先読み・保持ループ）
+ *     COMPOSITION      … オンセット → Primitive 合成，テンポが取れたら拍を予約
+ *     ONSET            … オンセットにだけ反応（拍の予測なし）
+ *     OFF              … 鳴らさない（解析は続ける）
+ * ・入力（AudioRecord / PCM タップ），解析（振幅・オンセット・テンポの状態），
+ *   sink スレッドはエンジンが持ち続け，戦略は結果の使い方だけを決める。
+ *   切り替えても解析は温まったまま
+ * ・切り替えはエンジンの sink スレッドで反映する
+ *     prepare()    … 重い準備（HapticGenerator の生成）。ロックの外，何度呼ばれてもよい
+ *     activate()   … 有効になった
+ *     deactivate() … 外れた：鳴っている振動・予約を止める
+ *   onFrame とはエンジンのロックで排他
+ */
+interface HapticStrategy {
+
+    enum Kind { HAPTIC_GENERATOR, WAVEFORM, COMPOSITION, ONSET, OFF }
+
+    Kind kind();
+
+    default void prepare()    {}
+    default void activate()   {}
+    default void deactivate() {}
+
+    /**
+     * BackGround / PCM タップ：解析済みの 1 フレーム（解析スレッド）
+     * @param samples        フレームのサンプル数
+     * @param startNs        解析を始めた時刻
+     * @param frameCaptureNs フレーム末尾が取り込まれた時刻
+     */
+    default void onFrame(BackgroundSignalPath p, int samples, long startNs, long frameCaptureNs) {}
+}
@@ -3,7 +3,6 @@ package com.nakazawa.musicvibe;
 import android.content.*;
 import android.net.Uri;
 import android.os.*;
-import android.provider.OpenableColumns;
 import android.view.KeyEvent;
 
 import android.widget.*;
@@ -11,7 +10,6 @@ import androidx.activity.result.*;
 import androidx.activity.result.contract.ActivityResultContracts;
 import androidx.appcompat.app.AppCompatActivity;
 import androidx.core.content.ContextCompat;
-import android.database.Cursor;
 import android.Manifest;
 import androidx.core.app.ActivityCompat;
 import android.content.pm.PackageManager;
@@ -26,6 +24,8 @@ import android.content.Context;
 import android.media.projection.MediaProjectionManager;
 import android.widget.Button;
 
+import com.nakazawa.musicvibe.core.TransferCurve;
+
 
 public class MainActivity extends AppCompatActivity {
 
@@ -37,15 +37,29 @@ public class MainActivity extends AppCompatActivity {
     private Button btnLoad;
 
     private Button btnPlay, btnMute, btnBackground;
+    private TransferCurve.Preset curvePreset = TransferCurve.Preset.DEFAULT;
+    private HapticStrategy.Kind  hapticStyle = HapticStrategy.Kind.WAVEFORM;
     private TextView txtTitle;
     private SeekBar seek;
     private MusicService.ServiceBinder binder;
-    private static final int REQUEST_RECORD = 1001;
     private Handler updateHandler;
     private static final int REQUEST_CODE_CAPTURE_PERM = 1001;
     private static final int REQUEST_BACKGROUND = 2002;
     private boolean isBackgroundMode = false;
 
+    /** 読み込み状態（サービスからメインスレッドで届く） */
+    private final MusicService.LoadCallback loadCallback = new MusicService.LoadCallback() {
+        @Override public void onLoadStarted(String uri) {
+            txtTitle.setText(Uri.parse(uri).getLastPathSegment());
+        }
+        @Override public void onTitleResolved(String uri, String title) {
+            txtTitle.setText(title);
+        }
+        @Override public void onLoadFailed(String uri, String message) {
+            Toast.makeText(MainActivity.this, "読み込みに失敗しました", Toast.LENGTH_SHORT).show();
+        }
+    };
+
 
 
     /** Activity ↔ Service 接続 */
@@ -57,6 +71,7 @@ public class MainActivity extends AppCompatActivity {
 
             // ① ボタンを有効化
             btnLoad.setEnabled(true);  // ◆初回グレーアウトの解消 [oai_citation:7‡Stack Overflow](https://stackoverflow.com/questions/14412238/android-how-to-enable-button-when-service-complete-its-task?utm_source=chatgpt.com)
+            binder.addLoadCallback(loadCallback);
 
             // ② 保留中のファイルがあればロード
             if (pendingLoadUri != null) {
@@ -64,7 +79,15 @@ public class MainActivity extends AppCompatActivity {
                 pendingLoadUri = null;
             }
 
-            // ③ UI 更新ループを開始
+            // ③ 圧縮カーブはサービス側の設定に合わせる
+            curvePreset = binder.getCurvePreset();
+            ((Button) findViewById(R.id.btnCurve))
+                    .setText(getString(R.string.curve_preset, curvePreset.name()));
+            hapticStyle = binder.getHapticStyle();
+            ((Button) findViewById(R.id.btnStyle))
+                    .setText(getString(R.string.haptic_style, hapticStyle.name()));
+
+            // ④ UI 更新ループを開始
             observePlayer();
         }
         @Override
@@ -97,17 +120,9 @@ public class MainActivity extends AppCompatActivity {
         // ① ファイルピッカー登録 (最優先)
         registerFilePicker();  // ◆これがないと uri が未定義になります
 
-        // ② 権限チェック → 許可済ならサービス起動
-        if (ContextCompat.checkSelfPermission(this, Manifest.permission.RECORD_AUDIO)
-                != PackageManager.PERMISSION_GRANTED) {
-            ActivityCompat.requestPermissions(
-                    this,
-                    new String[]{ Manifest.permission.RECORD_AUDIO },
-                    REQUEST_RECORD
-            );
-        } else {
-            startAndBindService();
-        }
+        // ② サービス起動（アプリ内再生は PCM タップで解析するので録音権限は不要。
+        //    RECORD_AUDIO は BackGround（画面キャプチャ）開始時にだけ求める）
+        startAndBindService();
 
         setContentView(R.layout.activity_main);
 
@@ -141,6 +156,36 @@ public class MainActivity extends AppCompatActivity {
                 }
         );
 
+        // ★ 事前解析スイッチ（ファイル全体を先に解析してタイムライン再生）
+        SwitchCompat switchPreAnalysis = findViewById(R.id.switchPreAnalysis);
+        switchPreAnalysis.setOnCheckedChangeListener((buttonView, isChecked) -> {
+            if (isBound) {
+                binder.setPreAnalysisEnabled(isChecked);
+            }
+        });
+
+        // ★ 圧縮カーブのプリセット（押すたびに次のプリセットへ，再生は止めない）
+        Button btnCurve = findViewById(R.id.btnCurve);
+        btnCurve.setText(getString(R.string.curve_preset, curvePreset.name()));
+        btnCurve.setOnClickListener(v -> {
+            TransferCurve.Preset[] all = TransferCurve.Preset.values();
+            curvePreset = all[(curvePreset.ordinal() + 1) % all.length];
+            btnCurve.setText(getString(R.string.curve_preset, curvePreset.name()));
+            if (isBound) binder.setCurvePreset(curvePreset);
+        });
+
+        // ★ Advanced オフ時の振動の出し方（WAVEFORM → COMPOSITION → ONSET，再生は止めない）
+        Button btnStyle = findViewById(R.id.btnStyle);
+        btnStyle.setText(getString(R.string.haptic_style, hapticStyle.name()));
+        btnStyle.setOnClickListener(v -> {
+            HapticStrategy.Kind[] all = MusicService.HAPTIC_STYLES;
+            int i = 0;
+            while (i < all.length && all[i] != hapticStyle) i++;
+            hapticStyle = all[(i + 1) % all.length];
+            btnStyle.setText(getString(R.string.haptic_style, hapticStyle.name()));
+            if (isBound) binder.setHapticStyle(hapticStyle);
+        });
+
         // ③ ファイル選択・再生・ミュートリスナーは従来どおり
         btnLoad.setOnClickListener(v -> filePicker.launch(new String[]{"audio/mpeg"}));
         btnPlay.setOnClickListener(v -> {
@@ -266,30 +311,22 @@ public class MainActivity extends AppCompatActivity {
                                            @NonNull String[] permissions,
                                            @NonNull int[] grantResults) {
         super.onRequestPermissionsResult(requestCode, permissions, grantResults);
-        if (requestCode == REQUEST_RECORD) {
+        if (requestCode == REQUEST_BACKGROUND) {
             if (grantResults.length > 0
                     && grantResults[0] == PackageManager.PERMISSION_GRANTED) {
-                // 音声キャプチャの許可が降りたらサービスを開始
-                startAndBindService();
+                // 録音の許可が降りたら画面キャプチャの許可へ進む
+                requestScreenCapture();
             } else {
                 Toast.makeText(this,
-                        "録音権限がないとハプティクスが動作しません",
+                        "録音権限がないと BackGround ハプティクスが動作しません",
                         Toast.LENGTH_LONG
                 ).show();
             }
         }
     }
 
-    /** ファイル名取得＋サービスへ送信 */
+    /** サービスへ送信（曲名は LoadCallback で届く） */
     private void loadTrack(Uri uri) {
-        try (Cursor c = getContentResolver().query(uri, null, null, null, null)) {
-            if (c != null && c.moveToFirst()) {
-                int idx = c.getColumnIndex(OpenableColumns.DISPLAY_NAME);
-                if (idx >= 0) {
-                    txtTitle.setText(c.getString(idx));
-                }
-            }
-        }
         if (isBound) binder.load(uri.toString());
     }
 
@@ -345,6 +382,7 @@ public class MainActivity extends AppCompatActivity {
     protected void onDestroy() {
         // サービスのバインド解除
         if (isBound) {
+            binder.removeLoadCallback(loadCallback);
             unbindService(connection);
             isBound = false;
         }
@@ -4,82 +4,279 @@ import android.app.Notification;
 import android.app.NotificationChannel;
 import android.app.NotificationManager;
 import android.app.Service;
+import android.content.Context;
 import android.content.Intent;
+import android.database.Cursor;
 import android.graphics.Color;
-import android.media.AudioAttributes;
 import android.media.AudioManager;
-import android.media.MediaPlayer;
-import android.media.audiofx.Visualizer;
 import android.net.Uri;
 import android.os.Binder;
+import android.os.Handler;
 import android.os.IBinder;
+import android.os.Looper;
+import android.os.SystemClock;
+import android.os.Vibrator;
+import android.provider.OpenableColumns;
 import android.util.Log;
 
 import androidx.annotation.Nullable;
+import androidx.annotation.OptIn;
 import androidx.core.app.NotificationCompat;
-
+import androidx.media3.common.AudioAttributes;
+import androidx.media3.common.C;
+import androidx.media3.common.MediaItem;
+import androidx.media3.common.PlaybackException;
+import androidx.media3.common.Player;
+import androidx.media3.common.audio.AudioProcessor;
+import androidx.media3.common.util.UnstableApi;
+import androidx.media3.exoplayer.DefaultRenderersFactory;
+import androidx.media3.exoplayer.ExoPlayer;
+import androidx.media3.exoplayer.audio.AudioSink;
+import androidx.media3.exoplayer.audio.DefaultAudioSink;
+
+import com.nakazawa.musicvibe.core.HapticTimeline;
+import com.nakazawa.musicvibe.core.LatencyStats;
+import com.nakazawa.musicvibe.core.TimelineCache;
+import com.nakazawa.musicvibe.core.TimelineRenderer;
+import com.nakazawa.musicvibe.core.TransferCurve;
+
+import java.io.File;
+import java.io.FileDescriptor;
+import java.io.PrintWriter;
+import java.lang.reflect.Field;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Map;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * MusicService
+ * ──────────────────────────────────────────────────────────────
+ * ・アプリ内再生は ExoPlayer。DefaultAudioSink の処理列に PcmTapAudioProcessor を挟み，
+ *   デコード済み PCM をそのまま HapticEngine へ渡す（Visualizer は使わない）
+ * ・AudioTrack はハプティクスチャネルのミュートを外して作る（HapticGenerator の出力を鳴らすため）。
+ *   media3 1.3 には設定も AudioTrack 生成のフックも無いので，DefaultAudioSink が読む
+ *   AudioAttributesV21 のキャッシュをリフレクションで差し替える。失敗したら Advanced は使わない
+ * ・ExoPlayer はメインスレッドからしか触れないので，他スレッド（TimelinePlayer）へは
+ *   メインスレッドで取った再生位置のスナップショットを外挿して渡す
+ * ・タップ位置と再生位置（AudioTrack のタイムスタンプ由来）の差を出力レイテンシとして
+ *   HapticEngine の遅延線へ入れ続ける
+ * ・読み込みはメインスレッドを塞がない
+ *     prepare は ExoPlayer が非同期で行い，曲名の問い合わせ・HapticEngine の生成・
+ *     事前解析はワーカーで行う。状態は LoadCallback でメインスレッドへ返す
+ *     新しい load() が来たら古い読み込みの途中結果は世代番号で捨てる
+ * ・ライブ解析の HapticEngine は曲をまたいで使い続け，Advanced / BackGround の切り替えは
+ *   振動の出し方（HapticStrategy）の差し替えだけで済ませる
+ */
+@OptIn(markerClass = UnstableApi.class)
 public class MusicService extends Service {
 
     private static final String TAG = "MusicService";
     private static final int NOTI_ID = 1;
-
-    private MediaPlayer player;
-    private Visualizer visualizer;
-    private HapticEngine haptic;
+    private static final long TIMELINE_CACHE_BYTES = 32L * 1024 * 1024;
+    private static final int  TIMELINE_LOOKAHEAD_MS = 200;  // 1 回の vibrate で投げる長さ
+    private static final int  LIVE_LOOKAHEAD_MS     = HapticEngine.DEFAULT_LOOKAHEAD_MS; // タップ経路の先読み
+    private static final long CLOCK_TICK_MS         = 100;  // 再生位置スナップショットの更新間隔
+    private static final long LEAD_SETTLE_MS        = 500;  // シーク直後はタップ位置が不定なので測らない
+    private static final long MAX_LEAD_MS           = 1000; // これを超える差は測り損ねとして捨てる
+    /** Advanced オフ時に選べる振動の出し方 */
+    static final HapticStrategy.Kind[] HAPTIC_STYLES = {
+            HapticStrategy.Kind.WAVEFORM, HapticStrategy.Kind.COMPOSITION, HapticStrategy.Kind.ONSET };
+
+    private ExoPlayer player;
+    private final PcmTapAudioProcessor pcmTap = new PcmTapAudioProcessor();
+    private volatile HapticEngine haptic;   // タップ（再生スレッド）からも読む
+
+    // 再生位置のスナップショット（メインスレッドで書き，TimelinePlayer が読む）
+    private volatile long    clockPositionMs;
+    private volatile long    clockAnchorMs;     // スナップショットを取った uptimeMillis
+    private volatile boolean clockPlaying;
+    private long tapBaseMs;                     // 直近の flush（シーク・読み込み）時の再生位置
+    private long leadSettleUntilMs;
 
     private final IBinder binder = new ServiceBinder();
     private boolean isMuted = false;
     private boolean advancedHapticsEnabled = false;
+    private boolean hapticChannelsUnmuted = false;   // false なら Advanced でも HapticGenerator を使わない
+    private HapticStrategy.Kind hapticStyle = HapticStrategy.Kind.WAVEFORM;   // Advanced オフ時
+    private boolean backgroundMode = false;   // BackGround 中の振動は CaptureService 側が出す
     private boolean isPrepared = false;
 
+    /** 読み込み状態の通知（すべてメインスレッドで呼ばれる） */
+    public interface LoadCallback {
+        default void onLoadStarted(String uri) {}
+        default void onTitleResolved(String uri, String title) {}
+        /** 再生準備ができた（durationMs は不明なら 0） */
+        default void onLoadReady(String uri, long durationMs) {}
+        default void onLoadFailed(String uri, String message) {}
+        /** 新しい読み込みに置き換えられた */
+        default void onLoadCancelled(String uri) {}
+    }
+
+    private final ArrayList<LoadCallback> loadCallbacks = new ArrayList<>();   // メインスレッド専用
+    private final ExecutorService loaderExecutor = Executors.newSingleThreadExecutor();
+    private volatile int loadGeneration = 0;   // load() ごとに +1（メインスレッドで書く）
+    private volatile int engineToken    = 0;   // エンジン生成要求ごとに +1（同上）
+    private boolean loadPending = false;       // READY / エラーをまだ通知していない
+
+    // 事前解析モード（曲全体を先にデコードしてタイムライン再生）
+    private boolean preAnalysisEnabled = false;
+    private TransferCurve.Preset curvePreset = TransferCurve.Preset.DEFAULT;
+    private int hapticOffsetMs = 0;   // 音と振動のずれの手動補正（正で振動を遅らせる）
+    private String currentUri;
+    private final ExecutorService analysisExecutor = Executors.newSingleThreadExecutor();
+    private final Handler mainHandler = new Handler(Looper.getMainLooper());
+    private AtomicBoolean analysisCancel;
+    private TimelinePlayer timelinePlayer;
+    private volatile TimelineCache timelineCache;   // 生成は analysisExecutor 上，dump() からも読む
+
     @Override
     public void onCreate() {
         super.onCreate();
         createNotificationChannel();
 
-        player = new MediaPlayer();
         AudioAttributes attrs = new AudioAttributes.Builder()
-                .setUsage(AudioAttributes.USAGE_MEDIA)
-                .setContentType(AudioAttributes.CONTENT_TYPE_MUSIC)
-                .setHapticChannelsMuted(false)
+                .setUsage(C.USAGE_MEDIA)
+                .setContentType(C.AUDIO_CONTENT_TYPE_MUSIC)
+                .build();
+        // 既定ではハプティクスチャネルがミュートされ，Advanced（HapticGenerator）が鳴らない
+        hapticChannelsUnmuted = unmuteHapticChannels(attrs);
+
+        // AudioTrack 直前の処理列にタップを挟む（float 出力・再生速度の設定は既定のまま）
+        DefaultRenderersFactory renderers = new DefaultRenderersFactory(this) {
+            @Override
+            protected AudioSink buildAudioSink(Context context, boolean enableFloatOutput,
+                                               boolean enableAudioTrackPlaybackParams) {
+                return new DefaultAudioSink.Builder(context)
+                        .setEnableFloatOutput(enableFloatOutput)
+                        .setEnableAudioTrackPlaybackParams(enableAudioTrackPlaybackParams)
+                        .setAudioProcessors(new AudioProcessor[]{pcmTap})
+                        .build();
+            }
+        };
+        player = new ExoPlayer.Builder(this, renderers)
+                .setAudioAttributes(attrs, false)
                 .build();
-        player.setAudioAttributes(attrs);
+        player.addListener(new Player.Listener() {
+            @Override public void onPlaybackStateChanged(int state) {
+                if (state == Player.STATE_READY && loadPending) {
+                    loadPending = false;
+                    long d = player.getDuration();
+                    for (LoadCallback cb : new ArrayList<>(loadCallbacks)) {
+                        cb.onLoadReady(currentUri, (d == C.TIME_UNSET || d < 0) ? 0 : d);
+                    }
+                }
+                if (state == Player.STATE_ENDED) {
+                    stopSelf();
+                    updateNotification("停止しました");
+                }
+            }
+            @Override public void onIsPlayingChanged(boolean playing) {
+                updateClock();
+                // バッファ待ち・終端でも保持ループが鳴り続けないように止める
+                HapticEngine h = haptic;
+                if (!playing && h != null) h.stopVibration();
+            }
+            @Override public void onPlayerError(PlaybackException e) {
+                Log.e(TAG, "playback error", e);
+                updateNotification("エラーが発生しました");
+                if (loadPending) {
+                    loadPending = false;
+                    for (LoadCallback cb : new ArrayList<>(loadCallbacks)) {
+                        cb.onLoadFailed(currentUri, e.getMessage());
+                    }
+                }
+            }
+        });
 
-        player.setOnCompletionListener(mp -> {
-            stopSelf();
-            updateNotification("停止しました");
+        // タップ → 解析エンジン（再生スレッド）。エンジンは作り直されるので毎回読む
+        pcmTap.setListener(new PcmTapAudioProcessor.Listener() {
+            @Override public void onPcm(ByteBuffer pcm, int sampleRate, int channels) {
+                HapticEngine h = haptic;
+                if (h != null) h.onPcmBuffer(pcm, sampleRate, channels);
+            }
+            @Override public void onDiscontinuity() {
+                HapticEngine h = haptic;
+                if (h != null) h.onPcmDiscontinuity();
+            }
         });
+        mainHandler.post(clockTick);
 
         startForeground(NOTI_ID, buildNotification("準備中…"));
     }
 
     @Override
     public void onDestroy() {
-        releaseVisualizer();
+        stopPreAnalysis();
+        analysisExecutor.shutdownNow();
+        loaderExecutor.shutdownNow();
+        loadGeneration++;
+        engineToken++;
+        mainHandler.removeCallbacks(clockTick);
+        pcmTap.setListener(null);
         if (haptic != null) haptic.release();
         if (player != null) {
-            player.stop();
             player.release();
             isPrepared = false;
         }
         super.onDestroy();
     }
 
+    /**
+     * 曲を読み込んで再生を始める。すぐに戻り，結果は LoadCallback で通知する。
+     * 前の読み込みが終わっていなければ取り消す。
+     */
     public void load(String uriStr) {
-        try {
-            player.reset();
-            player.setDataSource(this, Uri.parse(uriStr));
-            player.prepare();
-            isPrepared = true;
-            player.start();
-            updateNotification("再生中…");
+        final int gen = ++loadGeneration;
+        if (loadPending && currentUri != null) {
+            for (LoadCallback cb : new ArrayList<>(loadCallbacks)) cb.onLoadCancelled(currentUri);
+        }
+        stopPreAnalysis();
+        currentUri  = uriStr;
+        loadPending = true;
+        for (LoadCallback cb : new ArrayList<>(loadCallbacks)) cb.onLoadStarted(uriStr);
+
+        // prepare は ExoPlayer の再生スレッドで進む（ここでは待たない）
+        player.setMediaItem(MediaItem.fromUri(Uri.parse(uriStr)));
+        player.prepare();
+        markDiscontinuity(0);
+        isPrepared = true;
+        player.play();
+        updateNotification("再生中…");
+
+        if (preAnalysisEnabled) {
+            // キャッシュを先に引き，外れたときだけライブ解析 + 事前解析を始める
+            startPreAnalysis(uriStr);
+        } else if (haptic == null) {
+            rebuildHapticEngine(player.getAudioSessionId());
+        }
+        // 既にあるエンジンはそのまま使う（不連続はタップの flush で伝わる）
+
+        // 曲名はコンテンツプロバイダへの問い合わせなのでワーカーで
+        loaderExecutor.execute(() -> {
+            String title = queryDisplayName(Uri.parse(uriStr));
+            if (title == null) return;
+            mainHandler.post(() -> {
+                if (gen != loadGeneration) return;   // 次の曲に替わった
+                for (LoadCallback cb : new ArrayList<>(loadCallbacks)) cb.onTitleResolved(uriStr, title);
+            });
+        });
+    }
 
-            int sid = player.getAudioSessionId();
-            rebuildHapticEngine(sid);
-        } catch (Exception e) {
-            Log.e(TAG, "load error", e);
-            updateNotification("エラーが発生しました");
+    private String queryDisplayName(Uri uri) {
+        try (Cursor c = getContentResolver().query(uri, null, null, null, null)) {
+            if (c != null && c.moveToFirst()) {
+                int idx = c.getColumnIndex(OpenableColumns.DISPLAY_NAME);
+                if (idx >= 0) return c.getString(idx);
+            }
+        } catch (RuntimeException e) {
+            Log.w(TAG, "display name query failed", e);
         }
+        return null;
     }
 
     public void togglePlayPause() {
@@ -88,7 +285,7 @@ public class MusicService extends Service {
             updateNotification("一時停止中…");
             if (haptic != null) haptic.pauseHaptics();
         } else {
-            player.start();
+            player.play();
             updateNotification("再生中…");
             if (haptic != null) haptic.resumeHaptics();
         }
@@ -96,79 +293,85 @@ public class MusicService extends Service {
 
     public void toggleMute() {
         isMuted = !isMuted;
-        player.setVolume(isMuted ? 0f : 1f, isMuted ? 0f : 1f);
+        player.setVolume(isMuted ? 0f : 1f);
         updateNotification(isMuted ? "ミュート中…" : "再生中…");
     }
 
     public void seekTo(float pct) {
-        if (player.getDuration() > 0) {
-            player.seekTo((int) (pct * player.getDuration()));
+        long duration = player.getDuration();
+        if (duration > 0) {
+            long target = (long) (pct * duration);
+            player.seekTo(target);
+            markDiscontinuity(target);
         }
     }
 
+    /** 未確定（準備中）なら 0 */
     public float getDuration() {
-        try {
-            return (player != null) ? player.getDuration() : 0f;
-        } catch (IllegalStateException e) {
-            Log.w(TAG, "getDuration called in wrong state", e);
-            return 0f;
-        }
+        if (player == null) return 0f;
+        long d = player.getDuration();
+        return (d == C.TIME_UNSET || d < 0) ? 0f : d;
     }
 
     public float getPosition() {
-        try {
-            return (player != null) ? player.getCurrentPosition() : 0f;
-        } catch (IllegalStateException e) {
-            Log.w(TAG, "getPosition called in wrong state", e);
-            return 0f;
+        return (player != null) ? player.getCurrentPosition() : 0f;
+    }
+
+    /*==== 再生位置のスナップショットと出力レイテンシ ====================*/
+    /** シーク・読み込み：タップはここから数え直す */
+    private void markDiscontinuity(long positionMs) {
+        tapBaseMs = positionMs;
+        leadSettleUntilMs = SystemClock.uptimeMillis() + LEAD_SETTLE_MS;
+        updateClock();
+    }
+
+    private void updateClock() {
+        if (player == null) return;
+        clockPositionMs = player.getCurrentPosition();
+        clockAnchorMs   = SystemClock.uptimeMillis();
+        clockPlaying    = player.isPlaying();
+    }
+
+    /** メインスレッド外から読む再生位置（スナップショットを外挿） */
+    private long extrapolatedPositionMs() {
+        long pos = clockPositionMs;
+        return clockPlaying ? pos + (SystemClock.uptimeMillis() - clockAnchorMs) : pos;
+    }
+
+    private final Runnable clockTick = new Runnable() {
+        @Override public void run() {
+            updateClock();
+            measureOutputLead();
+            mainHandler.postDelayed(this, CLOCK_TICK_MS);
         }
+    };
+
+    /**
+     * タップを通った位置 − 聞こえている位置（ExoPlayer の位置は AudioTrack の
+     * タイムスタンプ由来）= 解析した音が聞こえるまでの時間。エンジンの遅延線へ入れる。
+     */
+    private void measureOutputLead() {
+        HapticEngine h = haptic;
+        int sr = pcmTap.getSampleRate();
+        if (h == null || sr <= 0 || !clockPlaying) return;
+        if (SystemClock.uptimeMillis() < leadSettleUntilMs) return;
+        long tappedMs = tapBaseMs + pcmTap.getFramesSinceFlush() * 1000L / sr;
+        long lead = tappedMs - clockPositionMs;
+        if (lead >= 0 && lead <= MAX_LEAD_MS) h.updateAudioLatency(lead);
     }
 
     public boolean isPlaying() { return player.isPlaying(); }
 
     public void updateHapticScale() {
-        AudioManager am = (AudioManager) getSystemService(AUDIO_SERVICE);
-        float scale = am.getStreamVolume(AudioManager.STREAM_MUSIC) /
-                (float) am.getStreamMaxVolume(AudioManager.STREAM_MUSIC);
+        float scale = currentHapticScale();
         if (haptic != null) haptic.setUserScale(scale);
+        if (timelinePlayer != null) timelinePlayer.setUserScale(scale);
     }
 
-    private void releaseVisualizer() {
-        if (visualizer != null) {
-            try { visualizer.setEnabled(false); } catch (Exception ignore) {}
-            visualizer.release();
-            visualizer = null;
-        }
-    }
-
-    private void attachVisualizer(int sessionId) {
-        if (!advancedHapticsEnabled) return;
-        releaseVisualizer();
-        try {
-            visualizer = new Visualizer(sessionId);
-            // setCaptureSize は STATE_INITIALIZED でのみ有効だが例外が出る場合はスキップ
-            int maxSize = Visualizer.getCaptureSizeRange()[1];
-            try {
-                visualizer.setCaptureSize(maxSize);
-            } catch (IllegalStateException e) {
-                Log.w(TAG, "Visualizer setCaptureSize skipped, wrong state", e);
-            }
-            visualizer.setDataCaptureListener(
-                    new Visualizer.OnDataCaptureListener() {
-                        @Override public void onWaveFormDataCapture(Visualizer v, byte[] wf, int sr) {}
-                        @Override public void onFftDataCapture(Visualizer v, byte[] fft, int sr) {
-                            if (haptic != null) haptic.onFFT(fft);
-                        }
-                    },
-                    Visualizer.getMaxCaptureRate() / 2,
-                    false,
-                    true
-            );
-            visualizer.setEnabled(true);
-        } catch (Exception e) {
-            Log.e(TAG, "Visualizer init error", e);
-            releaseVisualizer();
-        }
+    private float currentHapticScale() {
+        AudioManager am = (AudioManager) getSystemService(AUDIO_SERVICE);
+        return am.getStreamVolume(AudioManager.STREAM_MUSIC) /
+                (float) am.getStreamMaxVolume(AudioManager.STREAM_MUSIC);
     }
 
     private Notification buildNotification(String text) {
@@ -192,18 +395,83 @@ public class MusicService extends Service {
         getSystemService(NotificationManager.class).createNotificationChannel(ch);
     }
 
+    /**
+     * 今のエンジンを止め，新しいエンジンをワーカーで作ってメインスレッドで差し替える
+     * （能力問い合わせ・HapticGenerator 生成・スレッド起動を UI スレッドでしない）。
+     * 生成中に次の要求が来たら，出来上がった古いほうは捨てる。
+     */
     private void rebuildHapticEngine(int sessionId) {
-        releaseVisualizer();
+        final int token = ++engineToken;
         if (haptic != null) haptic.release();
-        boolean forceFallback = !advancedHapticsEnabled;
-        haptic = new HapticEngine(this, sessionId, forceFallback);
-        updateHapticScale();
-        attachVisualizer(sessionId);
+        haptic = null;
+        // タイムライン再生中はライブ解析を作らない（二重に振動するため）
+        if (timelinePlayer != null) return;
+        final HapticStrategy.Kind kind = hapticStrategy();
+        final TransferCurve.Preset preset = curvePreset;
+        final int offsetMs = hapticOffsetMs;
+        loaderExecutor.execute(() -> {
+            if (token != engineToken) return;
+            HapticEngine h = new HapticEngine(this, sessionId, false);
+            h.setStrategy(kind);
+            h.setCurvePreset(preset);
+            h.setAlignmentOffsetMs(offsetMs);
+            h.setLookaheadMs(LIVE_LOOKAHEAD_MS);
+            mainHandler.post(() -> {
+                if (token != engineToken || timelinePlayer != null) {
+                    h.release();
+                    return;
+                }
+                haptic = h;   // 設定を済ませてからタップに見せる
+                // 生成中に変わった設定を反映
+                h.setStrategy(hapticStrategy());
+                h.setCurvePreset(curvePreset);
+                h.setAlignmentOffsetMs(hapticOffsetMs);
+                updateHapticScale();
+            });
+        });
+    }
+
+    /** 今の設定での振動の出し方 */
+    private HapticStrategy.Kind hapticStrategy() {
+        if (backgroundMode) return HapticStrategy.Kind.OFF;
+        return advancedHapticsEnabled && hapticChannelsUnmuted
+                ? HapticStrategy.Kind.HAPTIC_GENERATOR : hapticStyle;
+    }
+
+    /**
+     * attrs から DefaultAudioSink が作る AudioTrack のハプティクスチャネルのミュートを外す。
+     * シンクは attrs.getAudioAttributesV21() のキャッシュをそのまま使うので，その中身を
+     * setHapticChannelsMuted(false) した属性に置き換える（ExoPlayer へ渡す前に呼ぶ）。
+     * @return 置き換えられたか（media3 の内部が変わっていれば false）
+     */
+    private static boolean unmuteHapticChannels(AudioAttributes attrs) {
+        AudioAttributes.AudioAttributesV21 v21 = attrs.getAudioAttributesV21();
+        android.media.AudioAttributes unmuted =
+                new android.media.AudioAttributes.Builder(v21.audioAttributes)
+                        .setHapticChannelsMuted(false)
+                        .build();
+        try {
+            Field f = AudioAttributes.AudioAttributesV21.class.getDeclaredField("audioAttributes");
+            f.setAccessible(true);
+            f.set(v21, unmuted);
+            return v21.audioAttributes == unmuted;
+        } catch (ReflectiveOperationException | RuntimeException e) {
+            Log.w(TAG, "cannot unmute haptic channels; HapticGenerator disabled", e);
+            return false;
+        }
+    }
+
+    /** 設定の変更をエンジンを作り直さずに反映する（生成中なら差し替え時に反映される） */
+    private void applyHapticStrategy() {
+        HapticEngine h = haptic;
+        if (h != null) h.setStrategy(hapticStrategy());
     }
 
     public class ServiceBinder extends Binder {
         public boolean isPrepared()           { return MusicService.this.isPrepared; }
         public void load(String uri)          { MusicService.this.load(uri); }
+        public void addLoadCallback(LoadCallback cb)    { loadCallbacks.add(cb); }
+        public void removeLoadCallback(LoadCallback cb) { loadCallbacks.remove(cb); }
         public void togglePlayPause()         { MusicService.this.togglePlayPause(); }
         public void toggleMute()              { MusicService.this.toggleMute(); }
         public void seekTo(float p)           { MusicService.this.seekTo(p); }
@@ -214,31 +482,178 @@ public class MusicService extends Service {
 
         public void setAdvancedHapticsEnabled(boolean enabled) {
             advancedHapticsEnabled = enabled;
-            rebuildHapticEngine(player.getAudioSessionId());
+            applyHapticStrategy();
             Log.d(TAG, "Advanced Haptics Enabled → " + enabled);
         }
 
-        public void startBackgroundHaptics()  { startBackgroundHaptics(); }
-        public void stopBackgroundHaptics()   { stopBackgroundHaptics(); }
+        /**
+         * Advanced オフ時の振動の出し方（HAPTIC_STYLES のどれか）。エンジンは作り直さない
+         */
+        void setHapticStyle(HapticStrategy.Kind style) {
+            if (!java.util.Arrays.asList(HAPTIC_STYLES).contains(style)) {
+                throw new IllegalArgumentException("not a haptic style: " + style);
+            }
+            hapticStyle = style;
+            applyHapticStrategy();
+            Log.d(TAG, "Haptic style → " + style);
+        }
+
+        HapticStrategy.Kind getHapticStyle() { return hapticStyle; }
+
+        public void setPreAnalysisEnabled(boolean enabled) {
+            MusicService.this.setPreAnalysisEnabled(enabled);
+        }
+
+        /** 圧縮カーブのプリセットを実行中に切り替える */
+        public void setCurvePreset(TransferCurve.Preset preset) {
+            curvePreset = preset;
+            if (haptic != null) haptic.setCurvePreset(preset);
+            Log.d(TAG, "Curve preset → " + preset);
+        }
+
+        public TransferCurve.Preset getCurvePreset() { return curvePreset; }
+
+        /** 音と振動のずれの手動補正（ms，正で振動を遅らせる）。自動較正に上乗せされる */
+        public void setHapticOffsetMs(int ms) {
+            hapticOffsetMs = ms;
+            if (haptic != null) haptic.setAlignmentOffsetMs(ms);
+        }
+
+        public int getHapticOffsetMs() { return hapticOffsetMs; }
+
+        /** ライブ解析エンジンの段階別レイテンシ（p50/p95/p99）。エンジンが無ければ null */
+        public LatencyStats getLatency() {
+            HapticEngine h = haptic;
+            return (h != null) ? h.getLatency() : null;
+        }
+
+        /** ライブ解析エンジンの運用カウンタのスナップショット（登録順）。エンジンが無ければ空 */
+        public Map<String, Number> getMetricsSnapshot() {
+            HapticEngine h = haptic;
+            return (h != null) ? h.getMetrics().snapshot() : Collections.<String, Number>emptyMap();
+        }
+
+        public void startBackgroundHaptics()  { MusicService.this.startBackgroundHaptics(); }
+        public void stopBackgroundHaptics()   { MusicService.this.stopBackgroundHaptics(); }
         public void pauseHaptics()            { if (haptic != null) haptic.pauseHaptics(); }
         public void resumeHaptics()           { if (haptic != null) haptic.resumeHaptics(); }
     }
 
-    public void startBackgroundHaptics() {
-        releaseVisualizer();
-        if (haptic != null) haptic.release();
-        haptic = new HapticEngine(this, 0, !advancedHapticsEnabled);
-        updateHapticScale();
-        Log.d(TAG, "Background haptics started (session 0)");
+    /*==== 事前解析モード ==============================================*/
+    public void setPreAnalysisEnabled(boolean enabled) {
+        if (preAnalysisEnabled == enabled) return;
+        preAnalysisEnabled = enabled;
+        if (enabled) {
+            if (isPrepared && currentUri != null) startPreAnalysis(currentUri);
+        } else {
+            stopPreAnalysis();
+            if (isPrepared && haptic == null) rebuildHapticEngine(player.getAudioSessionId());
+        }
+        Log.d(TAG, "Pre-analysis Enabled → " + enabled);
     }
 
-    public void stopBackgroundHaptics() {
+    /**
+     * キャッシュを引き，無ければ曲全体をワーカーで解析する。
+     * 解析中はライブ解析で繋ぎ，終わったらタイムライン再生へ切り替える。
+     */
+    private void startPreAnalysis(String uriStr) {
+        stopPreAnalysis();
+        final AtomicBoolean cancel = new AtomicBoolean(false);
+        analysisCancel = cancel;
+        analysisExecutor.execute(() -> {
+            long t0 = System.nanoTime();
+            Uri uri = Uri.parse(uriStr);
+            try {
+                TimelineCache cache = timelineCache();
+                String key = ContentHash.sha256(this, uri, cancel);
+                HapticTimeline tl = cache.get(key);
+                if (tl != null) {
+                    Log.d(TAG, "Timeline cache hit: " + cache);
+                } else {
+                    Log.d(TAG, "Timeline cache miss: " + cache);
+                    mainHandler.post(() -> {
+                        if (!cancel.get() && haptic == null && isPrepared) {
+                            rebuildHapticEngine(player.getAudioSessionId());
+                        }
+                    });
+                    tl = TrackDecoder.render(this, uri, TimelineRenderer.DEFAULT_FRAME_MS, cancel);
+                    Log.d(TAG, "Pre-analysis done: " + tl.frameCount() + " frames, "
+                            + tl.eventCount() + " events in "
+                            + (System.nanoTime() - t0) / 1_000_000 + " ms");
+                    cache.put(key, tl);
+                }
+                final HapticTimeline result = tl;
+                mainHandler.post(() -> {
+                    if (!cancel.get()) startTimelinePlayback(result);
+                });
+            } catch (CancellationException e) {
+                Log.d(TAG, "Pre-analysis cancelled");
+            } catch (Exception e) {
+                Log.e(TAG, "Pre-analysis failed, keep live haptics", e);
+                mainHandler.post(() -> {
+                    if (!cancel.get() && haptic == null && isPrepared) {
+                        rebuildHapticEngine(player.getAudioSessionId());
+                    }
+                });
+            }
+        });
+    }
+
+    /** 解析パラメータが変わっていれば古いエントリは生成時に捨てられる */
+    private TimelineCache timelineCache() {
+        if (timelineCache == null) {
+            timelineCache = new TimelineCache(
+                    new File(getCacheDir(), "haptic_timelines"),
+                    TIMELINE_CACHE_BYTES,
+                    TimelineRenderer.paramsFingerprint(TimelineRenderer.DEFAULT_FRAME_MS));
+        }
+        return timelineCache;
+    }
+
+    private void stopPreAnalysis() {
+        if (analysisCancel != null) {
+            analysisCancel.set(true);
+            analysisCancel = null;
+        }
+        if (timelinePlayer != null) {
+            timelinePlayer.release();
+            timelinePlayer = null;
+        }
+    }
+
+    private void startTimelinePlayback(HapticTimeline tl) {
+        engineToken++;   // 生成中のライブ解析エンジンは捨てる
+        Vibrator vibrator = (Vibrator) getSystemService(VIBRATOR_SERVICE);
+        // ライブ解析のエンジンが問い合わせ済みならその結果を使う（同じ端末なので同じ効果の出し方）
+        HapticCapabilities caps = (haptic != null) ? haptic.getCapabilities()
+                                                   : HapticCapabilities.query(this, vibrator);
         if (haptic != null) {
             haptic.release();
             haptic = null;
         }
-        int sid = player.getAudioSessionId();
-        rebuildHapticEngine(sid);
+        timelinePlayer = new TimelinePlayer(vibrator, caps, tl, new TimelinePlayer.Clock() {
+            @Override public long getPositionMs() { return extrapolatedPositionMs(); }
+            @Override public boolean isPlaying()   { return clockPlaying; }
+        }, TIMELINE_LOOKAHEAD_MS);
+        timelinePlayer.setUserScale(currentHapticScale());
+        timelinePlayer.start();
+        Log.d(TAG, "Timeline playback started");
+    }
+
+    /** BackGround 中はアプリ内の振動を止める（エンジンと解析はそのまま） */
+    public void startBackgroundHaptics() {
+        backgroundMode = true;
+        applyHapticStrategy();
+        Log.d(TAG, "Background haptics started");
+    }
+
+    public void stopBackgroundHaptics() {
+        backgroundMode = false;
+        if (haptic == null && isPrepared) {
+            rebuildHapticEngine(player.getAudioSessionId());
+        } else {
+            applyHapticStrategy();
+        }
         Log.d(TAG, "Background haptics stopped");
     }
 
@@ -248,6 +663,33 @@ public class MusicService extends Service {
         return binder;
     }
 
+    /** adb shell dumpsys activity service com.nakazawa.musicvibe/.MusicService */
+    @Override
+    protected void dump(FileDescriptor fd, PrintWriter pw, String[] args) {
+        HapticEngine   h  = haptic;
+        TimelinePlayer tp = timelinePlayer;
+        pw.println("MusicService:");
+        pw.println("  mode = " + (tp != null ? "timeline" : h != null ? "live" : "none")
+                + ", prepared = " + isPrepared + ", curve = " + curvePreset
+                + ", preAnalysis = " + preAnalysisEnabled
+                + ", hapticChannels = " + (hapticChannelsUnmuted ? "unmuted" : "muted"));
+        if (h != null) {
+            pw.println("  strategy = " + h.getStrategy() + " (requested " + hapticStrategy() + ")");
+            pw.println("  metrics:");
+            h.getMetrics().dump(pw, "    ");
+            pw.println("  latency:");
+            for (String line : h.getLatency().toString().split("\n")) {
+                if (!line.isEmpty()) pw.println("    " + line);
+            }
+        }
+        if (tp != null) {
+            pw.println(String.format(java.util.Locale.US, "  timeline: %.1f ipc/s, effect cache hit %.1f%%",
+                    tp.getIpcPerSecond(), tp.getEffectCacheHitRate() * 100));
+        }
+        TimelineCache cache = timelineCache;
+        if (cache != null) pw.println("  " + cache);
+    }
+
     @Override
     public int onStartCommand(Intent intent, int flags, int startId) {
         return START_STICKY;
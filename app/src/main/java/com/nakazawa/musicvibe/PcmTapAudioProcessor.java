@@ -0,0 +1,87 @@
+package com.nakazawa.musicvibe;
+
+import androidx.media3.common.C;
+import androidx.media3.common.audio.AudioProcessor;
+import androidx.media3.common.audio.BaseAudioProcessor;
+import androidx.media3.common.util.UnstableApi;
+
+import java.nio.ByteBuffer;
+
+/**
+ * PcmTapAudioProcessor
+ * ──────────────────────────────────────────────────────────────
+ * ・ExoPlayer（DefaultAudioSink）の処理列に挟む素通しの AudioProcessor
+ * ・デコード済みの 16bit PCM を，AudioTrack に渡る直前にそのまま Listener へ見せる
+ *     Listener には入力の ByteBuffer 自体を渡す（コピーしない）
+ *     Listener は絶対位置で読み，position / limit を動かさないこと
+ * ・Visualizer と違い，8bit 化・間引き・録音権限・セッション制約が無い
+ * ・queueInput / flush は ExoPlayer の再生スレッドから呼ばれる
+ * ・16bit 以外（float 出力など）の時は非アクティブになり，素通しだけ
+ */
+@UnstableApi
+final class PcmTapAudioProcessor extends BaseAudioProcessor {
+
+    /** 再生スレッドで呼ばれる */
+    interface Listener {
+        /**
+         * @param pcm        16bit インターリーブ PCM（position..limit，読み取り専用で扱う）
+         * @param sampleRate サンプルレート
+         * @param channels   チャンネル数
+         */
+        void onPcm(ByteBuffer pcm, int sampleRate, int channels);
+
+        /** シーク等で以降の PCM が不連続になる */
+        void onDiscontinuity();
+    }
+
+    private volatile Listener listener;
+    private volatile long framesSinceFlush;   // 再生スレッドのみ書く
+    private volatile int  sampleRate;
+
+    void setListener(Listener l) { listener = l; }
+
+    /** 直近の flush 以降にタップを通ったフレーム数 */
+    long getFramesSinceFlush() { return framesSinceFlush; }
+
+    /** 現在の入力サンプルレート（未設定なら 0） */
+    int getSampleRate() { return sampleRate; }
+
+    @Override
+    protected AudioFormat onConfigure(AudioFormat inputAudioFormat)
+            throws AudioProcessor.UnhandledAudioFormatException {
+        if (inputAudioFormat.encoding != C.ENCODING_PCM_16BIT) {
+            return AudioFormat.NOT_SET;   // 非アクティブ（素通し）
+        }
+        return inputAudioFormat;
+    }
+
+    @Override
+    public void queueInput(ByteBuffer inputBuffer) {
+        int remaining = inputBuffer.remaining();
+        if (remaining == 0) return;
+        AudioFormat fmt = inputAudioFormat;
+        Listener l = listener;
+        if (l != null) {
+            int pos = inputBuffer.position();
+            l.onPcm(inputBuffer, fmt.sampleRate, fmt.channelCount);
+            inputBuffer.position(pos);   // 念のため（Listener が動かしても素通しは壊さない）
+        }
+        sampleRate = fmt.sampleRate;
+        framesSinceFlush += remaining / fmt.bytesPerFrame;
+        // 素通し：AudioTrack へ渡す出力は処理列の規約どおり出力バッファへ
+        replaceOutputBuffer(remaining).put(inputBuffer).flip();
+    }
+
+    @Override
+    protected void onFlush() {
+        framesSinceFlush = 0;
+        Listener l = listener;
+        if (l != null) l.onDiscontinuity();
+    }
+
+    @Override
+    protected void onReset() {
+        framesSinceFlush = 0;
+        sampleRate = 0;
+    }
+}
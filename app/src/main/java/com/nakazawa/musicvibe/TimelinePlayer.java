@@ -0,0 +1,190 @@
+package com.nakazawa.musicvibe;
+
+import android.os.Handler;
+import android.os.HandlerThread;
+import android.os.SystemClock;
+import android.os.VibrationEffect;
+import android.os.Vibrator;
+
+import com.nakazawa.musicvibe.core.HapticTimeline;
+import com.nakazawa.musicvibe.core.WaveformBatcher;
+
+/**
+ * TimelinePlayer
+ * ──────────────────────────────────────────────────────────────
+ * ・事前解析済みの HapticTimeline を再生位置に合わせて鳴らす
+ * ・1 tick でやることは「位置 → フレーム → 先読み窓ぶんの振幅を引く」だけ（DSP なし）
+ * ・振幅は WaveformBatcher で先読み窓ぶんを 1 本の波形にまとめて投げ，
+ *   計画からずれた（シーク・音量変更など）時だけ早めに投げ直す
+ * ・位置が飛んだ（シーク）ときはイベントを撃たずに追従する
+ * ・タイムラインはスケール 1.0 で保存されているので，音量スケールはここで掛ける
+ * ・イベントの効果は HapticEngine と同じく HapticCapabilities.strategy に従う
+ *   （Composition が使えない端末では EFFECT_HEAVY_CLICK / 振幅付き単発に落とす）
+ */
+final class TimelinePlayer {
+
+    /** 再生位置の取得元（MediaPlayer など） */
+    interface Clock {
+        long    getPositionMs();
+        boolean isPlaying();
+    }
+
+    private static final int AMP_DELTA      = 5;   // 計画との差がこれを超えたら投げ直す
+    private static final int MAX_EVENT_SKIP = 5;   // これ以上フレームが飛んだらシーク扱い
+
+    private final Vibrator       vibrator;
+    private final HapticTimeline timeline;
+    private final Clock          clock;
+    private final HandlerThread  thread;
+    private final Handler        handler;
+    private final WaveformBatcher batcher;
+    private final int[]          upcoming;   // 先読み窓の振幅（tick スレッド専用）
+    private final VibrationEffectCache effects;
+    private final HapticCapabilities caps;
+
+    private int     lastFrame = -1;
+    private volatile boolean running = false;
+    private volatile float   userScale = 1.0f;
+
+    /**
+     * @param caps        端末の振動能力（イベントの効果の出し方を決める）
+     * @param lookaheadMs 1 回の vibrate でまとめて投げる長さ（100〜250 ms 程度）
+     */
+    TimelinePlayer(Vibrator vibrator, HapticCapabilities caps, HapticTimeline timeline,
+                   Clock clock, int lookaheadMs) {
+        this.vibrator = vibrator;
+        this.caps     = caps;
+        this.timeline = timeline;
+        this.clock    = clock;
+        this.batcher  = new WaveformBatcher(timeline.getFrameMs(), lookaheadMs, AMP_DELTA);
+        this.upcoming = new int[batcher.segmentCount()];
+        this.effects  = new VibrationEffectCache(timeline.getFrameMs(), timeline.getFrameMs());
+        this.thread   = new HandlerThread("HapticTimelinePlayer");
+        this.thread.start();
+        this.handler  = new Handler(thread.getLooper());
+    }
+
+    void start() {
+        running = true;
+        handler.post(tick);
+    }
+
+    /**
+     * 止める。実行中の step() が release() の後に vibrate() しても残らないよう，
+     * cancel() は tick スレッドで step() の後に流す（quitSafely() は投げ済みの分を処理してから止まる）
+     */
+    void release() {
+        running = false;
+        handler.removeCallbacksAndMessages(null);
+        handler.post(() -> {
+            running = false;
+            vibrator.cancel();
+        });
+        thread.quitSafely();
+    }
+
+    HapticTimeline getTimeline() { return timeline; }
+
+    void setUserScale(float scale) { userScale = scale; }
+
+    /** 直近 1 秒の Vibrator 呼び出し回数/秒 */
+    double getIpcPerSecond() { return batcher.getIpcPerSecond(); }
+
+    /** イベント用 VibrationEffect キャッシュのヒット率 0..1 */
+    double getEffectCacheHitRate() { return effects.getHitRate(); }
+
+    private final Runnable tick = new Runnable() {
+        @Override public void run() {
+            if (!running) return;
+            step();
+            if (running) handler.postDelayed(this, timeline.getFrameMs());   // release() 後は張り直さない
+        }
+    };
+
+    private void step() {
+        if (!clock.isPlaying()) {
+            stopLoop();
+            lastFrame = -1;
+            return;
+        }
+        int frame = timeline.frameAt(clock.getPositionMs());
+        if (frame < 0) {
+            stopLoop();
+            return;
+        }
+
+        // 1) 前回から今回までのイベント（シークで大きく飛んだ場合は撃たない）
+        boolean fired = false;
+        if (lastFrame >= 0 && frame > lastFrame && frame - lastFrame <= MAX_EVENT_SKIP) {
+            int e = timeline.firstEventAtOrAfter(lastFrame + 1);
+            if (e < timeline.eventCount() && timeline.eventFrame(e) <= frame) {
+                playEvent(e);
+                fired = true;
+            }
+        }
+        lastFrame = frame;
+        if (fired) return;
+
+        // 2) 振幅の追従（先読み窓ぶんをまとめて，ずれた時だけ投げ直す）
+        int n = fillUpcoming(frame);
+        switch (batcher.update(SystemClock.uptimeMillis(), upcoming, n)) {
+            case WaveformBatcher.ACTION_SUBMIT:
+                vibrator.vibrate(VibrationEffect.createWaveform(
+                        batcher.getTimings(), batcher.getAmplitudes(), batcher.getRepeatIndex()));
+                break;
+            case WaveformBatcher.ACTION_CANCEL:
+                vibrator.cancel();
+                break;
+            default:
+                break;
+        }
+    }
+
+    /** frame から先読み窓ぶんの振幅（音量スケール込み）を upcoming へ詰め，有効数を返す */
+    private int fillUpcoming(int frame) {
+        float scale = userScale;
+        int n = Math.min(upcoming.length, timeline.frameCount() - frame);
+        for (int i = 0; i < n; i++) {
+            upcoming[i] = Math.min(255, Math.round(timeline.amplitudeAt(frame + i) * scale));
+        }
+        return n;
+    }
+
+    private void playEvent(int index) {
+        float scale = Math.min(1f, timeline.eventStrength(index) / 255f * userScale);
+        VibrationEffectCache.Entry effect;
+        if (caps.strategy == HapticCapabilities.Strategy.COMPOSITION) {
+            int primitive;
+            switch (timeline.eventBand(index)) {
+                case HapticTimeline.BAND_BASS:
+                    primitive = VibrationEffect.Composition.PRIMITIVE_THUD;
+                    break;
+                case HapticTimeline.BAND_MID:
+                    // SPIN の無い端末では TICK で代える（PRIMITIVES の順で 1 が SPIN）
+                    primitive = caps.primitiveSupported[1] ? VibrationEffect.Composition.PRIMITIVE_SPIN
+                                                           : VibrationEffect.Composition.PRIMITIVE_TICK;
+                    break;
+                default:
+                    primitive = VibrationEffect.Composition.PRIMITIVE_TICK;
+                    break;
+            }
+            effect = effects.primitive(primitive, VibrationEffectCache.level(scale, true));
+        }
+        else if (caps.strategy != HapticCapabilities.Strategy.ONE_SHOT) {
+            effect = effects.predefined(VibrationEffect.EFFECT_HEAVY_CLICK);
+        }
+        else {
+            effect = effects.oneShot(Math.round(scale * 255));
+        }
+        vibrator.vibrate(effect.effect);
+        // イベントで波形は上書きされるので次 tick で張り直す
+        batcher.reset();
+        batcher.recordIpc(SystemClock.uptimeMillis());
+    }
+
+    private void stopLoop() {
+        if (batcher.update(SystemClock.uptimeMillis(), upcoming, 0) == WaveformBatcher.ACTION_CANCEL) {
+            vibrator.cancel();
+        }
+    }
+}
@@ -0,0 +1,152 @@
+package com.nakazawa.musicvibe;
+
+import android.content.Context;
+import android.media.AudioFormat;
+import android.media.MediaCodec;
+import android.media.MediaExtractor;
+import android.media.MediaFormat;
+import android.net.Uri;
+
+import com.nakazawa.musicvibe.core.HapticTimeline;
+import com.nakazawa.musicvibe.core.TimelineRenderer;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * TrackDecoder
+ * ──────────────────────────────────────────────────────────────
+ * ・ローカルファイルを MediaExtractor + MediaCodec で先読みデコードし，
+ *   mono 16bit に落として TimelineRenderer へ流す（再生より速く終わる）
+ * ・ワーカースレッドから呼ぶこと。cancelled が立つと CancellationException
+ */
+final class TrackDecoder {
+
+    private static final long TIMEOUT_US = 10_000;
+
+    private TrackDecoder() {}
+
+    static HapticTimeline render(Context ctx, Uri uri, int frameMs,
+                                 AtomicBoolean cancelled) throws IOException {
+        MediaExtractor extractor = new MediaExtractor();
+        MediaCodec codec = null;
+        try {
+            extractor.setDataSource(ctx, uri, null);
+            MediaFormat format = selectAudioTrack(extractor);
+            if (format == null) throw new IOException("no audio track: " + uri);
+
+            codec = MediaCodec.createDecoderByType(format.getString(MediaFormat.KEY_MIME));
+            codec.configure(format, null, null, 0);
+            codec.start();
+
+            int sampleRate = format.getInteger(MediaFormat.KEY_SAMPLE_RATE);
+            int channels   = format.getInteger(MediaFormat.KEY_CHANNEL_COUNT);
+            int encoding   = AudioFormat.ENCODING_PCM_16BIT;
+            TimelineRenderer renderer = null;
+            short[] mono = new short[0];
+
+            MediaCodec.BufferInfo info = new MediaCodec.BufferInfo();
+            boolean inputDone = false;
+            while (true) {
+                if (cancelled.get()) throw new CancellationException();
+
+                // 1) 圧縮データを投入
+                if (!inputDone) {
+                    int in = codec.dequeueInputBuffer(TIMEOUT_US);
+                    if (in >= 0) {
+                        ByteBuffer buf = codec.getInputBuffer(in);
+                        int size = extractor.readSampleData(buf, 0);
+                        if (size < 0) {
+                            codec.queueInputBuffer(in, 0, 0, 0,
+                                    MediaCodec.BUFFER_FLAG_END_OF_STREAM);
+                            inputDone = true;
+                        } else {
+                            codec.queueInputBuffer(in, 0, size, extractor.getSampleTime(), 0);
+                            extractor.advance();
+                        }
+                    }
+                }
+
+                // 2) PCM を取り出してレンダラへ
+                int out = codec.dequeueOutputBuffer(info, TIMEOUT_US);
+                if (out == MediaCodec.INFO_OUTPUT_FORMAT_CHANGED) {
+                    MediaFormat f = codec.getOutputFormat();
+                    sampleRate = f.getInteger(MediaFormat.KEY_SAMPLE_RATE);
+                    channels   = f.getInteger(MediaFormat.KEY_CHANNEL_COUNT);
+                    if (f.containsKey(MediaFormat.KEY_PCM_ENCODING)) {
+                        encoding = f.getInteger(MediaFormat.KEY_PCM_ENCODING);
+                    }
+                    continue;
+                }
+                if (out < 0) continue;
+
+                if (renderer == null) renderer = new TimelineRenderer(sampleRate, frameMs);
+                ByteBuffer pcm = codec.getOutputBuffer(out);
+                if (pcm != null && info.size > 0) {
+                    pcm.position(info.offset);
+                    pcm.limit(info.offset + info.size);
+                    pcm.order(ByteOrder.nativeOrder());
+                    int frames = frameCount(pcm, channels, encoding);
+                    if (frames > mono.length) mono = new short[frames];
+                    downmix(pcm, channels, encoding, mono, frames);
+                    renderer.accept(mono, 0, frames);
+                }
+                codec.releaseOutputBuffer(out, false);
+                if ((info.flags & MediaCodec.BUFFER_FLAG_END_OF_STREAM) != 0) break;
+            }
+            if (renderer == null) throw new IOException("decoder produced no output: " + uri);
+            return renderer.finish();
+        } finally {
+            if (codec != null) {
+                try { codec.stop(); } catch (IllegalStateException ignore) {}
+                codec.release();
+            }
+            extractor.release();
+        }
+    }
+
+    private static MediaFormat selectAudioTrack(MediaExtractor extractor) {
+        for (int i = 0; i < extractor.getTrackCount(); i++) {
+            MediaFormat f = extractor.getTrackFormat(i);
+            String mime = f.getString(MediaFormat.KEY_MIME);
+            if (mime != null && mime.startsWith("audio/")) {
+                extractor.selectTrack(i);
+                return f;
+            }
+        }
+        return null;
+    }
+
+    /** バッファに含まれるフレーム数（チャンネルをまとめた単位） */
+    private static int frameCount(ByteBuffer pcm, int channels, int encoding) {
+        int bytesPerSample = (encoding == AudioFormat.ENCODING_PCM_FLOAT) ? 4 : 2;
+        return pcm.remaining() / (bytesPerSample * channels);
+    }
+
+    /** interleaved PCM を mono 16bit に平均して書き出す */
+    private static void downmix(ByteBuffer pcm, int channels, int encoding,
+                                short[] mono, int frames) {
+        int base = pcm.position();
+        if (encoding == AudioFormat.ENCODING_PCM_FLOAT) {
+            for (int i = 0; i < frames; i++) {
+                float sum = 0;
+                for (int c = 0; c < channels; c++) {
+                    sum += pcm.getFloat(base + (i * channels + c) * 4);
+                }
+                float v = sum / channels * 32767f;
+                mono[i] = (short) Math.max(Short.MIN_VALUE, Math.min(Short.MAX_VALUE, v));
+            }
+        } else {
+            for (int i = 0; i < frames; i++) {
+                int sum = 0;
+                for (int c = 0; c < channels; c++) {
+                    sum += pcm.getShort(base + (i * channels + c) * 2);
+                }
+                mono[i] = (short) (sum / channels);
+            }
+        }
+    }
+}
@@ -0,0 +1,203 @@
+package com.nakazawa.musicvibe;
+
+import android.os.CombinedVibration;
+import android.os.VibrationEffect;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * VibrationEffectCache
+ * ──────────────────────────────────────────────────────────────
+ * ・量子化したキーで VibrationEffect を使い回し，定常状態の振動更新で
+ *   配列・Effect・Composition を作らないようにする
+ *     保持ループ波形 … 振幅(0..255) を AMP_STEP 刻みで量子化
+ *     単発          … 同上
+ *     オンセット     … (THUD, TICK) を各 SCALE_LEVELS 段（0 = 無し）で量子化
+ *     単一プリミティブ … (primitive, 強さ) で量子化
+ *     遅延 THUD     … (強さ, 遅延) で量子化（拍の予約用）
+ * ・初回参照時に作る（lazy）。VibrationEffect は不変なので複数スレッドから
+ *   同時に作られても片方が捨てられるだけで害は無い
+ * ・ヒット率を数える
+ */
+final class VibrationEffectCache {
+
+    /*==== 量子化 ======================================================*/
+    static final int AMP_STEP     = 4;   // 振幅の刻み（AMP_DELTA 程度なら体感差なし）
+    static final int SCALE_LEVELS = 8;   // プリミティブ強さの段数
+    static final int DELAY_STEP_MS = 10; // 遅延の刻み
+    static final int MAX_DELAY_MS  = 500;
+
+    private static final int AMP_KEYS   = 255 / AMP_STEP + 2;
+    private static final int LEVEL_KEYS = SCALE_LEVELS + 1;       // 0 = 無し
+
+    /** Effect と，それを全 Vibrator 並列にした CombinedVibration（こちらも lazy） */
+    static final class Entry {
+        final VibrationEffect effect;
+        private CombinedVibration parallel;
+
+        Entry(VibrationEffect effect) { this.effect = effect; }
+
+        CombinedVibration parallel() {
+            CombinedVibration c = parallel;
+            if (c == null) {
+                c = CombinedVibration.createParallel(effect);
+                parallel = c;
+            }
+            return c;
+        }
+    }
+
+    private final long segmentMs;
+    private final long oneShotMs;
+
+    private final Entry[] loops        = new Entry[AMP_KEYS];
+    private final Entry[] oneShots     = new Entry[AMP_KEYS];
+    private final Entry[] onsets       = new Entry[LEVEL_KEYS * LEVEL_KEYS];
+    private final Entry[] primitives   = new Entry[3 * LEVEL_KEYS];
+    private final Entry[] delayedThuds = new Entry[LEVEL_KEYS * (MAX_DELAY_MS / DELAY_STEP_MS + 1)];
+    private Entry predefined;
+    private int   predefinedId = -1;
+
+    private final AtomicLong hits   = new AtomicLong();
+    private final AtomicLong misses = new AtomicLong();
+
+    /**
+     * @param segmentMs 保持ループ波形の 1 セグメント長
+     * @param oneShotMs 単発振動の長さ
+     */
+    VibrationEffectCache(long segmentMs, long oneShotMs) {
+        this.segmentMs = segmentMs;
+        this.oneShotMs = oneShotMs;
+    }
+
+    /*==== 量子化ヘルパ ================================================*/
+    /** 強さ 0..1 → 1..SCALE_LEVELS（present=false なら 0） */
+    static int level(float norm, boolean present) {
+        if (!present) return 0;
+        int lv = Math.round(norm * SCALE_LEVELS);
+        return Math.max(1, Math.min(SCALE_LEVELS, lv));
+    }
+
+    private static int ampKey(int amplitude) {
+        return Math.max(0, Math.min(AMP_KEYS - 1, (amplitude + AMP_STEP / 2) / AMP_STEP));
+    }
+
+    private static int ampOf(int key) {
+        return Math.max(1, Math.min(255, key * AMP_STEP));
+    }
+
+    /*==== 取得 ========================================================*/
+    /** 振幅を保持し続ける波形（repeat=0） */
+    Entry loop(int amplitude) {
+        int k = ampKey(amplitude);
+        Entry e = loops[k];
+        if (e != null) return hit(e);
+        e = new Entry(VibrationEffect.createWaveform(
+                new long[]{segmentMs}, new int[]{ampOf(k)}, 0));
+        loops[k] = e;
+        return miss(e);
+    }
+
+    Entry oneShot(int amplitude) {
+        int k = ampKey(amplitude);
+        Entry e = oneShots[k];
+        if (e != null) return hit(e);
+        e = new Entry(VibrationEffect.createOneShot(oneShotMs, ampOf(k)));
+        oneShots[k] = e;
+        return miss(e);
+    }
+
+    Entry predefined(int effectId) {
+        Entry e = predefined;
+        if (e != null && predefinedId == effectId) return hit(e);
+        e = new Entry(VibrationEffect.createPredefined(effectId));
+        predefined   = e;
+        predefinedId = effectId;
+        return miss(e);
+    }
+
+    /**
+     * オンセット 1 回分：THUD（kick）→ TICK（snare / hat）を間を空けずに並べた Composition。
+     * 各レベルは {@link #level}，0 のものは入れない。両方 0 なら null。
+     */
+    Entry onset(int thudLevel, int tickLevel) {
+        if ((thudLevel | tickLevel) == 0) return null;
+        int k = thudLevel * LEVEL_KEYS + tickLevel;
+        Entry e = onsets[k];
+        if (e != null) return hit(e);
+        VibrationEffect.Composition comp = VibrationEffect.startComposition();
+        if (thudLevel > 0) comp.addPrimitive(VibrationEffect.Composition.PRIMITIVE_THUD, scaleOf(thudLevel), 0);
+        if (tickLevel > 0) comp.addPrimitive(VibrationEffect.Composition.PRIMITIVE_TICK, scaleOf(tickLevel), 0);
+        e = new Entry(comp.compose());
+        onsets[k] = e;
+        return miss(e);
+    }
+
+    /** 単一プリミティブ（THUD / SPIN / TICK のみ）。level は 1..SCALE_LEVELS */
+    Entry primitive(int primitiveId, int level) {
+        int slot;
+        switch (primitiveId) {
+            case VibrationEffect.Composition.PRIMITIVE_THUD: slot = 0; break;
+            case VibrationEffect.Composition.PRIMITIVE_SPIN: slot = 1; break;
+            case VibrationEffect.Composition.PRIMITIVE_TICK: slot = 2; break;
+            default: throw new IllegalArgumentException("unsupported primitive " + primitiveId);
+        }
+        int lv = Math.max(1, Math.min(SCALE_LEVELS, level));
+        int k  = slot * LEVEL_KEYS + lv;
+        Entry e = primitives[k];
+        if (e != null) return hit(e);
+        e = new Entry(VibrationEffect.startComposition()
+                .addPrimitive(primitiveId, scaleOf(lv), 0)
+                .compose());
+        primitives[k] = e;
+        return miss(e);
+    }
+
+    /**
+     * delayMs 後に THUD を 1 回鳴らす Composition（遅延は Composition の delay 引数）。
+     * 遅延は DELAY_STEP_MS 刻みに丸め，0..MAX_DELAY_MS に収める。
+     */
+    Entry delayedThud(int level, long delayMs) {
+        int lv = Math.max(1, Math.min(SCALE_LEVELS, level));
+        int d  = (int) Math.max(0, Math.min(MAX_DELAY_MS, delayMs + DELAY_STEP_MS / 2)) / DELAY_STEP_MS;
+        int k  = d * LEVEL_KEYS + lv;
+        Entry e = delayedThuds[k];
+        if (e != null) return hit(e);
+        e = new Entry(VibrationEffect.startComposition()
+                .addPrimitive(VibrationEffect.Composition.PRIMITIVE_THUD, scaleOf(lv), d * DELAY_STEP_MS)
+                .compose());
+        delayedThuds[k] = e;
+        return miss(e);
+    }
+
+    /*==== 統計 ========================================================*/
+    long getHitCount()  { return hits.get(); }
+    long getMissCount() { return misses.get(); }
+
+    /** ヒット率 0..1（未使用なら 0） */
+    double getHitRate() {
+        long h = hits.get(), m = misses.get();
+        return (h + m == 0) ? 0.0 : (double) h / (h + m);
+    }
+
+    @Override
+    public String toString() {
+        return String.format(java.util.Locale.US, "EffectCache{hit %.1f%%, %d/%d}",
+                getHitRate() * 100, hits.get(), hits.get() + misses.get());
+    }
+
+    /*==== 内部処理 ====================================================*/
+    private static float scaleOf(int level) {
+        return (float) level / SCALE_LEVELS;
+    }
+
+    private Entry hit(Entry e) {
+        hits.incrementAndGet();
+        return e;
+    }
+
+    private Entry miss(Entry e) {
+        misses.incrementAndGet();
+        return e;
+    }
+}
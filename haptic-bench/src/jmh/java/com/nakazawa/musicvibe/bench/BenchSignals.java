@@ -0,0 +1,31 @@
+package com.nakazawa.musicvibe.bench;
+
+import java.util.Random;
+
+/**
+ * ベンチマーク用の合成信号（乱数シード固定で毎回同じもの）
+ */
+final class BenchSignals {
+
+    static final int FRAME_COUNT = 16; // 同じフレームの繰り返しを避けるため数種類を巡回
+
+    private BenchSignals() {}
+
+    /** ベース + メロディ + ノイズの 16bit PCM フレーム */
+    static short[][] musicFrames(int samples, int sampleRate) {
+        Random rnd = new Random(42);
+        short[][] frames = new short[FRAME_COUNT][samples];
+        for (int f = 0; f < FRAME_COUNT; f++) {
+            double bassAmp = 4000 + rnd.nextInt(8000);
+            double melAmp  = 2000 + rnd.nextInt(6000);
+            for (int i = 0; i < samples; i++) {
+                double t = (f * samples + i) / (double) sampleRate;
+                double v = bassAmp * Math.sin(2 * Math.PI * 60 * t)
+                        + melAmp * Math.sin(2 * Math.PI * 440 * t)
+                        + 800 * rnd.nextGaussian();
+                frames[f][i] = (short) Math.max(Short.MIN_VALUE, Math.min(Short.MAX_VALUE, v));
+            }
+        }
+        return frames;
+    }
+}
@@ -0,0 +1,43 @@
+package com.nakazawa.musicvibe.bench;
+
+import com.nakazawa.musicvibe.core.Dsp;
+import com.nakazawa.musicvibe.core.TransferCurve;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+/**
+ * 非線形圧縮カーブ 1 回分（解析 1 フレームに 1 回呼ばれる）
+ * background が Math.pow の定義式，backgroundTable が TransferCurve のテーブル補間
+ */
+@State(Scope.Thread)
+public class CompressionBenchmark {
+
+    private static final int N = 1024;
+
+    private final double[] xs = new double[N];
+    private int idx;
+
+    @Setup
+    public void setup() {
+        // 0..1 を一様に（ニー前後の両分岐を通す）
+        for (int i = 0; i < N; i++) xs[i] = i / (double) (N - 1);
+    }
+
+    private double nextX() {
+        idx = (idx + 1) & (N - 1);
+        return xs[idx];
+    }
+
+    @Benchmark
+    public double background() {
+        return Dsp.compressBackground(nextX());
+    }
+
+    @Benchmark
+    public double backgroundTable() {
+        return TransferCurve.BACKGROUND.apply(nextX());
+    }
+}
@@ -0,0 +1,66 @@
+package com.nakazawa.musicvibe.bench;
+
+import com.nakazawa.musicvibe.core.BackgroundSignalPath;
+import com.nakazawa.musicvibe.core.PolyphaseDecimator;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.nio.FloatBuffer;
+
+/**
+ * 間引きの前後で同じ入力を解析するコスト（1 op = 44.1 kHz の入力 1024 サンプル ≒ 23 ms）
+ * ・fullRate  … 従来：1024 サンプルをそのまま BackGround 経路へ（factor に依らない基準）
+ * ・decimated … PolyphaseDecimator で 1/factor にしてから BackGround 経路へ
+ *               （前段のフィルタ込み。フレーム長は frameLengthFor(factor) で時間長をそろえる）
+ * factor 20（2.2 kHz）は melody 帯域（〜1.5 kHz）の上側が遮断域にかかるので参考値
+ */
+@State(Scope.Thread)
+public class DecimationBenchmark {
+
+    private static final int SAMPLE_RATE = 44100;
+    private static final int CHUNK       = BackgroundSignalPath.FRAME_SAMPLES;
+
+    @Param({"10", "20"})
+    public int factor;
+
+    private short[][] pcm;
+    private int       idx;
+
+    private BackgroundSignalPath full;
+    private BackgroundSignalPath reduced;
+    private PolyphaseDecimator   decimator;
+    private int                  lastAction;
+
+    private final PolyphaseDecimator.FrameSink analyse = (frame, inputAfter) ->
+            lastAction = reduced.process(frame, frame.remaining());
+
+    @Setup
+    public void setup() {
+        pcm       = BenchSignals.musicFrames(CHUNK, SAMPLE_RATE);
+        full      = new BackgroundSignalPath(SAMPLE_RATE);
+        reduced   = new BackgroundSignalPath(SAMPLE_RATE / factor);
+        decimator = new PolyphaseDecimator(factor, PolyphaseDecimator.frameLengthFor(factor));
+    }
+
+    private int next() {
+        idx = (idx + 1) & (BenchSignals.FRAME_COUNT - 1);
+        return idx;
+    }
+
+    @Benchmark
+    public int fullRate() {
+        short[] chunk = pcm[next()];
+        int action = full.process(chunk, chunk.length);
+        return action + full.getAmplitude();
+    }
+
+    @Benchmark
+    public int decimated() {
+        decimator.process(pcm[next()], 0, CHUNK, analyse);
+        return lastAction + reduced.getAmplitude();
+    }
+}
@@ -0,0 +1,49 @@
+package com.nakazawa.musicvibe.bench;
+
+import com.nakazawa.musicvibe.core.BackgroundSignalPath;
+import com.nakazawa.musicvibe.core.PcmRingBuffer;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+/**
+ * CaptureService → HapticEngine の PCM 受け渡し
+ * 1 op = AudioRecord.read 1 回分のチャンクをリングへ書き，揃ったフレームを全て取り出す
+ */
+@State(Scope.Thread)
+public class HandoffBenchmark {
+
+    @Param({"1024", "2048", "4096"})
+    public int bufferSamples;
+
+    @Param({"44100", "48000"})
+    public int sampleRate;
+
+    private PcmRingBuffer ring;
+    private short[][]     chunks;
+    private short[]       frame;
+    private int           idx;
+
+    @Setup
+    public void setup() {
+        ring   = new PcmRingBuffer(64 * 1024);
+        chunks = BenchSignals.musicFrames(bufferSamples, sampleRate);
+        frame  = new short[BackgroundSignalPath.FRAME_SAMPLES];
+    }
+
+    @Benchmark
+    public int captureToFrames() {
+        idx = (idx + 1) & (BenchSignals.FRAME_COUNT - 1);
+        short[] chunk = chunks[idx];
+        ring.write(chunk, 0, chunk.length);
+        int sum = 0;
+        while (ring.available() >= frame.length) {
+            ring.readFrame(frame);
+            sum += frame[0];
+        }
+        return sum;
+    }
+}
@@ -0,0 +1,79 @@
+package com.nakazawa.musicvibe.bench;
+
+import com.nakazawa.musicvibe.core.BackgroundSignalPath;
+import com.nakazawa.musicvibe.core.OnsetSignalPath;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.FloatBuffer;
+
+/**
+ * 1 フレーム分の解析コスト（1 op = 1 フレーム）
+ * ・rmsBandPath      … BackGround 経路（3 帯域 IIR・包絡 → ゲート → 圧縮 → 振幅）
+ * ・rmsBandPathFloat … 同じ経路を float の direct バッファからその場で（CaptureService の float 取り込み）
+ * ・onsetPath        … オンセット・テンポ（Hann 窓 → FFT → 帯域フラックス → TempoTracker）
+ */
+@State(Scope.Thread)
+public class SignalPathBenchmark {
+
+    /** 1024 = AudioRecord の 2048 byte 下限（16bit）= BackGround の 1 フレーム */
+    @Param({"1024", "2048", "4096"})
+    public int bufferSamples;
+
+    @Param({"44100", "48000"})
+    public int sampleRate;
+
+    private short[][] pcm;
+    private FloatBuffer[] pcmFloat;   // 同じ信号の -1..1，direct
+    private int       idx;
+
+    private BackgroundSignalPath bg;
+    private OnsetSignalPath      onset;
+    private long                 nowMs;
+
+    @Setup
+    public void setup() {
+        pcm = BenchSignals.musicFrames(bufferSamples, sampleRate);
+        pcmFloat = new FloatBuffer[pcm.length];
+        for (int f = 0; f < pcm.length; f++) {
+            FloatBuffer b = ByteBuffer.allocateDirect(bufferSamples * 4)
+                    .order(ByteOrder.nativeOrder()).asFloatBuffer();
+            for (short v : pcm[f]) b.put(v / 32768f);
+            b.flip();
+            pcmFloat[f] = b;
+        }
+        bg    = new BackgroundSignalPath(sampleRate);
+        onset = new OnsetSignalPath(sampleRate);
+    }
+
+    private int next() {
+        idx = (idx + 1) & (BenchSignals.FRAME_COUNT - 1);
+        return idx;
+    }
+
+    @Benchmark
+    public int rmsBandPath() {
+        short[] frame = pcm[next()];
+        int action = bg.process(frame, frame.length);
+        return action + bg.getAmplitude();
+    }
+
+    @Benchmark
+    public int rmsBandPathFloat() {
+        int action = bg.process(pcmFloat[next()], bufferSamples);
+        return action + bg.getAmplitude();
+    }
+
+    @Benchmark
+    public int onsetPath() {
+        nowMs += bufferSamples * 1000L / sampleRate;
+        int onsets = onset.process(pcm[next()], bufferSamples, nowMs);
+        return onsets + (onset.getTempo().isLocked() ? 1 : 0);
+    }
+}
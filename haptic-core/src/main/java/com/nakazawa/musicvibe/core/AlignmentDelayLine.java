@@ -0,0 +1,144 @@
+package com.nakazawa.musicvibe.core;
+
+/**
+ * AlignmentDelayLine
+ * ──────────────────────────────────────────────────────────────
+ * ・解析結果（振動）を「聞こえる時刻」に合わせるための遅延線
+ *     解析した音が実際に鳴るまで … audio output latency（プレーヤ／シンク側）
+ *     vibrate() から体に届くまで   … vibrator latency（IPC 実測 ＋ 立ち上がり）
+ *     offset = audio − vibrator ＋ ユーザ補正
+ *   offset > 0 なら振動を offset ぶん遅らせ，負なら遅らせない（呼び出し側が
+ *   予測で前倒しできる場合だけ getOffsetMs() をそのまま使う）
+ * ・両方のレイテンシは EMA で自動較正する（ユーザ補正は手動）
+ * ・遅延中の振動は固定長リングに FIFO で保持。溢れたら最も古いものを捨てる
+ *   （古い振動を遅れて鳴らすより新しいほうが良い）
+ * ・offer / poll は別スレッドから呼ばれる想定なので synchronized
+ */
+public final class AlignmentDelayLine<T> {
+
+    public static final int    DEFAULT_CAPACITY     = 16;
+    public static final int    DEFAULT_MAX_DELAY_MS = 500;
+    private static final double AUDIO_ALPHA   = 0.1;
+    private static final double VIB_ALPHA     = 0.05;   // IPC はばらつくのでゆっくり
+
+    private final long[]   due;
+    private final long[]   offered;       // offer() 時刻（レイテンシ計測用）
+    private final Object[] items;
+    private final int      maxDelayMs;
+    private final double   actuatorRiseMs;
+    private int  head, size;
+    private long lastDueNs = Long.MIN_VALUE;
+    private long dropped;
+    private long polledOfferNs;
+
+    private volatile double audioLatencyMs = 0;   // 未較正は 0（遅らせない）
+    private volatile double vibLatencyMs;
+    private volatile int    userOffsetMs   = 0;
+    private boolean audioCalibrated, vibCalibrated;
+
+    /**
+     * @param actuatorRiseMs vibrate() が返ってから振動が体感できるまでの見込み
+     *                       （IPC の実測値に足す固定分）
+     */
+    public AlignmentDelayLine(int capacity, int maxDelayMs, double actuatorRiseMs) {
+        if (capacity <= 0) throw new IllegalArgumentException("capacity must be > 0");
+        this.due            = new long[capacity];
+        this.offered        = new long[capacity];
+        this.items          = new Object[capacity];
+        this.maxDelayMs     = maxDelayMs;
+        this.actuatorRiseMs = actuatorRiseMs;
+        this.vibLatencyMs   = actuatorRiseMs;
+    }
+
+    /*==== 較正 ========================================================*/
+    /** 解析した音が聞こえるまでの時間（ms）の測定値を 1 つ入れる */
+    public synchronized void updateAudioLatency(double ms) {
+        if (ms < 0 || Double.isNaN(ms)) return;
+        audioLatencyMs = audioCalibrated ? audioLatencyMs + (ms - audioLatencyMs) * AUDIO_ALPHA : ms;
+        audioCalibrated = true;
+    }
+
+    /** vibrate() / cancel() 呼び出しにかかった時間（ns）を 1 つ入れる */
+    public synchronized void recordVibratorCall(long nanos) {
+        double ms = Math.max(0, nanos) / 1e6 + actuatorRiseMs;
+        vibLatencyMs = vibCalibrated ? vibLatencyMs + (ms - vibLatencyMs) * VIB_ALPHA : ms;
+        vibCalibrated = true;
+    }
+
+    /** 手動補正（正で遅らせる） */
+    public void setUserOffsetMs(int ms) { userOffsetMs = ms; }
+    public int  getUserOffsetMs()       { return userOffsetMs; }
+
+    public double getAudioLatencyMs()    { return audioLatencyMs; }
+    public double getVibratorLatencyMs() { return vibLatencyMs; }
+
+    /** audio − vibrator ＋ ユーザ補正（負もあり得る） */
+    public long getOffsetMs() {
+        return Math.round(audioLatencyMs - vibLatencyMs) + userOffsetMs;
+    }
+
+    /** 実際に掛ける遅延 0..maxDelayMs */
+    public long getDelayMs() {
+        return Math.max(0, Math.min(maxDelayMs, getOffsetMs()));
+    }
+
+    /*==== 遅延線 ======================================================*/
+    /**
+     * nowNs（System.nanoTime 基準）に出来た振動を遅延線に入れる。
+     * 順序を保つため，遅延が縮んでも前の振動より先には出さない。
+     * @return 鳴らす時刻（ns）
+     */
+    public synchronized long offer(T item, long nowNs) {
+        long t = Math.max(nowNs + getDelayMs() * 1_000_000L, lastDueNs);
+        if (size == due.length) {          // 溢れ：最古を捨てる
+            items[head] = null;
+            head = (head + 1) % due.length;
+            size--;
+            dropped++;
+        }
+        int tail = (head + size) % due.length;
+        due[tail]     = t;
+        offered[tail] = nowNs;
+        items[tail]   = item;
+        size++;
+        lastDueNs = t;
+        return t;
+    }
+
+    /** 時刻が来た先頭の振動を 1 つ取り出す（無ければ null） */
+    @SuppressWarnings("unchecked")
+    public synchronized T poll(long nowNs) {
+        if (size == 0 || due[head] > nowNs) return null;
+        T item = (T) items[head];
+        items[head] = null;
+        polledOfferNs = offered[head];
+        head = (head + 1) % due.length;
+        size--;
+        return item;
+    }
+
+    /** 直前の poll() で取り出した振動を offer() した時刻 */
+    public synchronized long getPolledOfferNs() { return polledOfferNs; }
+
+    /** 先頭の振動の時刻（空なら Long.MAX_VALUE） */
+    public synchronized long nextDueNs() {
+        return (size == 0) ? Long.MAX_VALUE : due[head];
+    }
+
+    public synchronized int  size()         { return size; }
+    public synchronized long getDropped()   { return dropped; }
+
+    /** 保持中の振動を捨てる（一時停止・シークなど） */
+    public synchronized void clear() {
+        for (int i = 0; i < items.length; i++) items[i] = null;
+        head = size = 0;
+        lastDueNs = Long.MIN_VALUE;
+    }
+
+    @Override
+    public String toString() {
+        return String.format(java.util.Locale.US,
+                "AlignmentDelayLine{audio %.1f ms, vibrator %.1f ms, user %d ms → delay %d ms}",
+                audioLatencyMs, vibLatencyMs, userOffsetMs, getDelayMs());
+    }
+}
@@ -0,0 +1,125 @@
+package com.nakazawa.musicvibe.core;
+
+import java.nio.FloatBuffer;
+
+/**
+ * BackgroundSignalPath
+ * ──────────────────────────────────────────────────────────────
+ * ・BackGround 経路の 1 フレーム分の判定（Android 非依存）
+ *     BiquadBandBank（3 帯域の IIR → 帯域ごとの attack / release 包絡
+ *     → ヒステリシス + ホールド付きゲート）を 1 サンプルずつ回し，
+ *     フレーム末尾で 開いた帯域の重み付き level の和 → 非線形圧縮（TransferCurve のテーブル）→ 振幅
+ * ・フィルタ・包絡・ゲートの状態はフレームをまたいで持ち越す（フレームの区切り方に依らない）。
+ *   ゲートはホールド時間より短い途切れでは閉じないので，閾値付近で vibrate / cancel を繰り返さない
+ * ・結果は「振動開始/更新」「停止」「何もしない」のいずれかで返し，
+ *   実際の vibrate / cancel は呼び出し側（HapticEngine）が行う
+ */
+public final class BackgroundSignalPath {
+
+    /*==== 判定結果 ====================================================*/
+    public static final int ACTION_NONE    = 0;
+    public static final int ACTION_VIBRATE = 1; // getAmplitude() で振動開始 or 更新
+    public static final int ACTION_CANCEL  = 2;
+
+    /*==== 定数 ========================================================*/
+    public static final int     FRAME_SAMPLES    = 1024;   // 解析 1 フレームのサンプル数
+    public static final double  BASS_EDGE_HZ     = 200.0;  // bass / melody 境界
+    public static final double  MELODY_EDGE_HZ   = 1500.0; // melody / other 境界
+    private static final int    MIN_AMPLITUDE    = 15;     // 振幅下限
+    private static final int    AMP_DELTA        = 5;      // 振幅差の最小変化量
+    private static final float  DEFAULT_SCALE    = 1.2f;   // 音量スケール初期値
+    private static final double[] BAND_WEIGHTS   = {1.5, 2.5, 0.25}; // bass / melody / other
+
+    /*==== 状態 ========================================================*/
+    private final BiquadBandBank bands;
+
+    private volatile float userScale = DEFAULT_SCALE;
+    private volatile TransferCurve curve = TransferCurve.BACKGROUND;
+    private boolean gateOpen     = false;
+    private boolean looping      = false;
+    private int     amplitude    = 0;
+    private final double[] bandRms = new double[BiquadBandBank.BANDS];
+
+    public BackgroundSignalPath(int sampleRate) {
+        this.bands = new BiquadBandBank(sampleRate, BASS_EDGE_HZ, MELODY_EDGE_HZ, BAND_WEIGHTS);
+    }
+
+    /** pcm[0, len) を 1 フレームとして処理し ACTION_* を返す */
+    public int process(short[] pcm, int len) {
+        // 1. フィルタバンク（包絡・ゲート）をサンプルごとに進める
+        bands.process(pcm, 0, len);
+        return decide();
+    }
+
+    /**
+     * float PCM（-1..1）の position から len 個を 1 フレームとしてその場で処理する
+     * （コピー・16bit 化なし，position は動かさない）。判定は 16bit 版と同じ。
+     */
+    public int process(FloatBuffer pcm, int len) {
+        bands.process(pcm, len);
+        return decide();
+    }
+
+    private int decide() {
+        for (int b = 0; b < bandRms.length; b++) bandRms[b] = bands.rms(b) * 32768.0;
+
+        // 2. どれかの帯域のゲートが開いていれば鳴らす（開閉はバンク側でヒステリシス + ホールド）
+        gateOpen = bands.anyOpen();
+        if (!gateOpen) {
+            // ゲート閉 -> 振動停止 or 継続無し
+            return stop();
+        }
+
+        // 3. 開いた帯域の重み付き level → 非線形圧縮（平滑化は帯域ごとの包絡が担う）
+        double x = Math.min(1.0, bands.openLevel());
+        double norm = curve.apply(x);
+
+        // 4. 振動開始 or 更新
+        int amp = Math.min(255, (int) (norm * userScale * 255));
+        if (amp < MIN_AMPLITUDE) return stop();
+        if (looping && Math.abs(amp - amplitude) <= AMP_DELTA) return ACTION_NONE;
+        looping   = true;
+        amplitude = amp;
+        return ACTION_VIBRATE;
+    }
+
+    private int stop() {
+        if (!looping) return ACTION_NONE;
+        looping = false;
+        return ACTION_CANCEL;
+    }
+
+    /*==== 設定・状態参照 ==============================================*/
+    public void setUserScale(float scale) { userScale = scale; }
+
+    /** 圧縮カーブを差し替える。次フレームから反映。 */
+    public void setTransferCurve(TransferCurve c) { curve = c; }
+
+    /** 帯域境界（Hz）を変更する。次フレームから反映。 */
+    public void setBandEdges(double bassHz, double melodyHz) {
+        bands.setBandEdges(bassHz, melodyHz);
+    }
+
+    /** 入力のサンプルレートを変える（process() と同じスレッドから呼ぶ） */
+    public void setSampleRate(int sampleRate) { bands.setSampleRate(sampleRate); }
+    public int  getSampleRate()               { return bands.getSampleRate(); }
+
+    /** 直近の ACTION_VIBRATE で決まった振幅（MIN_AMPLITUDE..255） */
+    public int     getAmplitude()  { return amplitude; }
+    public boolean isGateOpen()    { return gateOpen; }
+    public boolean isLooping()     { return looping; }
+    /** 帯域ごとのノイズ床（重み込み）の和 */
+    public double  getNoiseFloor() { return bands.floorSum(); }
+
+    /**
+     * 次のフレームでゲートを開け得る最小のピーク |x|（0..1，{@link BiquadBandBank#wakeLevel}）。
+     * ピークがこれ未満のフレームは解析しても全帯域が閉じたままなので，省電力中の間引き判定に使う。
+     */
+    public double getWakeLevel() { return bands.wakeLevel(); }
+
+    /** 帯域ごとの包絡・ゲートの状態 */
+    public BiquadBandBank getBands() { return bands; }
+
+    /** 直近フレーム末尾の bass / melody / other RMS 包絡（16bit スケール，内部配列，読み取り専用） */
+    public double[] getBandRms()   { return bandRms; }
+}
@@ -0,0 +1,254 @@
+package com.nakazawa.musicvibe.core;
+
+import java.nio.FloatBuffer;
+
+/**
+ * BiquadBandBank
+ * ──────────────────────────────────────────────────────────────
+ * ・PCM をサンプルごとに 3 帯域へ分けて包絡とゲートを追うフィルタバンク（確保は生成時のみ）
+ *     BASS … ローパス（bassHz）
+ *     MID  … バンドパス（bassHz..melodyHz，中心は幾何平均，0 dB ピーク）
+ *     TOP  … ハイパス（melodyHz）
+ *   いずれも RBJ の 2 次 IIR（転置直接 II 形）
+ * ・帯域ごとに
+ *     包絡 … 二乗の attack / release 追従。level = 重み × √包絡（RMS 相当，0..1 スケール）
+ *     ゲート … ノイズ床 + OPEN_MARGIN で開き，床 + CLOSE_MARGIN を下回ったまま
+ *              HOLD_MS 経ったら閉じる（ヒステリシス + ホールド）。
+ *              床は閉じている間は level へ，開いている間は開く閾値へ EMA で寄せる
+ * ・状態はすべて呼び出しをまたいで持ち越すので，入力の区切り方に依らず同じ結果になる
+ * ・process() / setSampleRate() は単一スレッドから呼ぶこと（帯域境界の変更だけは別スレッドから可）
+ */
+public final class BiquadBandBank {
+
+    public static final int BASS  = 0;
+    public static final int MID   = 1;
+    public static final int TOP   = 2;
+    public static final int BANDS = 3;
+
+    public static final double OPEN_MARGIN  = 0.02;   // 床 + 2 % で開く
+    public static final double CLOSE_MARGIN = 0.01;   // 床 + 1 % を下回り続けたら閉じる
+    public static final double HOLD_MS      = 100;
+    private static final double FLOOR_TAU_MS = 2300;  // 旧実装の 0.99 / フレーム（23 ms）相当
+    private static final double[] ATTACK_MS  = {5, 3, 2};
+    private static final double[] RELEASE_MS = {60, 40, 30};
+    private static final double MAX_EDGE_RATIO = 0.45;  // 境界はサンプルレートの 45 % まで
+    private static final double PEAK_GAIN_TAIL = 1e-9;  // インパルス応答の L1 和をここまで減衰したら打ち切る
+
+    private final double[] weights;
+
+    private int    sampleRate;                      // process() と同じスレッドからのみ変更
+    private volatile double[] pendingEdgesHz;       // 別スレッドからの境界変更
+    private double bassHz, melodyHz;
+
+    // 2 次 IIR（a0 で正規化済み）と状態
+    private final double[] b0 = new double[BANDS], b1 = new double[BANDS], b2 = new double[BANDS];
+    private final double[] a1 = new double[BANDS], a2 = new double[BANDS];
+    private final double[] z1 = new double[BANDS], z2 = new double[BANDS];
+    private final double[] peakGain = new double[BANDS];   // max|y| ÷ max|x| の上限（インパルス応答の L1 和）
+
+    // 包絡・ゲート
+    private final double[] attack  = new double[BANDS], release = new double[BANDS];
+    private final double[] env     = new double[BANDS];
+    private final double[] level   = new double[BANDS];
+    private final double[] floor   = new double[BANDS];
+    private final boolean[] open   = new boolean[BANDS];
+    private final int[]    hold    = new int[BANDS];
+    private int    holdSamples;
+    private double floorCoef;
+
+    /**
+     * @param sampleRate 入力 PCM のサンプルレート
+     * @param bassHz     BASS / MID 境界
+     * @param melodyHz   MID / TOP 境界
+     * @param weights    帯域ごとの重み（level とゲートの判定に掛ける）
+     */
+    public BiquadBandBank(int sampleRate, double bassHz, double melodyHz, double... weights) {
+        if (sampleRate <= 0) throw new IllegalArgumentException("sampleRate must be > 0");
+        if (weights.length != BANDS) throw new IllegalArgumentException("need " + BANDS + " weights");
+        checkEdges(bassHz, melodyHz);
+        this.weights    = weights.clone();
+        this.sampleRate = sampleRate;
+        this.bassHz     = bassHz;
+        this.melodyHz   = melodyHz;
+        configure();
+    }
+
+    /*==== 入力 ========================================================*/
+    /** 16bit PCM pcm[off, off + len) を流す */
+    public void process(short[] pcm, int off, int len) {
+        applyPendingEdges();
+        for (int i = 0; i < len; i++) step(pcm[off + i] * (1.0 / 32768));
+    }
+
+    /** float PCM（-1..1）を position から len 個，絶対位置で流す（position は動かさない） */
+    public void process(FloatBuffer pcm, int len) {
+        applyPendingEdges();
+        int p = pcm.position();
+        for (int i = 0; i < len; i++) step(pcm.get(p + i));
+    }
+
+    /*==== 設定 ========================================================*/
+    /** 帯域境界を変更する。次の process() から反映（フィルタの状態は持ち越す） */
+    public void setBandEdges(double bassHz, double melodyHz) {
+        checkEdges(bassHz, melodyHz);
+        pendingEdgesHz = new double[] {bassHz, melodyHz};
+    }
+
+    /** 入力のサンプルレートを変える（process() と同じスレッドから呼ぶ）。フィルタの状態は捨てる */
+    public void setSampleRate(int sampleRate) {
+        if (sampleRate <= 0) throw new IllegalArgumentException("sampleRate must be > 0");
+        if (sampleRate == this.sampleRate) return;
+        this.sampleRate = sampleRate;
+        configure();
+        for (int b = 0; b < BANDS; b++) z1[b] = z2[b] = 0;
+    }
+
+    public int getSampleRate() { return sampleRate; }
+
+    /*==== 状態参照 ====================================================*/
+    /** 帯域の重み付き level（0..1 スケール，重み込み） */
+    public double level(int band)      { return level[band]; }
+    /** 帯域の RMS 包絡（0..1 スケール，重みなし） */
+    public double rms(int band)        { return Math.sqrt(env[band]); }
+    public double floor(int band)      { return floor[band]; }
+    public boolean isOpen(int band)    { return open[band]; }
+
+    public boolean anyOpen() {
+        for (int b = 0; b < BANDS; b++) if (open[b]) return true;
+        return false;
+    }
+
+    /** 開いている帯域の level の和（閉じた帯域は足さない） */
+    public double openLevel() {
+        double sum = 0;
+        for (int b = 0; b < BANDS; b++) if (open[b]) sum += level[b];
+        return sum;
+    }
+
+    /** 帯域の床の和（旧実装の重み付き全体の床に相当） */
+    public double floorSum() {
+        return floor[BASS] + floor[MID] + floor[TOP];
+    }
+
+    /**
+     * 次に来る入力でどれかのゲートを開け得る最小のピーク |x|（0..1）。
+     * 帯域出力は |y| ≤ L1(h)·max|x|，包絡は y² の EMA なので √包絡 ≤ max|y|。
+     * よってピークがこれ未満の入力では（直前まで閉じていれば）全帯域が閉じたまま。
+     * 長さによらない上限なので，短いクリックでも 1 フレームで取りこぼさない
+     * （床が 1 フレームの間に動く分は含まない。閉じている間の床は 23 ms で 1 % 程度しか動かない）。
+     */
+    public double wakeLevel() {
+        double min = Double.MAX_VALUE;
+        for (int b = 0; b < BANDS; b++) {
+            if (weights[b] <= 0) continue;
+            min = Math.min(min, (floor[b] + OPEN_MARGIN) / (weights[b] * peakGain[b]));
+        }
+        return min;
+    }
+
+    /*==== 内部処理 ====================================================*/
+    private void step(double x) {
+        for (int b = 0; b < BANDS; b++) {
+            // 2 次 IIR（転置直接 II 形）
+            double y = b0[b] * x + z1[b];
+            z1[b] = b1[b] * x - a1[b] * y + z2[b];
+            z2[b] = b2[b] * x - a2[b] * y;
+
+            // 二乗の attack / release 追従
+            double p = y * y, e = env[b];
+            e += ((p > e) ? attack[b] : release[b]) * (p - e);
+            env[b] = e;
+            double lv = weights[b] * Math.sqrt(e);
+            level[b] = lv;
+
+            // ヒステリシス + ホールド
+            double fl = floor[b];
+            if (open[b]) {
+                if (lv >= fl + CLOSE_MARGIN) hold[b] = holdSamples;
+                else if (--hold[b] <= 0)     open[b] = false;
+            } else if (lv >= fl + OPEN_MARGIN) {
+                open[b] = true;
+                hold[b] = holdSamples;
+            }
+            double target = open[b] ? fl + OPEN_MARGIN : lv;
+            floor[b] = fl + floorCoef * (target - fl);
+        }
+    }
+
+    private void applyPendingEdges() {
+        double[] pending = pendingEdgesHz;
+        if (pending == null) return;
+        pendingEdgesHz = null;
+        bassHz   = pending[0];
+        melodyHz = pending[1];
+        designFilters();
+    }
+
+    private void configure() {
+        designFilters();
+        for (int b = 0; b < BANDS; b++) {
+            attack[b]  = coef(ATTACK_MS[b]);
+            release[b] = coef(RELEASE_MS[b]);
+        }
+        holdSamples = (int) Math.max(1, Math.round(HOLD_MS * sampleRate / 1000));
+        floorCoef   = coef(FLOOR_TAU_MS);
+    }
+
+    /** 時定数 ms の 1 次追従の係数（1 サンプルあたり） */
+    private double coef(double ms) {
+        return 1 - Math.exp(-1000.0 / (ms * sampleRate));
+    }
+
+    /** RBJ Audio EQ Cookbook の LPF / BPF（0 dB ピーク）/ HPF */
+    private void designFilters() {
+        double maxHz = MAX_EDGE_RATIO * sampleRate;
+        double lo = Math.min(bassHz, maxHz);
+        double hi = Math.min(melodyHz, maxHz);
+        double q  = Math.sqrt(0.5);
+
+        double w = 2 * Math.PI * lo / sampleRate, cos = Math.cos(w), alpha = Math.sin(w) / (2 * q);
+        set(BASS, (1 - cos) / 2, 1 - cos, (1 - cos) / 2, 1 + alpha, -2 * cos, 1 - alpha);
+
+        double center = Math.sqrt(lo * hi);
+        double bq = center / Math.max(1e-6, hi - lo);
+        w = 2 * Math.PI * center / sampleRate;
+        cos = Math.cos(w);
+        alpha = Math.sin(w) / (2 * bq);
+        set(MID, alpha, 0, -alpha, 1 + alpha, -2 * cos, 1 - alpha);
+
+        w = 2 * Math.PI * hi / sampleRate;
+        cos = Math.cos(w);
+        alpha = Math.sin(w) / (2 * q);
+        set(TOP, (1 + cos) / 2, -(1 + cos), (1 + cos) / 2, 1 + alpha, -2 * cos, 1 - alpha);
+
+        for (int b = 0; b < BANDS; b++) peakGain[b] = impulseL1(b);
+    }
+
+    /** 帯域フィルタのインパルス応答の絶対値和（入力ピークに対する出力ピークの上限） */
+    private double impulseL1(int band) {
+        double s1 = 0, s2 = 0, sum = 0, x = 1;
+        for (int n = 0; n < sampleRate; n++) {
+            double y = b0[band] * x + s1;
+            s1 = b1[band] * x - a1[band] * y + s2;
+            s2 = b2[band] * x - a2[band] * y;
+            x = 0;
+            sum += Math.abs(y);
+            if (n > 2 && Math.abs(s1) + Math.abs(s2) < PEAK_GAIN_TAIL) break;
+        }
+        return sum;
+    }
+
+    private void set(int band, double nb0, double nb1, double nb2, double na0, double na1, double na2) {
+        b0[band] = nb0 / na0;
+        b1[band] = nb1 / na0;
+        b2[band] = nb2 / na0;
+        a1[band] = na1 / na0;
+        a2[band] = na2 / na0;
+    }
+
+    private static void checkEdges(double bassHz, double melodyHz) {
+        if (bassHz <= 0 || melodyHz <= bassHz) {
+            throw new IllegalArgumentException("band edges must be ascending and > 0");
+        }
+    }
+}
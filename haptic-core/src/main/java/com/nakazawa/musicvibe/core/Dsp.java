@@ -0,0 +1,57 @@
+package com.nakazawa.musicvibe.core;
+
+import java.nio.FloatBuffer;
+
+/**
+ * Dsp
+ * ──────────────────────────────────────────────────────────────
+ * ・各経路で共通に使う小さな信号処理ユーティリティ
+ */
+public final class Dsp {
+
+    private Dsp() {}
+
+    /** buf[from, to) の RMS（16bit PCM スケール） */
+    public static double rmsOf(short[] buf, int from, int to) {
+        long sumSq = 0;
+        for (int i = from; i < to; i++) sumSq += (long) buf[i] * buf[i];
+        return Math.sqrt(sumSq / (double) (to - from));
+    }
+
+    /** float PCM の position から len 個の RMS（-1..1 スケール，position は動かさない） */
+    public static double rmsOf(FloatBuffer buf, int len) {
+        int p = buf.position();
+        double sumSq = 0;
+        for (int i = 0; i < len; i++) {
+            float v = buf.get(p + i);
+            sumSq += v * v;
+        }
+        return Math.sqrt(sumSq / len);
+    }
+
+    /** buf[from, to) の最大 |x|（16bit PCM スケール） */
+    public static int peakOf(short[] buf, int from, int to) {
+        int peak = 0;
+        for (int i = from; i < to; i++) peak = Math.max(peak, Math.abs(buf[i]));
+        return peak;
+    }
+
+    /** float PCM の position から len 個の最大 |x|（-1..1 スケール，position は動かさない） */
+    public static double peakOf(FloatBuffer buf, int len) {
+        int p = buf.position();
+        float peak = 0;
+        for (int i = 0; i < len; i++) peak = Math.max(peak, Math.abs(buf.get(p + i)));
+        return peak;
+    }
+
+    /**
+     * BackGround 経路の非線形圧縮（x: 0..1 → 0..1）。
+     * 経路本体は {@link TransferCurve#BACKGROUND} のテーブルを使う。これは比較用の定義式。
+     */
+    public static double compressBackground(double x) {
+        double t = 0.25;
+        return (x < t)
+                ? Math.pow(x / t, 3.5) * 0.35
+                : 0.4 + Math.pow((x - t) / (1 - t), 7) * 0.6;
+    }
+}
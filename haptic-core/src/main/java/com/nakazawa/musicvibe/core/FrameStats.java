@@ -0,0 +1,63 @@
+package com.nakazawa.musicvibe.core;
+
+/**
+ * FrameStats
+ * ──────────────────────────────────────────────────────────────
+ * ・解析フレームの処理数／処理時間を 1 秒窓で集計する
+ * ・record() は解析スレッド 1 本から呼び，結果は volatile で公開する
+ */
+public final class FrameStats {
+
+    private static final long WINDOW_NS = 1_000_000_000L;
+
+    // 集計中（解析スレッド専用）
+    private long windowStart = -1;
+    private int  count;
+    private long sumNanos;
+    private long maxNanos;
+
+    // 公開値（直近の 1 秒窓）
+    private volatile double framesPerSecond;
+    private volatile long   avgFrameNanos;
+    private volatile long   maxFrameNanos;
+    private volatile long   lastFrameNanos;
+    private volatile long   totalFrames;
+
+    /**
+     * 1 フレーム分の処理時間を記録する。
+     * @return 1 秒窓が締まり公開値が更新されたら true
+     */
+    public boolean record(long startNanos, long endNanos) {
+        long d = endNanos - startNanos;
+        lastFrameNanos = d;
+        totalFrames++;
+        if (windowStart < 0) windowStart = startNanos;
+        count++;
+        sumNanos += d;
+        if (d > maxNanos) maxNanos = d;
+
+        long elapsed = endNanos - windowStart;
+        if (elapsed < WINDOW_NS) return false;
+        framesPerSecond = count * 1e9 / elapsed;
+        avgFrameNanos   = sumNanos / count;
+        maxFrameNanos   = maxNanos;
+        windowStart = endNanos;
+        count = 0;
+        sumNanos = 0;
+        maxNanos = 0;
+        return true;
+    }
+
+    public double getFramesPerSecond() { return framesPerSecond; }
+    public long   getAvgFrameNanos()   { return avgFrameNanos; }
+    public long   getMaxFrameNanos()   { return maxFrameNanos; }
+    public long   getLastFrameNanos()  { return lastFrameNanos; }
+    public long   getTotalFrames()     { return totalFrames; }
+
+    @Override
+    public String toString() {
+        return String.format(java.util.Locale.US,
+                "%.1f frames/s, avg %.1f us, max %.1f us",
+                framesPerSecond, avgFrameNanos / 1e3, maxFrameNanos / 1e3);
+    }
+}
@@ -0,0 +1,123 @@
+package com.nakazawa.musicvibe.core;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+
+import static com.nakazawa.musicvibe.core.HapticTimelineFormat.*;
+
+/**
+ * HapticTimeline
+ * ──────────────────────────────────────────────────────────────
+ * ・1 曲分を事前解析した振動タイムライン（不変）
+ *     amplitude … frameMs ごとの振幅（0..255，0 = 停止）
+ *     event     … 立ち上がりを検出したフレームと帯域・強さ
+ * ・中身は HapticTimelineFormat のバイト列そのもの（ヒープ or read-only mmap）
+ *   で，アクセサは毎回バッファを直接引く。オブジェクトへの展開はしない
+ * ・再生時は再生位置(ms) → フレーム番号で引くだけ
+ */
+public final class HapticTimeline {
+
+    /*==== イベント帯域 ================================================*/
+    public static final int BAND_BASS = 0;
+    public static final int BAND_MID  = 1;
+    public static final int BAND_HIGH = 2;
+
+    private final ByteBuffer buf;   // little endian, 読み取り専用
+    private final int sampleRate;
+    private final int frameMs;
+    private final int frameCount;
+    private final int eventCount;
+    private final int ampOff;
+    private final int eventOff;
+
+    /** 配列から組み立てる（TimelineRenderer 用） */
+    public HapticTimeline(int sampleRate, int frameMs, byte[] amplitudes,
+                          int[] eventFrames, byte[] eventBands, byte[] eventStrengths) {
+        this(checked(sampleRate, frameMs, amplitudes, eventFrames, eventBands, eventStrengths));
+    }
+
+    private HapticTimeline(ByteBuffer b) {
+        if (b.limit() < HEADER_SIZE)                 throw new IllegalArgumentException("too short");
+        b = b.duplicate().order(ByteOrder.LITTLE_ENDIAN);
+        if (b.getInt(OFF_MAGIC) != MAGIC)            throw new IllegalArgumentException("bad magic");
+        int version = b.getShort(OFF_VERSION) & 0xFFFF;
+        if (version != VERSION)                      throw new IllegalArgumentException("unsupported version " + version);
+        if ((b.getShort(OFF_HEADER_SIZE) & 0xFFFF) < HEADER_SIZE) {
+            throw new IllegalArgumentException("bad header size");
+        }
+        this.sampleRate = b.getInt(OFF_SAMPLE_RATE);
+        this.frameMs    = b.getShort(OFF_FRAME_MS) & 0xFFFF;
+        this.frameCount = b.getInt(OFF_FRAME_COUNT);
+        this.eventCount = b.getInt(OFF_EVENT_COUNT);
+        this.ampOff     = b.getInt(OFF_AMP_TABLE);
+        this.eventOff   = b.getInt(OFF_EVENT_TABLE);
+        if (frameMs <= 0 || frameCount < 0 || eventCount < 0
+                || ampOff < HEADER_SIZE || (long) ampOff + frameCount > b.limit()
+                || eventOff < HEADER_SIZE || (long) eventOff + (long) eventCount * EVENT_SIZE > b.limit()) {
+            throw new IllegalArgumentException("corrupt header");
+        }
+        this.buf = b.asReadOnlyBuffer().order(ByteOrder.LITTLE_ENDIAN);
+    }
+
+    /**
+     * HapticTimelineFormat のバイト列をそのまま包む（ヘッダ検証のみ）。
+     * @throws IllegalArgumentException 形式が違う・壊れている
+     */
+    public static HapticTimeline wrap(ByteBuffer bytes) {
+        return new HapticTimeline(bytes);
+    }
+
+    /** 書き出し用：先頭に位置づけたバッファのビュー */
+    public ByteBuffer buffer() {
+        ByteBuffer b = buf.duplicate();
+        b.clear();
+        return b;
+    }
+
+    /*==== フレーム ====================================================*/
+    public int  getSampleRate() { return sampleRate; }
+    public int  getFrameMs()    { return frameMs; }
+    public int  frameCount()    { return frameCount; }
+    public long getDurationMs() { return (long) frameCount * frameMs; }
+
+    /** 再生位置(ms) → フレーム番号（範囲外は -1） */
+    public int frameAt(long positionMs) {
+        if (positionMs < 0) return -1;
+        long f = positionMs / frameMs;
+        return (f < frameCount) ? (int) f : -1;
+    }
+
+    /** フレームの振幅 0..255（範囲外は 0） */
+    public int amplitudeAt(int frame) {
+        if (frame < 0 || frame >= frameCount) return 0;
+        return buf.get(ampOff + frame) & 0xFF;
+    }
+
+    /*==== イベント ====================================================*/
+    public int eventCount()             { return eventCount; }
+    public int eventFrame(int index)    { return buf.getInt(eventOff + index * EVENT_SIZE + EV_FRAME); }
+    public int eventBand(int index)     { return buf.get(eventOff + index * EVENT_SIZE + EV_BAND); }
+    public int eventStrength(int index) { return buf.get(eventOff + index * EVENT_SIZE + EV_STRENGTH) & 0xFF; }
+
+    /** frame 以降で最初のイベントの index（無ければ eventCount()） */
+    public int firstEventAtOrAfter(int frame) {
+        int lo = 0, hi = eventCount;
+        while (lo < hi) {
+            int mid = (lo + hi) >>> 1;
+            if (eventFrame(mid) < frame) lo = mid + 1;
+            else hi = mid;
+        }
+        return lo;
+    }
+
+    /*==== 内部処理 ====================================================*/
+    private static ByteBuffer checked(int sampleRate, int frameMs, byte[] amplitudes,
+                                      int[] eventFrames, byte[] eventBands, byte[] eventStrengths) {
+        if (sampleRate <= 0) throw new IllegalArgumentException("sampleRate must be > 0");
+        if (frameMs <= 0 || frameMs > 0xFFFF) throw new IllegalArgumentException("frameMs out of range");
+        if (eventFrames.length != eventBands.length || eventFrames.length != eventStrengths.length) {
+            throw new IllegalArgumentException("event arrays must have the same length");
+        }
+        return encode(sampleRate, frameMs, amplitudes, eventFrames, eventBands, eventStrengths);
+    }
+}
@@ -0,0 +1,107 @@
+package com.nakazawa.musicvibe.core;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+
+/**
+ * HapticTimelineFormat
+ * ──────────────────────────────────────────────────────────────
+ * ・HapticTimeline のバイナリ形式（リトルエンディアン，version 1）
+ *
+ *   offset size
+ *     0     4   magic "MVHT"
+ *     4     2   version
+ *     6     2   header size（= 32）
+ *     8     4   元音声のサンプルレート(Hz)
+ *    12     2   frameMs（振幅 1 サンプルの長さ）
+ *    14     2   reserved
+ *    16     4   frameCount
+ *    20     4   eventCount
+ *    24     4   振幅テーブルの offset
+ *    28     4   イベントテーブルの offset（4 byte 境界）
+ *    ..  frameCount     振幅 u8
+ *    ..  eventCount × 8 イベント { u32 frame, u8 band, u8 strength, u16 reserved }
+ *
+ * ・読み出しは read-only の MappedByteBuffer をそのまま HapticTimeline が引く（パース無し）
+ */
+public final class HapticTimelineFormat {
+
+    public static final int MAGIC       = 'M' | ('V' << 8) | ('H' << 16) | ('T' << 24);
+    public static final int VERSION     = 1;
+    public static final int HEADER_SIZE = 32;
+    public static final int EVENT_SIZE  = 8;
+
+    // ヘッダ内 offset
+    static final int OFF_MAGIC        = 0;
+    static final int OFF_VERSION      = 4;
+    static final int OFF_HEADER_SIZE  = 6;
+    static final int OFF_SAMPLE_RATE  = 8;
+    static final int OFF_FRAME_MS     = 12;
+    static final int OFF_FRAME_COUNT  = 16;
+    static final int OFF_EVENT_COUNT  = 20;
+    static final int OFF_AMP_TABLE    = 24;
+    static final int OFF_EVENT_TABLE  = 28;
+    // イベント内 offset
+    static final int EV_FRAME    = 0;
+    static final int EV_BAND     = 4;
+    static final int EV_STRENGTH = 5;
+
+    private HapticTimelineFormat() {}
+
+    /** 配列からヒープ上のバッファを組み立てる */
+    static ByteBuffer encode(int sampleRate, int frameMs, byte[] amplitudes,
+                             int[] eventFrames, byte[] eventBands, byte[] eventStrengths) {
+        int frames   = amplitudes.length;
+        int events   = eventFrames.length;
+        int ampOff   = HEADER_SIZE;
+        int eventOff = align4(ampOff + frames);
+        ByteBuffer b = ByteBuffer.allocate(eventOff + events * EVENT_SIZE)
+                .order(ByteOrder.LITTLE_ENDIAN);
+        b.putInt  (OFF_MAGIC,       MAGIC);
+        b.putShort(OFF_VERSION,     (short) VERSION);
+        b.putShort(OFF_HEADER_SIZE, (short) HEADER_SIZE);
+        b.putInt  (OFF_SAMPLE_RATE, sampleRate);
+        b.putShort(OFF_FRAME_MS,    (short) frameMs);
+        b.putInt  (OFF_FRAME_COUNT, frames);
+        b.putInt  (OFF_EVENT_COUNT, events);
+        b.putInt  (OFF_AMP_TABLE,   ampOff);
+        b.putInt  (OFF_EVENT_TABLE, eventOff);
+        for (int i = 0; i < frames; i++) b.put(ampOff + i, amplitudes[i]);
+        for (int i = 0; i < events; i++) {
+            int p = eventOff + i * EVENT_SIZE;
+            b.putInt(p + EV_FRAME,    eventFrames[i]);
+            b.put   (p + EV_BAND,     eventBands[i]);
+            b.put   (p + EV_STRENGTH, eventStrengths[i]);
+        }
+        return b;
+    }
+
+    /** タイムラインをファイルへ書く（中身はメモリ上のバッファそのまま） */
+    public static void write(HapticTimeline timeline, File file) throws IOException {
+        ByteBuffer src = timeline.buffer();
+        try (FileOutputStream out = new FileOutputStream(file)) {
+            FileChannel ch = out.getChannel();
+            while (src.hasRemaining()) ch.write(src);
+        }
+    }
+
+    /** ファイルを read-only でマップして HapticTimeline として返す */
+    public static HapticTimeline map(File file) throws IOException {
+        try (RandomAccessFile raf = new RandomAccessFile(file, "r");
+             FileChannel ch = raf.getChannel()) {
+            ByteBuffer b = ch.map(FileChannel.MapMode.READ_ONLY, 0, ch.size());
+            return HapticTimeline.wrap(b);
+        } catch (IllegalArgumentException e) {
+            throw new IOException("corrupt timeline: " + file, e);
+        }
+    }
+
+    private static int align4(int n) {
+        return (n + 3) & ~3;
+    }
+}
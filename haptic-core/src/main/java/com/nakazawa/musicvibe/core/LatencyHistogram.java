@@ -0,0 +1,87 @@
+package com.nakazawa.musicvibe.core;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * LatencyHistogram
+ * ──────────────────────────────────────────────────────────────
+ * ・レイテンシ（ns で受けて µs で数える）の固定バケット・ヒストグラム
+ *     0..31 µs は 1 µs 刻み，以降は 2 の冪ごとに SUB_BUCKETS 等分（相対誤差 ≦ 1/32）
+ *     上限（約 2^(MAX_EXPONENT+1) µs ≒ 16 s）を超えた値は最後のバケットに入れる
+ * ・record() は AtomicLongArray への加算だけ（ロック・確保なし）なので
+ *   解析スレッドや sink スレッドから同時に呼んでよい
+ * ・percentile() は走査時点の近似値（バケット上端）を返す
+ */
+public final class LatencyHistogram {
+
+    private static final int SUB_BITS     = 5;
+    private static final int SUB_BUCKETS  = 1 << SUB_BITS;          // 32
+    private static final int MAX_EXPONENT = 23;                     // 2^24 µs ≒ 16.7 s
+    private static final int BUCKETS      = (MAX_EXPONENT - SUB_BITS + 2) * SUB_BUCKETS;
+
+    private final AtomicLongArray counts = new AtomicLongArray(BUCKETS);
+    private final AtomicLong total  = new AtomicLong();
+    private final AtomicLong maxUs  = new AtomicLong();
+
+    /** 1 件記録する（負の値は 0 扱い） */
+    public void record(long nanos) {
+        long us = Math.max(0, nanos / 1000);
+        counts.incrementAndGet(indexOf(us));
+        total.incrementAndGet();
+        long m;
+        while (us > (m = maxUs.get())) {
+            if (maxUs.compareAndSet(m, us)) break;
+        }
+    }
+
+    public long count() { return total.get(); }
+    public long maxMicros() { return maxUs.get(); }
+
+    /**
+     * @param p 0..100
+     * @return p パーセンタイルの近似値（µs，バケット上端）。記録が無ければ 0
+     */
+    public long percentileMicros(double p) {
+        long n = total.get();
+        if (n == 0) return 0;
+        long rank = Math.max(1, (long) Math.ceil(n * p / 100.0));
+        long seen = 0;
+        for (int i = 0; i < BUCKETS; i++) {
+            seen += counts.get(i);
+            if (seen >= rank) return Math.min(upperBoundOf(i), maxUs.get());
+        }
+        return maxUs.get();
+    }
+
+    public void reset() {
+        for (int i = 0; i < BUCKETS; i++) counts.set(i, 0);
+        total.set(0);
+        maxUs.set(0);
+    }
+
+    @Override
+    public String toString() {
+        return String.format(java.util.Locale.US, "p50 %.2f / p95 %.2f / p99 %.2f ms (n=%d)",
+                percentileMicros(50) / 1e3, percentileMicros(95) / 1e3,
+                percentileMicros(99) / 1e3, count());
+    }
+
+    /*==== バケット計算 ================================================*/
+    static int indexOf(long us) {
+        if (us < SUB_BUCKETS) return (int) us;
+        int e = 63 - Long.numberOfLeadingZeros(us);   // 最上位ビット位置（≧ SUB_BITS）
+        if (e > MAX_EXPONENT) return BUCKETS - 1;
+        int sub = (int) (us >>> (e - SUB_BITS)) - SUB_BUCKETS;   // 0..31
+        return (e - SUB_BITS + 1) * SUB_BUCKETS + sub;
+    }
+
+    /** バケット i に入る最大値(µs) */
+    static long upperBoundOf(int i) {
+        if (i < SUB_BUCKETS) return i;
+        int e   = i / SUB_BUCKETS + SUB_BITS - 1;
+        int sub = i % SUB_BUCKETS;
+        long lower = (long) (SUB_BUCKETS + sub) << (e - SUB_BITS);
+        return lower + (1L << (e - SUB_BITS)) - 1;
+    }
+}
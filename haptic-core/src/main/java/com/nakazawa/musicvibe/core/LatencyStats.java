@@ -0,0 +1,52 @@
+package com.nakazawa.musicvibe.core;
+
+/**
+ * LatencyStats
+ * ──────────────────────────────────────────────────────────────
+ * ・音声 → 振動の段階ごとのレイテンシ（LatencyHistogram の組）
+ *     CAPTURE    … 音声が取り込まれた時刻 → read() が返った時刻
+ *     QUEUE      … read() が返った時刻 → そのフレームの解析開始
+ *     ANALYSIS   … 解析開始 → 振動の判定が出るまで
+ *     IPC        … vibrate / cancel の呼び出しにかかった時間
+ *     END_TO_END … 音声が取り込まれた時刻 → vibrate / cancel が返った時刻
+ * ・時刻はすべて System.nanoTime()（CLOCK_MONOTONIC）基準
+ */
+public final class LatencyStats {
+
+    public static final int CAPTURE    = 0;
+    public static final int QUEUE      = 1;
+    public static final int ANALYSIS   = 2;
+    public static final int IPC        = 3;
+    public static final int END_TO_END = 4;
+    public static final int STAGES     = 5;
+
+    private static final String[] NAMES = {"capture", "queue", "analysis", "ipc", "end-to-end"};
+
+    private final LatencyHistogram[] stages = new LatencyHistogram[STAGES];
+
+    public LatencyStats() {
+        for (int i = 0; i < STAGES; i++) stages[i] = new LatencyHistogram();
+    }
+
+    public void record(int stage, long nanos) { stages[stage].record(nanos); }
+
+    public LatencyHistogram get(int stage) { return stages[stage]; }
+
+    public static String nameOf(int stage) { return NAMES[stage]; }
+
+    public void reset() {
+        for (LatencyHistogram h : stages) h.reset();
+    }
+
+    /** 記録のある段階を 1 行ずつ */
+    @Override
+    public String toString() {
+        StringBuilder sb = new StringBuilder();
+        for (int i = 0; i < STAGES; i++) {
+            if (stages[i].count() == 0) continue;
+            if (sb.length() > 0) sb.append('\n');
+            sb.append(NAMES[i]).append(": ").append(stages[i]);
+        }
+        return sb.toString();
+    }
+}
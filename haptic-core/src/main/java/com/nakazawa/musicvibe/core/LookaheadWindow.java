@@ -0,0 +1,92 @@
+package com.nakazawa.musicvibe.core;
+
+/**
+ * LookaheadWindow
+ * ──────────────────────────────────────────────────────────────
+ * ・解析済みフレームの振幅を「聞こえる時刻（presentation time）」付きで溜める先読み窓
+ *     解析側（デコード直後の PCM）… push(presentNs, durationNs, amplitude)
+ *     振動側 … fill(fromNs, stepNs, out, n) で fromNs から stepNs 刻みの振幅列を取り出し，
+ *              WaveformBatcher に「今から先」として渡す
+ * ・固定長リング（capacity フレーム）なので先読み量によらずメモリは一定。
+ *   溢れたら最も古いフレームを捨て，fill() の時刻より前に終わったフレームも捨てる
+ * ・フレームは時刻順に並べる（前のフレームの終わりより前に置かれたものは詰める）。
+ *   シーク・不連続では flush() で空にする
+ * ・解析スレッドと振動スレッドから呼ばれるので synchronized
+ */
+public final class LookaheadWindow {
+
+    private final long[] start;
+    private final long[] end;
+    private final int[]  amp;
+    private int  head, size;
+    private long dropped;
+
+    public LookaheadWindow(int capacityFrames) {
+        if (capacityFrames <= 0) throw new IllegalArgumentException("capacity must be > 0");
+        this.start = new long[capacityFrames];
+        this.end   = new long[capacityFrames];
+        this.amp   = new int[capacityFrames];
+    }
+
+    /**
+     * 解析済みフレームを 1 つ追加する。
+     * @param presentNs  フレーム先頭が聞こえる時刻（System.nanoTime 基準）
+     * @param durationNs フレームの長さ
+     * @param amplitude  振幅 0..255（0 = 止める）
+     */
+    public synchronized void push(long presentNs, long durationNs, int amplitude) {
+        if (durationNs <= 0) return;
+        if (size > 0) {
+            long lastEnd = end[(head + size - 1) % start.length];
+            if (presentNs < lastEnd) presentNs = lastEnd;   // 見積もりの揺れで重なった分は詰める
+        }
+        if (size == start.length) {
+            head = (head + 1) % start.length;
+            size--;
+            dropped++;
+        }
+        int tail = (head + size) % start.length;
+        start[tail] = presentNs;
+        end[tail]   = presentNs + durationNs;
+        amp[tail]   = amplitude;
+        size++;
+    }
+
+    /**
+     * fromNs から stepNs 刻みで n 個の振幅を out に詰める。
+     * 窓の終わり（まだ解析されていない先）で打ち切り，その手前までの個数を返す。
+     * フレームの隙間は 0。fromNs より前に終わったフレームはここで捨てる。
+     */
+    public synchronized int fill(long fromNs, long stepNs, int[] out, int n) {
+        while (size > 0 && end[head] <= fromNs) {
+            head = (head + 1) % start.length;
+            size--;
+        }
+        if (size == 0) return 0;
+        long horizon = end[(head + size - 1) % start.length];
+        int k = 0;           // 走査中のフレーム（head からの相対）
+        int count = 0;
+        for (int i = 0; i < n; i++) {
+            long t = fromNs + i * stepNs;
+            if (t >= horizon) break;
+            while (k < size && end[(head + k) % start.length] <= t) k++;
+            int idx = (head + k) % start.length;
+            out[i] = (k < size && start[idx] <= t) ? amp[idx] : 0;
+            count++;
+        }
+        return count;
+    }
+
+    /** 溜まっているフレームを全て捨てる（シーク・不連続） */
+    public synchronized void flush() {
+        head = size = 0;
+    }
+
+    public synchronized int  size()       { return size; }
+    public synchronized long getDropped() { return dropped; }
+
+    /** 先読みできている時刻（最後のフレームの終わり。空なら Long.MIN_VALUE） */
+    public synchronized long horizonNs() {
+        return (size == 0) ? Long.MIN_VALUE : end[(head + size - 1) % start.length];
+    }
+}
@@ -0,0 +1,127 @@
+package com.nakazawa.musicvibe.core;
+
+import java.io.PrintWriter;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * MetricsRegistry
+ * ──────────────────────────────────────────────────────────────
+ * ・実行中の運用カウンタの置き場（dumpsys / Binder 向け）
+ *     Counter … 単調増加（AtomicLong）
+ *     Meter   … Counter ＋ 直近 1 秒の回数（毎秒いくつ）
+ *     Gauge   … 読んだ時点の値を返す関数（既存の統計を覗くだけ）
+ * ・登録はエンジン生成時に済ませ，更新側（解析スレッドなど）はロックなしで
+ *   inc / mark するだけ。読み出し側は登録順に snapshot() / dump() する
+ */
+public final class MetricsRegistry {
+
+    /** 読み出し時に評価される値 */
+    public interface Gauge {
+        double value();
+    }
+
+    public static class Counter {
+        private final AtomicLong count = new AtomicLong();
+
+        public void inc()        { count.incrementAndGet(); }
+        public void add(long n)  { count.addAndGet(n); }
+        public long get()        { return count.get(); }
+    }
+
+    /**
+     * 直近 1 秒の回数も持つ Counter。
+     * 秒の切り替わりで複数スレッドが競合すると 1 秒分の値が多少ずれるが，
+     * 運用向けの目安としては十分なのでロックは取らない。
+     */
+    public static final class Meter extends Counter {
+        private final AtomicLong current = new AtomicLong();
+        private volatile long currentSecond = Long.MIN_VALUE;
+        private volatile long lastSecondCount;
+
+        public void mark(long nowNanos) {
+            inc();
+            long sec = nowNanos / 1_000_000_000L;
+            long cur = currentSecond;
+            if (sec != cur) {
+                long prev = current.getAndSet(0);
+                lastSecondCount = (sec == cur + 1) ? prev : 0;
+                currentSecond = sec;
+            }
+            current.incrementAndGet();
+        }
+
+        /** 直近の 1 秒で数えた回数（1 秒以上 mark が無ければ 0） */
+        public long perSecond(long nowNanos) {
+            long sec = nowNanos / 1_000_000_000L;
+            long cur = currentSecond;
+            if (sec == cur)     return lastSecondCount;
+            if (sec == cur + 1) return current.get();
+            return 0;
+        }
+    }
+
+    private static final class Entry {
+        final String  name;
+        final Counter counter;   // どちらか一方
+        final Gauge   gauge;
+
+        Entry(String name, Counter counter, Gauge gauge) {
+            this.name    = name;
+            this.counter = counter;
+            this.gauge   = gauge;
+        }
+    }
+
+    private final CopyOnWriteArrayList<Entry> entries = new CopyOnWriteArrayList<>();
+
+    /*==== 登録（生成時） ==============================================*/
+    public Counter counter(String name) {
+        Counter c = new Counter();
+        entries.add(new Entry(name, c, null));
+        return c;
+    }
+
+    /** name（累計）と name + "/s"（直近 1 秒）の 2 つとして出る */
+    public Meter meter(String name) {
+        Meter m = new Meter();
+        entries.add(new Entry(name, m, null));
+        return m;
+    }
+
+    public void gauge(String name, Gauge gauge) {
+        entries.add(new Entry(name, null, gauge));
+    }
+
+    /*==== 読み出し ====================================================*/
+    /** 登録順のスナップショット（値は Long か Double） */
+    public Map<String, Number> snapshot() {
+        long now = System.nanoTime();
+        Map<String, Number> out = new LinkedHashMap<>();
+        for (Entry e : entries) {
+            if (e.gauge != null) {
+                out.put(e.name, e.gauge.value());
+            } else {
+                out.put(e.name, e.counter.get());
+                if (e.counter instanceof Meter) {
+                    out.put(e.name + "/s", ((Meter) e.counter).perSecond(now));
+                }
+            }
+        }
+        return out;
+    }
+
+    /** dumpsys 向けに 1 行 1 項目で書く */
+    public void dump(PrintWriter pw, String prefix) {
+        for (Map.Entry<String, Number> e : snapshot().entrySet()) {
+            Number v = e.getValue();
+            pw.print(prefix);
+            pw.print(e.getKey());
+            pw.print(" = ");
+            if (v instanceof Double) pw.println(String.format(java.util.Locale.US, "%.3f", v.doubleValue()));
+            else                     pw.println(v);
+        }
+    }
+}
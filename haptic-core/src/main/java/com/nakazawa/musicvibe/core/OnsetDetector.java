@@ -0,0 +1,132 @@
+package com.nakazawa.musicvibe.core;
+
+/**
+ * OnsetDetector
+ * ──────────────────────────────────────────────────────────────
+ * ・スペクトルフラックスによる立ち上がり（オンセット）検出（Android 非依存）
+ *     帯域ごとに log(1 + |X|) の正の差分を合計 → フラックス
+ *     直近 history フレームの MEAN_GAIN × 平均 + sensitivity × 標準偏差 をしきい値にし，
+ *     超えたフレームをオンセットとする（帯域ごとに不応期あり）
+ * ・帯域は kick（低域）/ snare（中域）/ hat（高域）の 3 つ
+ * ・process() はオンセットのあった帯域のビットマスクを返す
+ * ・1 スレッドから使う。配列は生成時・ビン数が変わった時だけ確保する
+ */
+public final class OnsetDetector {
+
+    /*==== 帯域 ========================================================*/
+    public static final int BAND_KICK  = 0;
+    public static final int BAND_SNARE = 1;
+    public static final int BAND_HAT   = 2;
+    public static final int BANDS      = 3;
+
+    public static final double KICK_EDGE_HZ = 200.0;   // kick / snare 境界
+    public static final double HAT_EDGE_HZ  = 5000.0;  // snare / hat 境界
+
+    /*==== 既定値 ======================================================*/
+    public static final int    DEFAULT_HISTORY       = 16;   // しきい値の窓（フレーム）
+    public static final double DEFAULT_SENSITIVITY   = 1.5;  // 標準偏差の何倍を超えたら立ち上がりか
+    public static final long   DEFAULT_REFRACTORY_MS = 90;   // 同じ帯域の連続検出を抑える
+    private static final double MEAN_GAIN            = 1.3;  // 定常音の揺らぎで立たないよう平均に掛ける
+    private static final double MIN_FLUX             = 0.1;  // ビンあたりの最小上昇量（log）。ビン数の少ない帯域の揺らぎよけ
+
+    private final double kickEdgeHz, hatEdgeHz, sensitivity;
+    private final long   refractoryMs;
+
+    private float[] prevLog = new float[0];
+    private boolean hasPrev = false;
+
+    private final double[][] history;     // [band][HISTORY] リング
+    private int  histPos, histCount;
+    private final long[]   lastOnsetMs = new long[BANDS];
+    private final double[] flux        = new double[BANDS];
+    private final float[]  strength    = new float[BANDS];
+
+    public OnsetDetector() {
+        this(KICK_EDGE_HZ, HAT_EDGE_HZ, DEFAULT_HISTORY, DEFAULT_SENSITIVITY, DEFAULT_REFRACTORY_MS);
+    }
+
+    public OnsetDetector(double kickEdgeHz, double hatEdgeHz, int historyFrames,
+                         double sensitivity, long refractoryMs) {
+        if (historyFrames < 2) throw new IllegalArgumentException("historyFrames must be >= 2");
+        this.kickEdgeHz   = kickEdgeHz;
+        this.hatEdgeHz    = hatEdgeHz;
+        this.sensitivity  = sensitivity;
+        this.refractoryMs = refractoryMs;
+        this.history      = new double[BANDS][historyFrames];
+        for (int b = 0; b < BANDS; b++) lastOnsetMs[b] = Long.MIN_VALUE / 2;
+    }
+
+    /**
+     * 1 フレーム分の振幅スペクトルを処理する。
+     * @param mag   mag[0, len) 線形振幅（bin i の中心 = i × binHz）
+     * @param binHz 1 ビンの幅(Hz)
+     * @param nowMs 単調増加の時刻（不応期の判定に使う）
+     * @return オンセットのあった帯域のビットマスク（1 << BAND_*）
+     */
+    public int process(float[] mag, int len, double binHz, long nowMs) {
+        if (prevLog.length != len) {
+            prevLog = new float[len];
+            hasPrev = false;
+        }
+        int kickEnd = Math.min(len, (int) (kickEdgeHz / binHz));
+        int hatBeg  = Math.min(len, Math.max(kickEnd, (int) (hatEdgeHz / binHz)));
+
+        // 1) 帯域ごとのスペクトルフラックス（正の差分のみ）
+        flux[0] = flux[1] = flux[2] = 0;
+        for (int i = 0; i < len; i++) {
+            float l = (float) Math.log1p(mag[i]);
+            float d = l - prevLog[i];
+            prevLog[i] = l;
+            if (d <= 0) continue;
+            if      (i < kickEnd) flux[BAND_KICK]  += d;
+            else if (i < hatBeg)  flux[BAND_SNARE] += d;
+            else                  flux[BAND_HAT]   += d;
+        }
+        if (!hasPrev) {
+            hasPrev = true;   // 初回は差分が取れない
+            return 0;
+        }
+
+        // 2) 適応しきい値と比較（窓が半分埋まるまでは学習のみ）
+        int mask = 0;
+        int window = history[0].length;
+        for (int b = 0; b < BANDS; b++) {
+            strength[b] = 0f;
+            int width = (b == BAND_KICK) ? kickEnd : (b == BAND_SNARE) ? hatBeg - kickEnd : len - hatBeg;
+            if (histCount < window / 2 || width == 0) continue;
+            double mean = 0, sq = 0;
+            for (int k = 0; k < histCount; k++) {
+                double v = history[b][k];
+                mean += v;
+                sq   += v * v;
+            }
+            mean /= histCount;
+            double sd        = Math.sqrt(Math.max(0, sq / histCount - mean * mean));
+            double threshold = MEAN_GAIN * mean + sensitivity * sd + MIN_FLUX * width;
+            if (flux[b] > threshold && nowMs - lastOnsetMs[b] >= refractoryMs) {
+                mask |= 1 << b;
+                lastOnsetMs[b] = nowMs;
+                strength[b] = (float) Math.min(1.0, flux[b] / (2 * threshold));
+            }
+        }
+
+        // 3) 履歴へ追加
+        for (int b = 0; b < BANDS; b++) history[b][histPos] = flux[b];
+        histPos = (histPos + 1) % window;
+        if (histCount < window) histCount++;
+        return mask;
+    }
+
+    /** 状態を捨てる（シーク・曲替わり） */
+    public void reset() {
+        hasPrev   = false;
+        histPos   = 0;
+        histCount = 0;
+        for (int b = 0; b < BANDS; b++) lastOnsetMs[b] = Long.MIN_VALUE / 2;
+    }
+
+    /** 直近フレームのフラックス */
+    public double getFlux(int band)     { return flux[band]; }
+    /** 直近フレームで検出した帯域の強さ 0.5..1（しきい値の 2 倍で 1，未検出は 0） */
+    public float  getStrength(int band) { return strength[band]; }
+}
@@ -0,0 +1,138 @@
+package com.nakazawa.musicvibe.core;
+
+import org.jtransforms.fft.FloatFFT_1D;
+
+import java.nio.FloatBuffer;
+import java.util.Arrays;
+
+/**
+ * OnsetSignalPath
+ * ──────────────────────────────────────────────────────────────
+ * ・BackGround / PCM タップの解析フレームからオンセットとテンポを求める
+ *     Hann 窓 → 実 FFT（JTransforms）→ 振幅スペクトル
+ *     → OnsetDetector（帯域ごとのスペクトルフラックス）
+ *     → kick + snare の強さを TempoTracker へ
+ * ・FFT 長はフレーム長以上の 2 のべき乗（0 詰め）。間引き後の 102 サンプルも 128 点で回す
+ *   （JTransforms は 2 のべき乗以外だと呼び出しごとに作業配列を確保するため）
+ * ・振幅は Visualizer の 8bit FFT と同じ目安（フルスケールの正弦波で MAG_FULL_SCALE）に揃え，
+ *   OnsetDetector のしきい値をそのまま使う
+ * ・snare / hat の境界はサンプルレートで頭打ち（HAT_EDGE_RATIO × レート）。
+ *   間引き後（4.41 kHz）は snare 200..1544 Hz，hat 1544 Hz..ナイキストで見る
+ * ・時刻は呼び出し側が決める（PCM タップなら「聞こえる時刻」）。テンポの拍も同じ時刻系
+ * ・確保は生成時とフレーム長・サンプルレートが変わった時だけ。process() 系は単一スレッドから
+ */
+public final class OnsetSignalPath {
+
+    public static final double MAG_FULL_SCALE = 128.0;   // フルスケール正弦波のピークビン
+    public static final double HAT_EDGE_RATIO = 0.35;    // snare / hat 境界の上限（× サンプルレート）
+    private static final int   HISTORY_FRAMES = 32;      // しきい値の窓（23 ms フレームで約 0.75 s）
+
+    private int sampleRate;
+    private OnsetDetector onsets;
+    private final TempoTracker tempo = new TempoTracker();
+    private int onsetMask;
+
+    private int         frameLen = -1;
+    private int         fftSize;
+    private FloatFFT_1D fft;
+    private float[]     work;       // 窓掛け済みフレーム + 0 詰め → FFT 出力
+    private float[]     window;
+    private float[]     mag;
+    private float       magScale;
+
+    public OnsetSignalPath(int sampleRate) {
+        if (sampleRate <= 0) throw new IllegalArgumentException("sampleRate must be > 0");
+        this.sampleRate = sampleRate;
+        this.onsets     = detectorFor(sampleRate);
+    }
+
+    /*==== 入力 ========================================================*/
+    /**
+     * 16bit PCM pcm[0, len) を 1 フレームとして解析する。
+     * @param nowMs フレームの時刻（単調増加。不応期とテンポの時間軸）
+     * @return オンセットのあった帯域のビットマスク（1 << OnsetDetector.BAND_*）
+     */
+    public int process(short[] pcm, int len, long nowMs) {
+        prepare(len);
+        for (int i = 0; i < len; i++) work[i] = pcm[i] * window[i] * (1f / 32768f);
+        return analyse(nowMs);
+    }
+
+    /** float PCM（-1..1）を position から len 個，絶対位置で読んで解析する（position は動かさない） */
+    public int process(FloatBuffer pcm, int len, long nowMs) {
+        prepare(len);
+        int p = pcm.position();
+        for (int i = 0; i < len; i++) work[i] = pcm.get(p + i) * window[i];
+        return analyse(nowMs);
+    }
+
+    /*==== 設定 ========================================================*/
+    /** 入力のサンプルレートを変える（process() と同じスレッドから）。オンセットの状態は捨てる */
+    public void setSampleRate(int sampleRate) {
+        if (sampleRate <= 0) throw new IllegalArgumentException("sampleRate must be > 0");
+        if (sampleRate == this.sampleRate) return;
+        this.sampleRate = sampleRate;
+        this.onsets     = detectorFor(sampleRate);
+    }
+
+    public int getSampleRate() { return sampleRate; }
+
+    /** オンセットとテンポの状態を捨てる（シーク・曲替わり。process() と同じスレッドから） */
+    public void reset() {
+        onsets.reset();
+        tempo.reset();
+        onsetMask = 0;
+    }
+
+    /*==== 状態参照 ====================================================*/
+    /** 直近フレームのオンセット（1 << OnsetDetector.BAND_*） */
+    public int   getOnsets()                { return onsetMask; }
+    public float getOnsetStrength(int band) { return onsets.getStrength(band); }
+    /** テンポ・拍位相の推定（process と同じスレッドから読む） */
+    public TempoTracker getTempo()          { return tempo; }
+
+    /*==== 内部処理 ====================================================*/
+    private int analyse(long nowMs) {
+        Arrays.fill(work, frameLen, fftSize, 0f);
+        fft.realForward(work);
+
+        // JTransforms の実 FFT 出力: a[0]=Re[0], a[1]=Re[n/2], a[2k]/a[2k+1]=Re/Im[k]
+        int bins = fftSize / 2;
+        mag[0] = Math.abs(work[0]) * magScale;
+        for (int k = 1; k < bins; k++) {
+            float re = work[2 * k], im = work[2 * k + 1];
+            mag[k] = (float) Math.sqrt(re * re + im * im) * magScale;
+        }
+        onsetMask = onsets.process(mag, bins, (double) sampleRate / fftSize, nowMs);
+        tempo.addFrame(nowMs, onsets.getStrength(OnsetDetector.BAND_KICK)
+                            + onsets.getStrength(OnsetDetector.BAND_SNARE));
+        return onsetMask;
+    }
+
+    private void prepare(int len) {
+        if (len == frameLen) return;
+        if (len < 2) throw new IllegalArgumentException("frame length must be >= 2: " + len);
+        int n = Integer.highestOneBit(len);
+        if (n < len) n <<= 1;
+        frameLen = len;
+        fftSize  = n;
+        fft      = new FloatFFT_1D(n);
+        work     = new float[n];
+        window   = new float[len];
+        mag      = new float[n / 2];
+        double sum = 0;
+        for (int i = 0; i < len; i++) {
+            // Hann 窓（periodic）
+            window[i] = (float) (0.5 - 0.5 * Math.cos(2 * Math.PI * i / len));
+            sum += window[i];
+        }
+        // 振幅 A の正弦波のピークビンは A·Σw/2
+        magScale = (float) (MAG_FULL_SCALE * 2 / sum);
+    }
+
+    private static OnsetDetector detectorFor(int sampleRate) {
+        double hatEdge = Math.min(OnsetDetector.HAT_EDGE_HZ, HAT_EDGE_RATIO * sampleRate);
+        return new OnsetDetector(OnsetDetector.KICK_EDGE_HZ, hatEdge, HISTORY_FRAMES,
+                OnsetDetector.DEFAULT_SENSITIVITY, OnsetDetector.DEFAULT_REFRACTORY_MS);
+    }
+}
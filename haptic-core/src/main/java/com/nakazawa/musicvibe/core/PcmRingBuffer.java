@@ -0,0 +1,139 @@
+package com.nakazawa.musicvibe.core;
+
+import java.nio.ByteBuffer;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * PcmRingBuffer
+ * ──────────────────────────────────────────────────────────────
+ * ・キャプチャスレッド（書き込み 1 本）→ 解析スレッド（読み出し 1 本）の
+ *   PCM 受け渡し用リングバッファ（SPSC）
+ * ・容量は 2 のべき乗に切り上げて事前確保し，チャンク毎の確保は行わない
+ * ・空きが足りなければ古い側を捨てて（読み出し位置を進めて）新しいサンプルを入れる。
+ *   解析が詰まっても溜まるのは最新の capacity サンプルまでなので，遅れはそれ以上に伸びない
+ * ・捨てたサンプル数は overflow に，フレームが揃わない読み出しは underrun に計上する
+ * ・読み出し位置は producer も（捨てるときだけ）進めるので CAS で更新する。
+ *   consumer はコピーの後に CAS し，その間に捨てられていたら読み直す
+ */
+public final class PcmRingBuffer {
+
+    private final short[] data;
+    private final int     mask;
+
+    // 書き込み位置は producer のみ。読み出し位置は consumer と，溢れたときの producer が進める
+    private final AtomicLong writePos = new AtomicLong();
+    private final AtomicLong readPos  = new AtomicLong();
+
+    private final AtomicLong overflowSamples = new AtomicLong();
+    private final AtomicLong underrunCount   = new AtomicLong();
+
+    public PcmRingBuffer(int minCapacity) {
+        if (minCapacity <= 0) throw new IllegalArgumentException("capacity must be > 0");
+        int cap = Integer.highestOneBit(minCapacity);
+        if (cap < minCapacity) cap <<= 1;
+        data = new short[cap];
+        mask = cap - 1;
+    }
+
+    /*==== Producer 側 =================================================*/
+
+    /**
+     * src[off, off+len) を書き込む。入り切らなければ古いサンプルを捨てて overflow に加算
+     * （len が容量を超えるときは末尾の capacity サンプルだけを書く）。
+     * @return 実際に書き込んだサンプル数
+     */
+    public int write(short[] src, int off, int len) {
+        if (len > data.length) {
+            overflowSamples.addAndGet(len - data.length);
+            off += len - data.length;
+            len = data.length;
+        }
+        if (len <= 0) return 0;
+        long w = writePos.get();
+        dropOldest(w + len - data.length);
+
+        int start = (int) (w & mask);
+        int first = Math.min(len, data.length - start);
+        System.arraycopy(src, off, data, start, first);
+        if (first < len) System.arraycopy(src, off + first, data, 0, len - first);
+        writePos.lazySet(w + len);
+        return len;
+    }
+
+    /**
+     * 16bit インターリーブ PCM（src の position..limit）をモノラルへ平均しながら直接書き込む。
+     * src の position は動かさない（中間配列へのコピーなし）。入り切らなければ古い側を捨てる
+     * （容量を超えるぶんは src の先頭側を読み飛ばす）。
+     * @return 実際に書き込んだフレーム数
+     */
+    public int write(ByteBuffer src, int channels) {
+        if (channels <= 0) throw new IllegalArgumentException("channels must be > 0");
+        int frames = src.remaining() / (2 * channels);
+        int p = src.position();
+        if (frames > data.length) {
+            overflowSamples.addAndGet(frames - data.length);
+            p += (frames - data.length) * 2 * channels;
+            frames = data.length;
+        }
+        if (frames <= 0) return 0;
+        long w = writePos.get();
+        dropOldest(w + frames - data.length);
+
+        if (channels == 1) {
+            for (int i = 0; i < frames; i++, p += 2) data[(int) ((w + i) & mask)] = src.getShort(p);
+        } else {
+            for (int i = 0; i < frames; i++) {
+                int acc = 0;
+                for (int c = 0; c < channels; c++, p += 2) acc += src.getShort(p);
+                data[(int) ((w + i) & mask)] = (short) (acc / channels);
+            }
+        }
+        writePos.lazySet(w + frames);
+        return frames;
+    }
+
+    /** 読み出し位置を minRead まで進めて（捨てて）から書く。consumer と競合したら取り直す */
+    private void dropOldest(long minRead) {
+        for (;;) {
+            long r = readPos.get();
+            if (r >= minRead) return;
+            if (readPos.compareAndSet(r, minRead)) {
+                overflowSamples.addAndGet(minRead - r);
+                return;
+            }
+        }
+    }
+
+    /*==== Consumer 側 =================================================*/
+
+    /**
+     * dst.length サンプルちょうどを読み出す。揃っていなければ何もせず underrun。
+     * コピー中に producer が古い側を捨てたら，新しい読み出し位置から読み直す。
+     */
+    public boolean readFrame(short[] dst) {
+        int n = dst.length;
+        for (;;) {
+            long r = readPos.get();
+            if ((int) (writePos.get() - r) < n) {
+                underrunCount.incrementAndGet();
+                return false;
+            }
+            int start = (int) (r & mask);
+            int first = Math.min(n, data.length - start);
+            System.arraycopy(data, start, dst, 0, first);
+            if (first < n) System.arraycopy(data, 0, dst, first, n - first);
+            if (readPos.compareAndSet(r, r + n)) return true;
+        }
+    }
+
+    /** 溜まっている分を全て捨てる（consumer 側から呼ぶ） */
+    public void clear() {
+        readPos.set(writePos.get());
+    }
+
+    /*==== 統計 ========================================================*/
+    public int  available()          { return (int) (writePos.get() - readPos.get()); }
+    public int  capacity()           { return data.length; }
+    public long getOverflowSamples() { return overflowSamples.get(); }
+    public long getUnderrunCount()   { return underrunCount.get(); }
+}
@@ -0,0 +1,211 @@
+package com.nakazawa.musicvibe.core;
+
+import java.nio.ByteBuffer;
+import java.nio.FloatBuffer;
+import java.util.Arrays;
+
+/**
+ * PolyphaseDecimator
+ * ──────────────────────────────────────────────────────────────
+ * ・折り返し防止ローパス + 1/factor 間引きをストリームで行う（解析の前段）
+ *     44.1 kHz → factor 10 で 4.41 kHz。後段（帯域フィルタ・包絡・ゲート）が触るサンプルが 1/factor になる
+ * ・FIR（窓付き sinc，Blackman 窓，DC 利得 1，factor × tapsPerPhase タップ）を
+ *   出力する時刻にだけ評価する（polyphase 分解と同じ積和数）：
+ *     入力は履歴へ 1 回書くだけで，factor サンプルごとに全タップの内積を 1 回取る。
+ *     1 入力サンプルあたりの積和は tapsPerPhase 回（全タップを毎サンプル回す直接形の 1/factor）
+ *   履歴は 1 本の連続配列（端まで来たら直近 N - 1 サンプルを先頭へ寄せる）で，
+ *   内積は連続領域を部分和 4 本で回す（枝ごとのリングを辿らない）
+ * ・遮断（-6 dB）は出力ナイキストの CUTOFF_RATIO 倍。既定（24 タップ/位相）の遷移域は
+ *   出力ナイキストの 0.6〜1.0 倍で，出力ナイキストから上は阻止域（-75 dB 以下）。
+ *   factor 10 なら 1.5 kHz で -2 dB，1.8 kHz で -14 dB，2.0 kHz で -36 dB，2.2 kHz 以上 -75 dB 以下
+ *   （折り返しが上の帯域 1.5 kHz〜に入らない。タップを減らすと遷移域が出力ナイキストを越える）
+ * ・フィルタの状態はチャンクをまたいで持ち越す（チャンクの切り方によらず同じ出力）
+ * ・出力は frameLength サンプルずつまとめ，揃うたびに FrameSink へ渡す
+ *   （float，-1..1。16bit 入力は 1/32768 して入れる）。確保は生成時のみ
+ * ・process() / reset() は単一スレッドから呼ぶこと
+ */
+public final class PolyphaseDecimator {
+
+    /** 間引き後の 1 フレーム（処理スレッドから，process() の中で呼ばれる） */
+    public interface FrameSink {
+        /**
+         * @param frame      position 0，limit = フレーム長。内部配列の view なので呼び出し中に読み切ること
+         * @param inputAfter このフレームの最後の出力より後に，同じチャンクに残っている入力サンプル数
+         */
+        void onFrame(FloatBuffer frame, int inputAfter);
+    }
+
+    public static final int    DEFAULT_TAPS_PER_PHASE = 24;
+    private static final int   HISTORY_BLOCK = 4096;   // 履歴を先頭へ寄せるまでに溜める入力数（下限）
+    private static final double CUTOFF_RATIO = 0.75;
+
+    private final int       factor;
+    private final int       tapsPerPhase;
+    private final float[]   taps;      // 直接形の係数 h[k]（テスト・確認用）
+    private final float[]   rev;       // rev[i] = h[N - 1 - i]（古い順の履歴と同じ向き）
+    private final float[]   hist;      // 入力の履歴。hist[len - 1] が最新
+    private int len;                   // 履歴の有効長（常に N - 1 以上）
+    private int phase;                 // 入力サンプル番号 mod factor
+
+    private final float[]     frame;
+    private final FloatBuffer frameView;
+    private int fill;
+
+    /**
+     * @param factor       間引き率（1 でローパスのみ）
+     * @param tapsPerPhase 1 位相あたりのタップ数（全タップ数は factor × tapsPerPhase）
+     * @param frameLength  FrameSink へ渡す 1 フレームの出力サンプル数
+     */
+    public PolyphaseDecimator(int factor, int tapsPerPhase, int frameLength) {
+        if (factor < 1)       throw new IllegalArgumentException("factor must be >= 1");
+        if (tapsPerPhase < 1) throw new IllegalArgumentException("tapsPerPhase must be >= 1");
+        if (frameLength < 1)  throw new IllegalArgumentException("frameLength must be >= 1");
+        this.factor       = factor;
+        this.tapsPerPhase = tapsPerPhase;
+        this.taps         = design(factor, factor * tapsPerPhase);
+        int n = taps.length;
+        this.rev  = new float[n];
+        for (int i = 0; i < n; i++) rev[i] = taps[n - 1 - i];
+        this.hist = new float[(n - 1) + Math.max(HISTORY_BLOCK, 4 * n)];
+        this.len  = n - 1;                 // 始めは 0 の履歴
+        this.frame     = new float[frameLength];
+        this.frameView = FloatBuffer.wrap(frame);
+    }
+
+    public PolyphaseDecimator(int factor, int frameLength) {
+        this(factor, DEFAULT_TAPS_PER_PHASE, frameLength);
+    }
+
+    /**
+     * 間引き後も 1 フレームの長さ（時間）が FRAME_SAMPLES 相当になる出力サンプル数（偶数）。
+     * factor 10 なら 102（@4.41 kHz で 23 ms，44.1 kHz × 1024 と同じ）
+     */
+    public static int frameLengthFor(int factor) {
+        return Math.max(2, (BackgroundSignalPath.FRAME_SAMPLES / factor) & ~1);
+    }
+
+    /*==== 入力 ========================================================*/
+    /** 16bit PCM in[off, off + len) を流す。揃ったフレーム数を返す */
+    public int process(short[] in, int off, int len, FrameSink sink) {
+        int frames = 0;
+        for (int i = 0; i < len; i++) {
+            if (push(in[off + i] * (1f / 32768f))) {
+                frames++;
+                emit(sink, len - 1 - i);
+            }
+        }
+        return frames;
+    }
+
+    /** float PCM（-1..1）を position から len 個，絶対位置で流す（position は動かさない） */
+    public int process(FloatBuffer in, int len, FrameSink sink) {
+        int p = in.position();
+        int frames = 0;
+        for (int i = 0; i < len; i++) {
+            if (push(in.get(p + i))) {
+                frames++;
+                emit(sink, len - 1 - i);
+            }
+        }
+        return frames;
+    }
+
+    /**
+     * 16bit インターリーブ PCM の position..limit を絶対位置で読み，モノラルへ平均しながら流す
+     * （position は動かさない）
+     */
+    public int process(ByteBuffer in, int channels, FrameSink sink) {
+        if (channels <= 0) throw new IllegalArgumentException("channels must be > 0");
+        int n = in.remaining() / (2 * channels);
+        float scale = 1f / (32768f * channels);
+        int p = in.position();
+        int frames = 0;
+        for (int i = 0; i < n; i++) {
+            int acc = 0;
+            for (int c = 0; c < channels; c++, p += 2) acc += in.getShort(p);
+            if (push(acc * scale)) {
+                frames++;
+                emit(sink, n - 1 - i);
+            }
+        }
+        return frames;
+    }
+
+    /** フィルタの状態と組み立て中のフレームを捨てる（シーク・レート変更時） */
+    public void reset() {
+        Arrays.fill(hist, 0, taps.length - 1, 0f);
+        len = taps.length - 1;
+        phase = 0;
+        fill = 0;
+    }
+
+    /*==== 設定・状態参照 ==============================================*/
+    public int getFactor()       { return factor; }
+    public int getTapsPerPhase() { return tapsPerPhase; }
+    public int getFrameLength()  { return frame.length; }
+
+    /** フィルタの群遅延（入力サンプル数）。出力の各サンプルはこれだけ古い入力を表す */
+    public double getDelaySamples() { return (taps.length - 1) / 2.0; }
+
+    /** 直接形の係数（コピー） */
+    float[] taps() { return taps.clone(); }
+
+    /*==== 内部処理 ====================================================*/
+    /**
+     * 1 サンプルを履歴へ入れ，出力時刻（入力 n = m·factor）ならフィルタ出力 y[m] をフレームに足す。
+     * フレームが揃ったら true。
+     */
+    private boolean push(float x) {
+        int n = len;
+        if (n == hist.length) {            // 端まで来た：直近 N - 1 サンプルを先頭へ
+            int keep = rev.length - 1;
+            System.arraycopy(hist, n - keep, hist, 0, keep);
+            n = keep;
+        }
+        hist[n++] = x;
+        len = n;
+        int c = phase;
+        phase = (c + 1 == factor) ? 0 : c + 1;
+        if (c != 0) return false;
+
+        // y[m] = Σ h[k]·x[n - k]：古い順に並んだ履歴と rev の内積（加算の待ちを 4 本に分ける）
+        float[] e = rev, h = hist;
+        int taps = e.length, from = n - taps, t4 = taps & ~3;
+        float a0 = 0, a1 = 0, a2 = 0, a3 = 0;
+        int i = 0;
+        for (; i < t4; i += 4) {
+            a0 += e[i]     * h[from + i];
+            a1 += e[i + 1] * h[from + i + 1];
+            a2 += e[i + 2] * h[from + i + 2];
+            a3 += e[i + 3] * h[from + i + 3];
+        }
+        for (; i < taps; i++) a0 += e[i] * h[from + i];
+        frame[fill++] = (a0 + a1) + (a2 + a3);
+        return fill == frame.length;
+    }
+
+    private void emit(FrameSink sink, int inputAfter) {
+        fill = 0;
+        frameView.clear();
+        sink.onFrame(frameView, inputAfter);
+    }
+
+    /** 窓付き sinc ローパス（Blackman，DC 利得 1） */
+    private static float[] design(int factor, int n) {
+        double fc = CUTOFF_RATIO * 0.5 / factor;      // 入力サンプルレート比
+        double mid = (n - 1) / 2.0;
+        double[] h = new double[n];
+        double sum = 0;
+        for (int k = 0; k < n; k++) {
+            double t = k - mid;
+            double sinc = (t == 0) ? 2 * fc : Math.sin(2 * Math.PI * fc * t) / (Math.PI * t);
+            double win = (n == 1) ? 1
+                    : 0.42 - 0.5 * Math.cos(2 * Math.PI * k / (n - 1)) + 0.08 * Math.cos(4 * Math.PI * k / (n - 1));
+            h[k] = sinc * win;
+            sum += h[k];
+        }
+        float[] out = new float[n];
+        for (int k = 0; k < n; k++) out[k] = (float) (h[k] / sum);
+        return out;
+    }
+}
@@ -0,0 +1,121 @@
+package com.nakazawa.musicvibe.core;
+
+/**
+ * PowerGovernor
+ * ──────────────────────────────────────────────────────────────
+ * ・無音が続いたら解析を間引く省電力の状態機械
+ *     ACTIVE … 全フレームを解析して振動させる
+ *     IDLE   … ゲートが閉じたまま idleAfter 経ったら入る。
+ *              probeInterval フレームに 1 回だけ解析し（ノイズ床の追従用），振動は出さない
+ * ・IDLE でも毎フレームのピーク |x|（帯域解析なし）だけは見て，ゲートを開け得る
+ *   レベル（wake level）を超えたフレームはその場で解析する。RMS ではなくピークなので，
+ *   フレームのごく一部だけのクリックでも取りこぼさない。
+ *   ゲートが開けば同じフレームから ACTIVE に戻る（復帰の遅れは 1 フレーム以内）
+ * ・状態ごとの滞在時間と解析・間引きフレーム数を数える（省電力効果の見積もり用）。
+ *   入力が途切れた間（MAX_GAP_NS 超）はどちらにも数えない
+ * ・更新は解析スレッドだけ。読み出し（get*）はどのスレッドからでもよい
+ */
+public final class PowerGovernor {
+
+    public static final int  ACTIVE = 0;
+    public static final int  IDLE   = 1;
+
+    public static final long DEFAULT_IDLE_AFTER_MS  = 5_000;
+    public static final int  DEFAULT_PROBE_INTERVAL = 8;    // 1024 サンプル × 8 ≒ 186 ms @44.1kHz
+    private static final long MAX_GAP_NS = 1_000_000_000L;
+
+    private final int probeInterval;
+    private volatile long idleAfterNs;
+
+    private volatile int state = ACTIVE;
+    private long silentSinceNs = Long.MIN_VALUE;   // ゲートが閉じた時刻（開いていれば MIN）
+    private int  sinceProbe;
+    private long lastNs = Long.MIN_VALUE;
+
+    private volatile long activeNs, idleNs;
+    private volatile long analysed, skipped, wakeups;
+
+    public PowerGovernor(long idleAfterMs, int probeInterval) {
+        if (probeInterval <= 0) throw new IllegalArgumentException("probeInterval must be > 0");
+        this.probeInterval = probeInterval;
+        setIdleAfterMs(idleAfterMs);
+    }
+
+    public PowerGovernor() {
+        this(DEFAULT_IDLE_AFTER_MS, DEFAULT_PROBE_INTERVAL);
+    }
+
+    /** 無音がこれだけ続いたら IDLE に入る（0 以下で省電力なし）。次のフレームから反映 */
+    public void setIdleAfterMs(long ms) {
+        idleAfterNs = (ms <= 0) ? Long.MAX_VALUE : ms * 1_000_000L;
+    }
+
+    /**
+     * フレームを解析するか決める（解析スレッド，毎フレーム）。
+     * @param level     フレームのピーク |x|（0..1）
+     * @param wakeLevel これ以上ならゲートが開き得る（IDLE でもその場で解析する）
+     */
+    public boolean shouldAnalyse(double level, double wakeLevel, long nowNs) {
+        account(nowNs);
+        if (state == ACTIVE || level >= wakeLevel || ++sinceProbe >= probeInterval) {
+            sinceProbe = 0;
+            analysed++;
+            return true;
+        }
+        skipped++;
+        return false;
+    }
+
+    /** 解析したフレームのゲート判定を入れる（shouldAnalyse が true の後に呼ぶ） */
+    public void onAnalysed(boolean gateOpen, long nowNs) {
+        if (gateOpen) {
+            silentSinceNs = Long.MIN_VALUE;
+            if (state == IDLE) {
+                state = ACTIVE;
+                wakeups++;
+            }
+            return;
+        }
+        if (silentSinceNs == Long.MIN_VALUE) silentSinceNs = nowNs;
+        if (state == ACTIVE && nowNs - silentSinceNs >= idleAfterNs) {
+            state = IDLE;
+            sinceProbe = 0;
+        }
+    }
+
+    /** 前回からの時間を今の状態に足す */
+    private void account(long nowNs) {
+        if (lastNs != Long.MIN_VALUE) {
+            long dt = nowNs - lastNs;
+            if (dt > 0 && dt <= MAX_GAP_NS) {
+                if (state == ACTIVE) activeNs += dt; else idleNs += dt;
+            }
+        }
+        lastNs = nowNs;
+    }
+
+    public int     getState() { return state; }
+    public boolean isActive() { return state == ACTIVE; }
+
+    /** 状態ごとの滞在時間（ns） */
+    public long getTimeNanos(int s) { return (s == ACTIVE) ? activeNs : idleNs; }
+
+    /** 滞在時間のうち IDLE の割合 0..1 */
+    public double getIdleRatio() {
+        long a = activeNs, i = idleNs;
+        return (a + i == 0) ? 0 : (double) i / (a + i);
+    }
+
+    public long getAnalysedFrames() { return analysed; }
+    public long getSkippedFrames()  { return skipped; }
+    /** IDLE → ACTIVE に戻った回数 */
+    public long getWakeups()        { return wakeups; }
+
+    @Override
+    public String toString() {
+        return String.format(java.util.Locale.US,
+                "PowerGovernor{%s, active %.1f s, idle %.1f s, analysed %d, skipped %d, wakeups %d}",
+                state == ACTIVE ? "ACTIVE" : "IDLE", activeNs / 1e9, idleNs / 1e9,
+                analysed, skipped, wakeups);
+    }
+}
@@ -0,0 +1,84 @@
+package com.nakazawa.musicvibe.core;
+
+/**
+ * StrategySwitch
+ * ──────────────────────────────────────────────────────────────
+ * ・動作中に差し替える部品（振動の出し方など）を 1 つ保持し，切り替えを原子的に反映する
+ *     要求側（UI など）… request(next) で保留に置くだけ（待たない）
+ *     反映側           … apply(next) で保留を反映する。Transition.apply(from, to) で
+ *                         古いほうの後始末と新しいほうの準備を 1 回だけ行う
+ *     使う側           … current() を見る。反映と使用を同じロックで囲めば，
+ *                         途中の状態（両方有効・両方無効）は見えない
+ * ・保留中に次の要求が来たら上書きする（途中の値は反映しない）。
+ *   要求時刻は最初の要求のまま（待たされた分も切り替えレイテンシに入る）
+ * ・要求から Transition が返るまでを切り替えレイテンシとして LatencyHistogram に記録する
+ */
+public final class StrategySwitch<T> {
+
+    /** 反映時に呼ばれる（from は初回 null） */
+    public interface Transition<T> {
+        void apply(T from, T to);
+    }
+
+    private final Transition<T> transition;
+    private final LatencyHistogram latency = new LatencyHistogram();
+
+    private volatile T active;
+    private T       pending;
+    private boolean hasPending;
+    private long    requestedNs;
+    private volatile long switches;
+    private volatile long lastNanos;
+
+    public StrategySwitch(Transition<T> transition) {
+        this.transition = transition;
+    }
+
+    /**
+     * 次に使うものを要求する。既に使っているものなら保留を取り消す。
+     * @return 反映が必要になった（呼び出し側は反映側スレッドを起こす）
+     */
+    public synchronized boolean request(T next) {
+        if (next == null) throw new IllegalArgumentException("next must not be null");
+        if (next == active) {
+            hasPending = false;
+            pending = null;
+            return false;
+        }
+        if (!hasPending) {
+            hasPending  = true;
+            requestedNs = System.nanoTime();
+        }
+        pending = next;
+        return true;
+    }
+
+    /** 保留中の要求（無ければ null）。重い準備を apply() の前に済ませる時に見る */
+    public synchronized T pending() { return hasPending ? pending : null; }
+
+    /**
+     * 保留が expected のままなら反映する。
+     * 準備の間に要求が変わっていたら何もせず false（呼び出し側は pending() から取り直す）。
+     */
+    public synchronized boolean apply(T expected) {
+        if (!hasPending || pending != expected) return false;
+        T from = active;
+        hasPending = false;
+        pending = null;
+        transition.apply(from, expected);
+        active = expected;
+        long ns = System.nanoTime() - requestedNs;
+        latency.record(ns);
+        lastNanos = ns;
+        switches++;
+        return true;
+    }
+
+    /** 今使っているもの（未反映なら null） */
+    public T current() { return active; }
+
+    public long getSwitchCount()      { return switches; }
+    /** 直近の切り替えレイテンシ（ns） */
+    public long getLastSwitchNanos()  { return lastNanos; }
+    public LatencyHistogram getLatency() { return latency; }
+}
@@ -0,0 +1,160 @@
+package com.nakazawa.musicvibe.core;
+
+/**
+ * TempoTracker
+ * ──────────────────────────────────────────────────────────────
+ * ・オンセット包絡からテンポと拍の位相を推定し，次の拍の時刻を予測する
+ *     包絡は GRID_MS 刻みの時間グリッド（リング）に置く
+ *     （呼び出し間隔が不揃いでも時刻で置くので構わない）
+ *     テンポ … minBpm..maxBpm の範囲で包絡の自己相関が最大になる周期
+ *     位相   … その周期のコムフィルタ（過去の拍位置の和）が最大になるずれ
+ * ・confidence（0..1）は最良周期での正規化自己相関を EMA でならしたもの。
+ *   LOCK_CONFIDENCE 未満なら予測は使わず，呼び出し側はリアクティブに戻す
+ * ・推定は ESTIMATE_INTERVAL_MS ごと。1 スレッドから使う
+ */
+public final class TempoTracker {
+
+    public static final int    GRID_MS              = 10;
+    public static final double DEFAULT_MIN_BPM      = 60;
+    public static final double DEFAULT_MAX_BPM      = 180;
+    public static final int    DEFAULT_HISTORY_MS   = 6000;
+    public static final double LOCK_CONFIDENCE      = 0.5;
+    private static final long  ESTIMATE_INTERVAL_MS = 200;
+    private static final double CONFIDENCE_ALPHA    = 0.3;
+    private static final int    SMOOTH_BINS         = 3;   // 三角窓の半幅（解析フレーム間隔の揺れを吸収）
+
+    private final int minLag, maxLag;       // グリッド単位
+    private final double[] env;             // 包絡リング
+    private final double[] smooth;          // 推定用の作業配列（時間順）
+    private long headBin  = Long.MIN_VALUE; // env の最新ビンの絶対番号
+    private int  filled;                    // 有効ビン数
+    private long lastEstimateMs = Long.MIN_VALUE / 2; // 引き算で溢れないよう半分
+
+    private int    periodBins  = 0;         // 0 = 未推定
+    private long   lastBeatBin = 0;
+    private double confidence  = 0;
+
+    public TempoTracker() {
+        this(DEFAULT_MIN_BPM, DEFAULT_MAX_BPM, DEFAULT_HISTORY_MS);
+    }
+
+    public TempoTracker(double minBpm, double maxBpm, int historyMs) {
+        this.maxLag = (int) Math.round(60_000.0 / minBpm / GRID_MS);
+        this.minLag = (int) Math.round(60_000.0 / maxBpm / GRID_MS);
+        int n = historyMs / GRID_MS;
+        if (n < 2 * maxLag) throw new IllegalArgumentException("history must cover two periods of minBpm");
+        this.env    = new double[n];
+        this.smooth = new double[n];
+    }
+
+    /**
+     * 1 フレーム分の包絡値を追加する（オンセットが無ければ 0 を渡す）。
+     * @param nowMs 単調増加の時刻
+     * @param onset オンセットの強さ（0 以上）
+     */
+    public void addFrame(long nowMs, double onset) {
+        long bin = nowMs / GRID_MS;
+        if (headBin == Long.MIN_VALUE) headBin = bin;
+        // 進んだぶんのビンをクリア
+        long steps = bin - headBin;
+        if (steps > 0) {
+            int clear = (int) Math.min(steps, env.length);
+            for (int i = 1; i <= clear; i++) env[idx(headBin + i)] = 0;
+            headBin = bin;
+            filled  = (int) Math.min(env.length, filled + steps);
+        }
+        if (onset > 0 && bin > headBin - env.length) env[idx(bin)] += onset;
+
+        if (nowMs - lastEstimateMs >= ESTIMATE_INTERVAL_MS) {
+            lastEstimateMs = nowMs;
+            estimate();
+        }
+    }
+
+    public void reset() {
+        java.util.Arrays.fill(env, 0);
+        headBin = Long.MIN_VALUE;
+        filled = 0;
+        periodBins = 0;
+        confidence = 0;
+        lastEstimateMs = Long.MIN_VALUE / 2;
+    }
+
+    /*==== 推定結果 ====================================================*/
+    public double  getConfidence()  { return confidence; }
+    public boolean isLocked()       { return periodBins > 0 && confidence >= LOCK_CONFIDENCE; }
+    public long    getPeriodMs()    { return (long) periodBins * GRID_MS; }
+    public double  getBpm()         { return (periodBins > 0) ? 60_000.0 / getPeriodMs() : 0; }
+
+    /** nowMs より後で最初の予測拍の時刻（未推定なら -1） */
+    public long nextBeatAfter(long nowMs) {
+        if (periodBins == 0) return -1;
+        long period = getPeriodMs();
+        long beat   = lastBeatBin * GRID_MS;
+        if (beat > nowMs) return beat;
+        long k = (nowMs - beat) / period + 1;
+        return beat + k * period;
+    }
+
+    /*==== 内部処理 ====================================================*/
+    private int idx(long bin) {
+        return (int) Math.floorMod(bin, (long) env.length);
+    }
+
+    private void estimate() {
+        int n = filled;
+        if (n < 2 * maxLag) return;
+
+        // 時間順に並べつつ ±SMOOTH_BINS の三角窓でならす
+        // （オンセットは解析フレームの境界でしか立たないので，その量子化の揺れを吸収）
+        long first = headBin - n + 1;
+        for (int i = 0; i < n; i++) {
+            double acc = 0;
+            for (int k = -SMOOTH_BINS; k <= SMOOTH_BINS; k++) {
+                int j = i + k;
+                if (j < 0 || j >= n) continue;
+                acc += env[idx(first + j)] * (SMOOTH_BINS + 1 - Math.abs(k));
+            }
+            smooth[i] = acc / (SMOOTH_BINS + 1);
+        }
+
+        // 1) 自己相関でテンポ
+        double r0 = 0;
+        for (int i = 0; i < n; i++) r0 += smooth[i] * smooth[i];
+        if (r0 <= 0) {
+            confidence *= 1 - CONFIDENCE_ALPHA;
+            return;
+        }
+        int bestLag = 0;
+        double best = 0;
+        for (int lag = minLag; lag <= maxLag; lag++) {
+            double acc = 0;
+            // 正規化しないので重なりの短い長周期（倍テンポの裏）はわずかに不利になる
+            for (int i = lag; i < n; i++) acc += smooth[i] * smooth[i - lag];
+            if (acc > best) {
+                best = acc;
+                bestLag = lag;
+            }
+        }
+        double c = Math.min(1.0, best / r0);
+        if (periodBins != 0 && Math.abs(bestLag - periodBins) > Math.max(1, periodBins / 20)) {
+            c *= 0.5;   // 周期が飛んだら信頼度を下げる
+        }
+        confidence = confidence * (1 - CONFIDENCE_ALPHA) + c * CONFIDENCE_ALPHA;
+        if (bestLag == 0) return;
+        periodBins = bestLag;
+
+        // 2) コムフィルタで位相（最新側から周期ごとに足す）
+        int    bestPhase = 0;
+        double bestSum   = -1;
+        for (int phase = 0; phase < bestLag; phase++) {
+            double sum = 0;
+            for (int i = n - 1 - phase; i >= 0; i -= bestLag) sum += smooth[i];
+            if (sum > bestSum) {
+                bestSum = sum;
+                bestPhase = phase;
+            }
+        }
+        lastBeatBin = headBin - bestPhase;
+    }
+}
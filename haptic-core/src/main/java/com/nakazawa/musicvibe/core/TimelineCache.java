@@ -0,0 +1,130 @@
+package com.nakazawa.musicvibe.core;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * TimelineCache
+ * ──────────────────────────────────────────────────────────────
+ * ・計算済み HapticTimeline のディスクキャッシュ
+ *     ファイル名 = <内容ハッシュ>-<解析パラメータ指紋>.mvht
+ * ・合計サイズが上限を超えたら最終アクセスの古い順に削除（LRU）
+ *   最終アクセスはファイルの更新時刻で持つ（ヒット時に touch）
+ * ・指紋が変わった（解析設定が変わった）エントリは生成時に全て削除
+ * ・中身は HapticTimelineFormat。読み出しは read-only mmap でパースしない
+ * ・同時に使うのは解析ワーカー 1 本を想定（メソッドは synchronized）
+ */
+public final class TimelineCache {
+
+    private static final String SUFFIX = ".mvht";
+
+    private final File   dir;
+    private final long   maxBytes;
+    private final String fingerprint;
+
+    private final AtomicLong hits   = new AtomicLong();
+    private final AtomicLong misses = new AtomicLong();
+
+    /**
+     * @param dir         キャッシュ用ディレクトリ（無ければ作る）
+     * @param maxBytes    合計サイズ上限
+     * @param fingerprint 解析パラメータの指紋（{@link TimelineRenderer#paramsFingerprint}）
+     */
+    public TimelineCache(File dir, long maxBytes, String fingerprint) {
+        this.dir         = dir;
+        this.maxBytes    = maxBytes;
+        this.fingerprint = fingerprint;
+        dir.mkdirs();
+        invalidateStale();
+    }
+
+    /** キャッシュから読む。無い・壊れている場合は null（miss） */
+    public synchronized HapticTimeline get(String contentKey) {
+        File f = fileFor(contentKey);
+        if (!f.isFile()) {
+            misses.incrementAndGet();
+            return null;
+        }
+        try {
+            HapticTimeline tl = HapticTimelineFormat.map(f);
+            f.setLastModified(System.currentTimeMillis());
+            hits.incrementAndGet();
+            return tl;
+        } catch (IOException e) {
+            f.delete();
+            misses.incrementAndGet();
+            return null;
+        }
+    }
+
+    /** 書き込み後，上限を超えていれば古いものから削除する */
+    public synchronized void put(String contentKey, HapticTimeline timeline) throws IOException {
+        File f   = fileFor(contentKey);
+        File tmp = new File(dir, f.getName() + ".tmp");
+        HapticTimelineFormat.write(timeline, tmp);
+        if (!tmp.renameTo(f)) {
+            tmp.delete();
+            throw new IOException("rename failed: " + f);
+        }
+        evictToFit();
+    }
+
+    /** 全エントリを削除する */
+    public synchronized void clear() {
+        for (File f : entries()) {
+            f.delete();
+        }
+    }
+
+    /*==== 統計 ========================================================*/
+    public long getHitCount()  { return hits.get(); }
+    public long getMissCount() { return misses.get(); }
+
+    public synchronized long sizeBytes() {
+        long total = 0;
+        for (File f : entries()) total += f.length();
+        return total;
+    }
+
+    @Override
+    public String toString() {
+        return "TimelineCache{hits=" + hits.get() + ", misses=" + misses.get()
+                + ", bytes=" + sizeBytes() + "/" + maxBytes + "}";
+    }
+
+    /*==== 内部処理 ====================================================*/
+    private File fileFor(String contentKey) {
+        return new File(dir, contentKey + "-" + fingerprint + SUFFIX);
+    }
+
+    private File[] entries() {
+        File[] files = dir.listFiles((d, name) -> name.endsWith(SUFFIX));
+        return (files != null) ? files : new File[0];
+    }
+
+    private synchronized void invalidateStale() {
+        String keep = "-" + fingerprint + SUFFIX;
+        for (File f : entries()) {
+            if (!f.getName().endsWith(keep)) {
+                f.delete();
+            }
+        }
+    }
+
+    private void evictToFit() {
+        File[] files = entries();
+        long total = 0;
+        for (File f : files) total += f.length();
+        if (total <= maxBytes) return;
+
+        Arrays.sort(files, Comparator.comparingLong(File::lastModified));
+        for (File f : files) {
+            if (total <= maxBytes) break;
+            long len = f.length();
+            if (f.delete()) total -= len;
+        }
+    }
+}
@@ -0,0 +1,140 @@
+package com.nakazawa.musicvibe.core;
+
+import java.util.Arrays;
+
+/**
+ * TimelineRenderer
+ * ──────────────────────────────────────────────────────────────
+ * ・デコード済み PCM（mono 16bit）を流し込み，HapticTimeline を作る
+ * ・振幅は BackGround 経路（BackgroundSignalPath）と同じ判定を frameMs ごとに行う
+ *   （ユーザー音量スケール 1.0 で保存し，再生側で掛ける）
+ * ・イベントは帯域 RMS が直近平均の EVENT_RATIO 倍を超えた立ち上がり
+ * ・フレーム境界はサンプル数から厳密に決めるので，入力の区切り方に依らず同じ結果になる
+ * ・BackgroundSignalPath は状態を持ち越すストリーム処理なので，各サンプルを 1 度だけ
+ *   （前の境界からの分だけ）渡す
+ */
+public final class TimelineRenderer {
+
+    public static final int DEFAULT_FRAME_MS = 20;
+    /** 判定ロジック・定数を変えたら上げる（キャッシュの無効化に使う） */
+    public static final int ANALYSIS_VERSION = 2;
+
+    private static final double EVENT_RATIO   = 2.0;           // 平均比でこれを超えたら立ち上がり
+    private static final double EVENT_FLOOR   = 0.02 * 32768;  // 小さすぎる帯域は無視
+    private static final double AVG_ALPHA     = 0.1;           // 帯域平均の EMA 係数
+    private static final int    REFRACTORY_MS = 100;           // 同じ帯域の連続発火を抑える
+
+    private final int sampleRate;
+    private final int frameMs;
+    private final int refractoryFrames;
+    private final BackgroundSignalPath path;
+
+    // 前の境界からのサンプル（境界で BackgroundSignalPath へ渡す）
+    private final short[] frame;
+    private int  fill;
+    private long consumed;
+    private long nextBoundary;
+    private int  frameIndex;
+
+    private byte[] amps = new byte[1024];
+    private int[]  evFrames    = new int[256];
+    private byte[] evBands     = new byte[256];
+    private byte[] evStrengths = new byte[256];
+    private int    evCount;
+
+    private final double[] bandAvg        = new double[3];
+    private final int[]    lastEventFrame = new int[3];
+
+    public TimelineRenderer(int sampleRate) {
+        this(sampleRate, DEFAULT_FRAME_MS);
+    }
+
+    public TimelineRenderer(int sampleRate, int frameMs) {
+        if (sampleRate <= 0 || frameMs <= 0) {
+            throw new IllegalArgumentException("sampleRate and frameMs must be > 0");
+        }
+        this.sampleRate       = sampleRate;
+        this.frameMs          = frameMs;
+        this.refractoryFrames = Math.max(1, REFRACTORY_MS / frameMs);
+        this.path             = new BackgroundSignalPath(sampleRate);
+        this.path.setUserScale(1.0f);
+
+        int hop = (int) ((long) sampleRate * frameMs / 1000);
+        frame   = new short[hop + 1];                // 境界の間隔は hop か hop + 1
+        nextBoundary = boundaryOf(1);
+        Arrays.fill(lastEventFrame, Integer.MIN_VALUE / 2);
+    }
+
+    /** pcm[off, off+len) を追加する */
+    public void accept(short[] pcm, int off, int len) {
+        short[] f = frame;
+        for (int i = off, end = off + len; i < end; i++) {
+            f[fill++] = pcm[i];
+            if (++consumed == nextBoundary) {
+                renderFrame();
+                nextBoundary = boundaryOf(frameIndex + 1);
+            }
+        }
+    }
+
+    /** ここまでの入力からタイムラインを作る（端数サンプルは捨てる） */
+    public HapticTimeline finish() {
+        return new HapticTimeline(sampleRate, frameMs,
+                Arrays.copyOf(amps, frameIndex),
+                Arrays.copyOf(evFrames, evCount),
+                Arrays.copyOf(evBands, evCount),
+                Arrays.copyOf(evStrengths, evCount));
+    }
+
+    /** 解析結果を左右するパラメータの指紋（TimelineCache のキーに使う） */
+    public static String paramsFingerprint(int frameMs) {
+        return "v" + ANALYSIS_VERSION
+                + "f" + frameMs
+                + "b" + (int) BackgroundSignalPath.BASS_EDGE_HZ
+                + "m" + (int) BackgroundSignalPath.MELODY_EDGE_HZ;
+    }
+
+    public int getSampleRate()  { return sampleRate; }
+    public int getFrameMs()     { return frameMs; }
+    public int renderedFrames() { return frameIndex; }
+
+    /*==== 内部処理 ====================================================*/
+    private long boundaryOf(int frameNo) {
+        return (long) frameNo * sampleRate * frameMs / 1000;
+    }
+
+    private void renderFrame() {
+        path.process(frame, fill);
+        fill = 0;
+        int amp = path.isLooping() ? path.getAmplitude() : 0;
+        if (frameIndex == amps.length) amps = Arrays.copyOf(amps, amps.length * 2);
+        amps[frameIndex] = (byte) amp;
+
+        double[] bands = path.getBandRms();
+        for (int b = 0; b < bandAvg.length; b++) {
+            double e = bands[b];
+            if (path.isGateOpen()
+                    && e > EVENT_FLOOR
+                    && e > bandAvg[b] * EVENT_RATIO
+                    && frameIndex - lastEventFrame[b] >= refractoryFrames) {
+                addEvent(b, (int) Math.min(255, 255 * e / 16384.0));
+                lastEventFrame[b] = frameIndex;
+            }
+            bandAvg[b] += AVG_ALPHA * (e - bandAvg[b]);
+        }
+        frameIndex++;
+    }
+
+    private void addEvent(int band, int strength) {
+        if (evCount == evFrames.length) {
+            int cap = evCount * 2;
+            evFrames    = Arrays.copyOf(evFrames, cap);
+            evBands     = Arrays.copyOf(evBands, cap);
+            evStrengths = Arrays.copyOf(evStrengths, cap);
+        }
+        evFrames[evCount]    = frameIndex;
+        evBands[evCount]     = (byte) band;
+        evStrengths[evCount] = (byte) strength;
+        evCount++;
+    }
+}
@@ -0,0 +1,104 @@
+package com.nakazawa.musicvibe.core;
+
+/**
+ * TransferCurve
+ * ──────────────────────────────────────────────────────────────
+ * ・非線形圧縮カーブ（x: 0..1 → y）をルックアップテーブルで評価する
+ *     x < knee : lowMax  × (x / knee)^lowExp
+ *     x ≥ knee : highMin + (highMax − highMin) × ((x − knee) / (1 − knee))^highExp
+ * ・生成時に knee の前後それぞれ TABLE_SIZE 区間で前計算し，
+ *   apply() は線形補間だけ（Math.pow を呼ばない）
+ * ・knee での段差（lowMax ≠ highMin）は補間でならさずそのまま残す
+ * ・不変なので，経路側は volatile 参照を差し替えるだけで実行中に切り替えられる
+ */
+public final class TransferCurve {
+
+    public static final int TABLE_SIZE = 256;   // 片側の区間数
+
+    /** 従来の BackGround 経路（Dsp.compressBackground と同じ形） */
+    public static final TransferCurve BACKGROUND =
+            new TransferCurve("background", 0.25, 3.5, 7.0, 0.35, 0.4, 1.0);
+
+    /** UI から切り替えるカーブ */
+    public enum Preset {
+        DEFAULT(BACKGROUND),
+        /** 小音量も拾う（指数を下げる） */
+        SOFT(new TransferCurve("background-soft", 0.25, 2.0, 3.0, 0.35, 0.4, 1.0)),
+        /** 強い音だけを立たせる（knee を上げ，低域側を抑える） */
+        PUNCHY(new TransferCurve("background-punchy", 0.35, 5.0, 4.0, 0.2, 0.3, 1.0));
+
+        public final TransferCurve background;
+
+        Preset(TransferCurve background) {
+            this.background = background;
+        }
+    }
+
+    private final String name;
+    private final double knee, lowExp, highExp, lowMax, highMin, highMax;
+    private final double lowStep, highStep;   // 1 区間あたりの x 幅の逆数
+    private final double[] low  = new double[TABLE_SIZE + 1];
+    private final double[] high = new double[TABLE_SIZE + 1];
+
+    /**
+     * @param knee    区間の切り替え点（0 < knee < 1）
+     * @param lowExp  knee 未満の指数
+     * @param highExp knee 以上の指数
+     * @param lowMax  knee 未満の出力上限（出力は 0..lowMax）
+     * @param highMin knee 以上の出力下限
+     * @param highMax knee 以上の出力上限（x = 1 の値）
+     */
+    public TransferCurve(String name, double knee, double lowExp, double highExp,
+                         double lowMax, double highMin, double highMax) {
+        if (!(knee > 0 && knee < 1)) throw new IllegalArgumentException("knee must be in (0, 1)");
+        this.name    = name;
+        this.knee    = knee;
+        this.lowExp  = lowExp;
+        this.highExp = highExp;
+        this.lowMax  = lowMax;
+        this.highMin = highMin;
+        this.highMax = highMax;
+        this.lowStep  = TABLE_SIZE / knee;
+        this.highStep = TABLE_SIZE / (1 - knee);
+        for (int i = 0; i <= TABLE_SIZE; i++) {
+            double u = i / (double) TABLE_SIZE;
+            low[i]  = lowMax * Math.pow(u, lowExp);
+            high[i] = highMin + (highMax - highMin) * Math.pow(u, highExp);
+        }
+    }
+
+    /** テーブル補間で評価する（x は 0..1 に丸める） */
+    public double apply(double x) {
+        double[] t;
+        double pos;
+        if (x < knee) {
+            t   = low;
+            pos = Math.max(0.0, x) * lowStep;
+        } else {
+            t   = high;
+            pos = (Math.min(1.0, x) - knee) * highStep;
+        }
+        int i = (int) pos;
+        if (i >= TABLE_SIZE) return t[TABLE_SIZE];
+        double f = pos - i;
+        return t[i] + (t[i + 1] - t[i]) * f;
+    }
+
+    /** 定義式そのまま（テスト・比較用） */
+    public double exact(double x) {
+        x = Math.max(0.0, Math.min(1.0, x));
+        return (x < knee)
+                ? lowMax * Math.pow(x / knee, lowExp)
+                : highMin + (highMax - highMin) * Math.pow((x - knee) / (1 - knee), highExp);
+    }
+
+    public String getName()  { return name; }
+    public double getKnee()  { return knee; }
+    public double getOutputMax() { return Math.max(lowMax, highMax); }
+
+    @Override
+    public String toString() {
+        return "TransferCurve{" + name + ", knee=" + knee + ", exp=" + lowExp + "/" + highExp
+                + ", out=0.." + lowMax + " | " + highMin + ".." + highMax + "}";
+    }
+}
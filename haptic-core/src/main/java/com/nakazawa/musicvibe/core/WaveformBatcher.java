@@ -0,0 +1,156 @@
+package com.nakazawa.musicvibe.core;
+
+/**
+ * WaveformBatcher
+ * ──────────────────────────────────────────────────────────────
+ * ・先の振幅フレームをまとめて 1 本のマルチセグメント波形にし，
+ *   Vibrator への IPC（vibrate / cancel）回数を減らす
+ *     update() に「今から先の振幅列」を渡す → 投げ直しが要るかを返す
+ *     SUBMIT のときだけ getTimings() / getAmplitudes() / getRepeatIndex() で
+ *     createWaveform して vibrate する
+ * ・投げ直すのは次のどれか
+ *     計画が無い／計画の終わりが近い／計画と実際の振幅の差が tolerance を超えた
+ * ・先の振幅が窓に足りない場合（ライブ解析など）は最後の値で埋め，
+ *   その区間をループさせて計画を開いたままにする
+ * ・波形配列は使い回す（createWaveform 側でコピーされる）
+ * ・1 スレッドから使う想定。IPC/秒 だけは volatile で公開する
+ */
+public final class WaveformBatcher {
+
+    /*==== 判定結果 ====================================================*/
+    public static final int ACTION_NONE   = 0;
+    public static final int ACTION_SUBMIT = 1; // 波形を vibrate する
+    public static final int ACTION_CANCEL = 2; // vibrator.cancel()
+
+    private static final long RATE_WINDOW_MS = 1000;
+    private static final long OPEN_END       = Long.MAX_VALUE;
+
+    /*==== 設定 ========================================================*/
+    private final int segmentMs;
+    private final int tolerance;
+    private final long[] timings;
+    private final int[]  amplitudes;
+
+    /*==== 計画中の波形 ================================================*/
+    private boolean active    = false;
+    private long    planStart;
+    private long    planEnd;
+    private int     repeatIndex = -1;
+
+    /*==== IPC 計測 ====================================================*/
+    private long windowStart = -1;
+    private int  windowCalls;
+    private long totalCalls;
+    private volatile double ipcPerSecond;
+
+    /**
+     * @param segmentMs 振幅 1 フレームの長さ(ms)
+     * @param windowMs  1 回で投げる波形の長さ(ms)。segmentMs 単位に切り上げ
+     * @param tolerance 計画との差（0..255）がこれを超えたら投げ直す
+     */
+    public WaveformBatcher(int segmentMs, int windowMs, int tolerance) {
+        if (segmentMs <= 0) throw new IllegalArgumentException("segmentMs must be > 0");
+        int segments = Math.max(1, (windowMs + segmentMs - 1) / segmentMs);
+        this.segmentMs  = segmentMs;
+        this.tolerance  = tolerance;
+        this.timings    = new long[segments];
+        this.amplitudes = new int[segments];
+        for (int i = 0; i < segments; i++) timings[i] = segmentMs;
+    }
+
+    /**
+     * @param nowMs    単調増加の時刻(ms)
+     * @param upcoming upcoming[0] が今のフレーム，以降 segmentMs ごとの振幅（0..255）
+     * @param count    upcoming の有効数（0 なら振幅 0 扱い）
+     * @return ACTION_*
+     */
+    public int update(long nowMs, int[] upcoming, int count) {
+        if (allZero(upcoming, count)) {
+            if (!active) return ACTION_NONE;
+            reset();
+            recordIpc(nowMs);
+            return ACTION_CANCEL;
+        }
+        if (active && nowMs + segmentMs < planEnd && withinTolerance(nowMs, upcoming, count)) {
+            return ACTION_NONE;
+        }
+        plan(nowMs, upcoming, count);
+        recordIpc(nowMs);
+        return ACTION_SUBMIT;
+    }
+
+    /** 計画を捨てる（外から cancel した・プリミティブで上書きした時） */
+    public void reset() {
+        active      = false;
+        repeatIndex = -1;
+    }
+
+    /*==== 波形（SUBMIT 直後に読む。配列は使い回し） ==================*/
+    public long[] getTimings()     { return timings; }
+    public int[]  getAmplitudes()  { return amplitudes; }
+    /** ループ開始位置（-1 = ループしない） */
+    public int    getRepeatIndex() { return repeatIndex; }
+    public int    segmentCount()   { return amplitudes.length; }
+
+    /*==== IPC 計測 ====================================================*/
+    /**
+     * バッチャーを通らない IPC（プリミティブ再生など）も数えるときに呼ぶ。
+     * update() が返した SUBMIT / CANCEL は自動で数える。
+     */
+    public void recordIpc(long nowMs) {
+        totalCalls++;
+        if (windowStart < 0) windowStart = nowMs;
+        windowCalls++;
+        long elapsed = nowMs - windowStart;
+        if (elapsed >= RATE_WINDOW_MS) {
+            ipcPerSecond = windowCalls * 1000.0 / elapsed;
+            windowStart = nowMs;
+            windowCalls = 0;
+        }
+    }
+
+    /** 直近 1 秒窓の IPC 回数/秒 */
+    public double getIpcPerSecond() { return ipcPerSecond; }
+    public long   getTotalIpc()     { return totalCalls; }
+
+    /*==== 内部処理 ====================================================*/
+    private void plan(long nowMs, int[] upcoming, int count) {
+        int n = amplitudes.length;
+        int filled = Math.min(count, n);
+        System.arraycopy(upcoming, 0, amplitudes, 0, filled);
+        int tail = amplitudes[filled - 1];
+        for (int i = filled; i < n; i++) amplitudes[i] = tail;
+
+        active    = true;
+        planStart = nowMs;
+        if (count < n && tail > 0) {
+            // 先が見えない → 最後の値を保持し続ける
+            repeatIndex = n - 1;
+            planEnd     = OPEN_END;
+        } else {
+            repeatIndex = -1;
+            planEnd     = nowMs + (long) n * segmentMs;
+        }
+    }
+
+    private boolean withinTolerance(long nowMs, int[] upcoming, int count) {
+        int n      = amplitudes.length;
+        int offset = (int) Math.min(n - 1, (nowMs - planStart) / segmentMs);
+        for (int i = 0; i < count; i++) {
+            int k = offset + i;
+            int planned;
+            if (k < n)                  planned = amplitudes[k];
+            else if (repeatIndex >= 0)  planned = amplitudes[n - 1];
+            else                        break;  // 計画の外（終わり際の張り直しで拾う）
+            if (Math.abs(upcoming[i] - planned) > tolerance) return false;
+        }
+        return true;
+    }
+
+    private static boolean allZero(int[] a, int count) {
+        for (int i = 0; i < count; i++) {
+            if (a[i] != 0) return false;
+        }
+        return true;
+    }
+}
@@ -0,0 +1,71 @@
+package com.nakazawa.musicvibe.core;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+public class AlignmentDelayLineTest {
+
+    private static final long MS = 1_000_000L;
+
+    @Test
+    public void delay_isAudioMinusVibratorPlusUser() {
+        AlignmentDelayLine<String> d = new AlignmentDelayLine<>(4, 500, 30);
+        assertEquals(0, d.getDelayMs());            // 未較正なら遅らせない
+        assertEquals(-30, d.getOffsetMs());
+        d.updateAudioLatency(100);
+        d.recordVibratorCall(5 * MS);                // 5 ms + 立ち上がり 30 ms
+        assertEquals(65, d.getDelayMs());
+        d.setUserOffsetMs(-10);
+        assertEquals(55, d.getDelayMs());
+        d.setUserOffsetMs(-100);
+        assertEquals(0, d.getDelayMs());
+        assertEquals(-35, d.getOffsetMs());
+    }
+
+    @Test
+    public void delay_isClampedToMax() {
+        AlignmentDelayLine<String> d = new AlignmentDelayLine<>(4, 200, 0);
+        d.updateAudioLatency(1000);
+        assertEquals(200, d.getDelayMs());
+    }
+
+    @Test
+    public void audioLatency_convergesToMeasurements() {
+        AlignmentDelayLine<String> d = new AlignmentDelayLine<>(4, 500, 0);
+        d.updateAudioLatency(40);
+        for (int i = 0; i < 100; i++) d.updateAudioLatency(120);
+        assertEquals(120, d.getAudioLatencyMs(), 0.1);
+    }
+
+    @Test
+    public void items_comeOutWhenDue_inOrder() {
+        AlignmentDelayLine<String> d = new AlignmentDelayLine<>(4, 500, 0);
+        d.updateAudioLatency(50);
+        long t0 = 1_000 * MS;
+        assertEquals(t0 + 50 * MS, d.offer("a", t0));
+        // 遅延が縮んでも前の振動を追い越さない
+        d.setUserOffsetMs(-40);
+        assertEquals(t0 + 50 * MS, d.offer("b", t0 + 5 * MS));
+
+        assertNull(d.poll(t0 + 49 * MS));
+        assertEquals("a", d.poll(t0 + 50 * MS));
+        assertEquals(t0, d.getPolledOfferNs());
+        assertEquals("b", d.poll(t0 + 50 * MS));
+        assertEquals(t0 + 5 * MS, d.getPolledOfferNs());
+        assertNull(d.poll(Long.MAX_VALUE));
+        assertEquals(Long.MAX_VALUE, d.nextDueNs());
+    }
+
+    @Test
+    public void overflow_dropsOldest() {
+        AlignmentDelayLine<Integer> d = new AlignmentDelayLine<>(2, 500, 0);
+        d.offer(1, 0);
+        d.offer(2, 1);
+        d.offer(3, 2);
+        assertEquals(1, d.getDropped());
+        assertEquals(Integer.valueOf(2), d.poll(Long.MAX_VALUE));
+        assertEquals(Integer.valueOf(3), d.poll(Long.MAX_VALUE));
+        assertEquals(0, d.size());
+    }
+}
@@ -0,0 +1,124 @@
+package com.nakazawa.musicvibe.core;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+public class BackgroundSignalPathTest {
+
+    private static final int SAMPLE_RATE = 44100;
+
+    private static short[] sine(double hz, double amp, int n) {
+        short[] pcm = new short[n];
+        for (int i = 0; i < n; i++) {
+            pcm[i] = (short) (amp * Math.sin(2 * Math.PI * hz * i / SAMPLE_RATE));
+        }
+        return pcm;
+    }
+
+    @Test
+    public void silence_neverVibrates() {
+        BackgroundSignalPath path = new BackgroundSignalPath(SAMPLE_RATE);
+        short[] pcm = new short[BackgroundSignalPath.FRAME_SAMPLES];
+        for (int i = 0; i < 50; i++) {
+            assertEquals(BackgroundSignalPath.ACTION_NONE, path.process(pcm, pcm.length));
+        }
+        assertFalse(path.isGateOpen());
+    }
+
+    @Test
+    public void loudMelody_vibratesThenCancelsOnSilence() {
+        BackgroundSignalPath path = new BackgroundSignalPath(SAMPLE_RATE);
+        short[] loud = sine(440, 20000, BackgroundSignalPath.FRAME_SAMPLES);
+        boolean vibrated = false;
+        for (int i = 0; i < 20; i++) {
+            if (path.process(loud, loud.length) == BackgroundSignalPath.ACTION_VIBRATE) {
+                vibrated = true;
+            }
+        }
+        assertTrue(vibrated);
+        assertTrue(path.getAmplitude() <= 255);
+
+        // 包絡の release とゲートのホールドのぶん遅れて止まる（0.7 秒以内）
+        short[] quiet = new short[loud.length];
+        int frames = 0;
+        while (path.process(quiet, quiet.length) != BackgroundSignalPath.ACTION_CANCEL) {
+            assertTrue("no cancel within 0.7 s", ++frames < 30);
+        }
+        assertEquals(BackgroundSignalPath.ACTION_NONE,   path.process(quiet, quiet.length));
+    }
+
+    @Test
+    public void shortDropout_doesNotFlap() {
+        BackgroundSignalPath path = new BackgroundSignalPath(SAMPLE_RATE);
+        short[] loud  = sine(440, 20000, BackgroundSignalPath.FRAME_SAMPLES);
+        short[] quiet = new short[loud.length];
+        for (int i = 0; i < 20; i++) path.process(loud, loud.length);
+        assertTrue(path.isLooping());
+        for (int i = 0; i < 40; i++) {
+            short[] frame = (i % 4 == 3) ? quiet : loud;   // 23 ms の途切れ < ホールド
+            assertNotEquals(BackgroundSignalPath.ACTION_CANCEL, path.process(frame, frame.length));
+            assertTrue(path.isGateOpen());
+        }
+    }
+
+    @Test
+    public void frameSize_doesNotChangeResult() {
+        BackgroundSignalPath a = new BackgroundSignalPath(SAMPLE_RATE);
+        BackgroundSignalPath b = new BackgroundSignalPath(SAMPLE_RATE);
+        short[] pcm = sine(150, 18000, BackgroundSignalPath.FRAME_SAMPLES * 8);
+        a.process(pcm, pcm.length);
+        short[] half = new short[pcm.length / 2];
+        for (int k = 0; k < 2; k++) {
+            System.arraycopy(pcm, k * half.length, half, 0, half.length);
+            b.process(half, half.length);
+        }
+        assertEquals(a.isGateOpen(), b.isGateOpen());
+        assertEquals(a.getNoiseFloor(), b.getNoiseFloor(), 0);
+        assertArrayEquals(a.getBandRms(), b.getBandRms(), 0);
+    }
+
+    @Test
+    public void framesBelowWakeLevel_neverOpenTheGate() {
+        BackgroundSignalPath path = new BackgroundSignalPath(SAMPLE_RATE);
+        double[] freqs = {60, 440, 3000, 12000};
+        for (double hz : freqs) {
+            // ピークが wake level をわずかに下回る正弦波
+            double amp = path.getWakeLevel() * 32768 * 0.95;
+            short[] pcm = sine(hz, amp, BackgroundSignalPath.FRAME_SAMPLES);
+            assertTrue(Dsp.peakOf(pcm, 0, pcm.length) / 32768.0 < path.getWakeLevel());
+            path.process(pcm, pcm.length);
+            assertFalse("gate opened at " + hz + " Hz", path.isGateOpen());
+        }
+    }
+
+    @Test
+    public void floatFrames_matchShortFrames() {
+        BackgroundSignalPath s16 = new BackgroundSignalPath(SAMPLE_RATE);
+        BackgroundSignalPath f32 = new BackgroundSignalPath(SAMPLE_RATE);
+        int n = BackgroundSignalPath.FRAME_SAMPLES;
+        java.nio.FloatBuffer buf = java.nio.ByteBuffer.allocateDirect((n + 3) * 4)
+                .order(java.nio.ByteOrder.nativeOrder()).asFloatBuffer();
+        for (int frame = 0; frame < 30; frame++) {
+            short[] pcm = sine(100 + 50 * frame, frame < 20 ? 15000 : 0, n);
+            buf.clear();
+            buf.position(3);                       // position からその場で読む
+            for (int i = 0; i < n; i++) buf.put(3 + i, pcm[i] / 32768f);
+            assertEquals(s16.process(pcm, n), f32.process(buf, n));
+            assertEquals(3, buf.position());
+            assertEquals(s16.getAmplitude(), f32.getAmplitude());
+            assertEquals(s16.getNoiseFloor(), f32.getNoiseFloor(), 1e-9);
+        }
+        assertEquals(Dsp.rmsOf(sine(440, 8000, n), 0, n) / 32768,
+                     Dsp.rmsOf(floats(sine(440, 8000, n)), n), 1e-6);
+        assertEquals(Dsp.peakOf(sine(440, 8000, n), 0, n) / 32768.0,
+                     Dsp.peakOf(floats(sine(440, 8000, n)), n), 1e-6);
+    }
+
+    private static java.nio.FloatBuffer floats(short[] pcm) {
+        java.nio.FloatBuffer b = java.nio.FloatBuffer.allocate(pcm.length);
+        for (short v : pcm) b.put(v / 32768f);
+        b.flip();
+        return b;
+    }
+}
@@ -0,0 +1,106 @@
+package com.nakazawa.musicvibe.core;
+
+import org.junit.Test;
+
+import java.util.Random;
+
+import static org.junit.Assert.*;
+
+public class BiquadBandBankTest {
+
+    private static final int SR = 4410;
+    private static final double[] W = {1.0, 1.0, 1.0};
+
+    private static BiquadBandBank bank() {
+        return new BiquadBandBank(SR, 200, 1500, W);
+    }
+
+    private static short[] sine(double hz, double amp, int n) {
+        short[] s = new short[n];
+        for (int i = 0; i < n; i++) s[i] = (short) (amp * Math.sin(2 * Math.PI * hz * i / SR));
+        return s;
+    }
+
+    @Test
+    public void tonesLandInTheirBand() {
+        double[][] cases = {{60, BiquadBandBank.BASS}, {550, BiquadBandBank.MID}, {2000, BiquadBandBank.TOP}};
+        for (double[] c : cases) {
+            BiquadBandBank b = bank();
+            short[] s = sine(c[0], 16384, SR);
+            b.process(s, 0, s.length);
+            int band = (int) c[1];
+            // attack が速いので低い周波数ほど包絡は RMS（0.354）からピーク（0.5）寄りに読む
+            double rms = 0.5 / Math.sqrt(2);
+            assertTrue(c[0] + " Hz: " + b.rms(band), b.rms(band) > rms * 0.8 && b.rms(band) < 0.5 * 1.05);
+            for (int other = 0; other < BiquadBandBank.BANDS; other++) {
+                if (other != band) assertTrue(c[0] + " Hz in band " + other, b.rms(other) < b.rms(band) * 0.5);
+            }
+        }
+    }
+
+    @Test
+    public void chunking_doesNotChangeState() {
+        short[] s = new short[SR * 2];
+        Random rnd = new Random(9);
+        for (int i = 0; i < s.length; i++) {
+            s[i] = (short) ((i / 700 % 2 == 0 ? 12000 : 300) * Math.sin(i * 0.3) + rnd.nextGaussian() * 200);
+        }
+        BiquadBandBank whole = bank();
+        whole.process(s, 0, s.length);
+
+        BiquadBandBank chunked = bank();
+        for (int off = 0; off < s.length; ) {
+            int len = Math.min(s.length - off, 1 + rnd.nextInt(500));
+            chunked.process(s, off, len);
+            off += len;
+        }
+        for (int band = 0; band < BiquadBandBank.BANDS; band++) {
+            assertEquals(whole.level(band), chunked.level(band), 0);
+            assertEquals(whole.floor(band), chunked.floor(band), 0);
+            assertEquals(whole.isOpen(band), chunked.isOpen(band));
+        }
+    }
+
+    @Test
+    public void gate_holdsThroughShortDropouts_andClosesAfterHold() {
+        BiquadBandBank b = bank();
+        short[] tone = sine(550, 12000, SR / 2);
+        b.process(tone, 0, tone.length);
+        assertTrue(b.isOpen(BiquadBandBank.MID));
+
+        short[] gap = new short[SR * 30 / 1000];          // 30 ms：包絡が落ちてもホールド内
+        b.process(gap, 0, gap.length);
+        assertTrue(b.isOpen(BiquadBandBank.MID));
+        b.process(tone, 0, tone.length);
+
+        short[] silence = new short[SR];
+        b.process(silence, 0, silence.length);
+        assertFalse(b.isOpen(BiquadBandBank.MID));
+        assertFalse(b.anyOpen());
+        assertEquals(0, b.openLevel(), 0);
+    }
+
+    @Test
+    public void gate_hysteresis_ignoresLevelBetweenThresholds() {
+        BiquadBandBank b = bank();
+        // 開く閾値の少し上で開け，閉じる閾値と開く閾値の間に下げても閉じない
+        double open = (BiquadBandBank.OPEN_MARGIN * 1.5) * Math.sqrt(2) * 32768;
+        short[] up = sine(550, open, SR / 4);
+        b.process(up, 0, up.length);
+        assertTrue(b.isOpen(BiquadBandBank.MID));
+        double between = (b.floor(BiquadBandBank.MID) + 0.015) * Math.sqrt(2) * 32768;
+        short[] mid = sine(550, between, SR / 4);
+        b.process(mid, 0, mid.length);
+        assertTrue(b.isOpen(BiquadBandBank.MID));
+    }
+
+    @Test
+    public void wakeLevel_isBelowEveryOpeningTone() {
+        for (double hz : new double[] {60, 300, 900, 1900}) {
+            BiquadBandBank fresh = new BiquadBandBank(SR, 200, 1500, 1.5, 2.5, 0.25);
+            short[] s = sine(hz, fresh.wakeLevel() * 0.95 * 32768, SR / 2);   // ピークが wake level 未満
+            fresh.process(s, 0, s.length);
+            assertFalse("opened at " + hz + " Hz", fresh.anyOpen());
+        }
+    }
+}
@@ -0,0 +1,57 @@
+package com.nakazawa.musicvibe.core;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.file.Files;
+
+import static org.junit.Assert.*;
+
+public class HapticTimelineFormatTest {
+
+    @Rule public TemporaryFolder tmp = new TemporaryFolder();
+
+    @Test
+    public void roundTrip_throughMappedFile() throws IOException {
+        byte[] amps = new byte[1001];
+        for (int i = 0; i < amps.length; i++) amps[i] = (byte) (i * 7);
+        int[]  frames    = {0, 10, 999};
+        byte[] bands     = {HapticTimeline.BAND_BASS, HapticTimeline.BAND_MID, HapticTimeline.BAND_HIGH};
+        byte[] strengths = {(byte) 255, 1, (byte) 128};
+        HapticTimeline src = new HapticTimeline(48000, 20, amps, frames, bands, strengths);
+
+        File f = tmp.newFile("timeline.mvht");
+        HapticTimelineFormat.write(src, f);
+        HapticTimeline mapped = HapticTimelineFormat.map(f);
+
+        assertEquals(48000, mapped.getSampleRate());
+        assertEquals(20, mapped.getFrameMs());
+        assertEquals(amps.length, mapped.frameCount());
+        for (int i = 0; i < amps.length; i++) assertEquals(amps[i] & 0xFF, mapped.amplitudeAt(i));
+        assertEquals(3, mapped.eventCount());
+        for (int i = 0; i < 3; i++) {
+            assertEquals(frames[i], mapped.eventFrame(i));
+            assertEquals(bands[i], mapped.eventBand(i));
+            assertEquals(strengths[i] & 0xFF, mapped.eventStrength(i));
+        }
+        assertEquals(2, mapped.firstEventAtOrAfter(11));
+        // 振幅 1001 byte + 4 byte 境界 + イベント 3 件
+        assertEquals(HapticTimelineFormat.HEADER_SIZE + 1004 + 3 * HapticTimelineFormat.EVENT_SIZE,
+                Files.size(f.toPath()));
+    }
+
+    @Test(expected = IOException.class)
+    public void badMagic_isRejected() throws IOException {
+        File f = tmp.newFile("timeline.mvht");
+        HapticTimelineFormat.write(new HapticTimeline(44100, 20, new byte[4],
+                new int[0], new byte[0], new byte[0]), f);
+        try (RandomAccessFile raf = new RandomAccessFile(f, "rw")) {
+            raf.write('X');
+        }
+        HapticTimelineFormat.map(f);
+    }
+}
@@ -0,0 +1,43 @@
+package com.nakazawa.musicvibe.core;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+public class LatencyHistogramTest {
+
+    @Test
+    public void percentiles_areWithinBucketPrecision() {
+        LatencyHistogram h = new LatencyHistogram();
+        for (int ms = 1; ms <= 1000; ms++) h.record(ms * 1_000_000L);
+        assertEquals(1000, h.count());
+        assertEquals(500_000, h.percentileMicros(50), 500_000 / 32.0);
+        assertEquals(950_000, h.percentileMicros(95), 950_000 / 32.0);
+        assertEquals(990_000, h.percentileMicros(99), 990_000 / 32.0);
+        assertEquals(1_000_000, h.percentileMicros(100));
+    }
+
+    @Test
+    public void bucketBounds_coverEveryValue() {
+        for (long us = 0; us < 1 << 20; us += 7) {
+            int i = LatencyHistogram.indexOf(us);
+            assertTrue(us <= LatencyHistogram.upperBoundOf(i));
+            if (i > 0) assertTrue(us > LatencyHistogram.upperBoundOf(i - 1));
+        }
+    }
+
+    @Test
+    public void concurrentRecords_areAllCounted() throws InterruptedException {
+        LatencyHistogram h = new LatencyHistogram();
+        Thread[] ts = new Thread[4];
+        for (int t = 0; t < ts.length; t++) {
+            ts[t] = new Thread(() -> {
+                for (int i = 0; i < 10_000; i++) h.record(i * 1000L);
+            });
+            ts[t].start();
+        }
+        for (Thread t : ts) t.join();
+        assertEquals(40_000, h.count());
+        assertEquals(9_999, h.maxMicros());
+    }
+}
@@ -0,0 +1,57 @@
+package com.nakazawa.musicvibe.core;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+public class LookaheadWindowTest {
+
+    private static final long MS = 1_000_000L;
+
+    @Test
+    public void fill_samplesFramesAtPresentationTime() {
+        LookaheadWindow w = new LookaheadWindow(8);
+        w.push(100 * MS, 20 * MS, 10);
+        w.push(120 * MS, 20 * MS, 20);
+        w.push(140 * MS, 20 * MS, 30);
+        int[] out = new int[10];
+        // 110 ms から 10 ms 刻み：110,120,130,140,150 まで（160 で窓の終わり）
+        assertEquals(5, w.fill(110 * MS, 10 * MS, out, out.length));
+        assertArrayEquals(new int[]{10, 20, 20, 30, 30}, java.util.Arrays.copyOf(out, 5));
+    }
+
+    @Test
+    public void fill_dropsFramesAlreadyHeard_andGapsAreZero() {
+        LookaheadWindow w = new LookaheadWindow(8);
+        w.push(0, 10 * MS, 50);
+        w.push(30 * MS, 10 * MS, 60);
+        int[] out = new int[4];
+        assertEquals(3, w.fill(15 * MS, 10 * MS, out, out.length));   // 15,25,35
+        assertArrayEquals(new int[]{0, 0, 60}, java.util.Arrays.copyOf(out, 3));
+        assertEquals(1, w.size());                                     // 0..10 ms は捨てた
+    }
+
+    @Test
+    public void overlappingPush_isPackedAfterPreviousFrame() {
+        LookaheadWindow w = new LookaheadWindow(8);
+        w.push(100 * MS, 20 * MS, 1);
+        w.push(115 * MS, 20 * MS, 2);
+        assertEquals(140 * MS, w.horizonNs());
+    }
+
+    @Test
+    public void capacity_isBounded_andFlushEmpties() {
+        LookaheadWindow w = new LookaheadWindow(2);
+        w.push(0, MS, 1);
+        w.push(MS, MS, 2);
+        w.push(2 * MS, MS, 3);
+        assertEquals(2, w.size());
+        assertEquals(1, w.getDropped());
+        int[] out = new int[1];
+        assertEquals(1, w.fill(MS, MS, out, 1));
+        assertEquals(2, out[0]);
+        w.flush();
+        assertEquals(0, w.fill(0, MS, out, 1));
+        assertEquals(Long.MIN_VALUE, w.horizonNs());
+    }
+}
@@ -0,0 +1,73 @@
+package com.nakazawa.musicvibe.core;
+
+import org.junit.Test;
+
+import java.io.PrintWriter;
+import java.io.StringWriter;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Map;
+
+import static org.junit.Assert.*;
+
+public class MetricsRegistryTest {
+
+    private static final long SEC = 1_000_000_000L;
+
+    @Test
+    public void snapshot_keepsRegistrationOrder() {
+        MetricsRegistry m = new MetricsRegistry();
+        MetricsRegistry.Counter c = m.counter("a");
+        m.meter("b");
+        m.gauge("c", () -> 0.5);
+        c.add(3);
+        Map<String, Number> s = m.snapshot();
+        assertEquals(Arrays.asList("a", "b", "b/s", "c"), new ArrayList<>(s.keySet()));
+        assertEquals(3L, s.get("a"));
+        assertEquals(0.5, s.get("c").doubleValue(), 0);
+    }
+
+    @Test
+    public void meter_reportsLastFullSecond() {
+        MetricsRegistry.Meter m = new MetricsRegistry.Meter();
+        for (int i = 0; i < 5; i++) m.mark(10 * SEC + i);
+        // 同じ秒の途中ではまだ前の秒（無し）
+        assertEquals(0, m.perSecond(10 * SEC + SEC / 2));
+        // 次の秒に入ったら直前の 1 秒ぶん
+        assertEquals(5, m.perSecond(11 * SEC));
+        m.mark(11 * SEC + 1);
+        assertEquals(5, m.perSecond(11 * SEC + 2));
+        // 間が空いたら 0
+        assertEquals(0, m.perSecond(20 * SEC));
+        m.mark(20 * SEC);
+        assertEquals(0, m.perSecond(20 * SEC + 1));
+        assertEquals(7, m.get());
+    }
+
+    @Test
+    public void concurrentIncrements_areAllCounted() throws InterruptedException {
+        MetricsRegistry m = new MetricsRegistry();
+        MetricsRegistry.Counter c = m.counter("n");
+        Thread[] ts = new Thread[4];
+        for (int t = 0; t < ts.length; t++) {
+            ts[t] = new Thread(() -> {
+                for (int i = 0; i < 10_000; i++) c.inc();
+            });
+            ts[t].start();
+        }
+        for (Thread t : ts) t.join();
+        assertEquals(40_000L, m.snapshot().get("n"));
+    }
+
+    @Test
+    public void dump_writesOneLinePerValue() {
+        MetricsRegistry m = new MetricsRegistry();
+        m.counter("frames").add(2);
+        m.gauge("ratio", () -> 0.25);
+        StringWriter sw = new StringWriter();
+        PrintWriter pw = new PrintWriter(sw);
+        m.dump(pw, "  ");
+        pw.flush();
+        assertEquals("  frames = 2\n  ratio = 0.250\n", sw.toString().replace("\r\n", "\n"));
+    }
+}
@@ -0,0 +1,78 @@
+package com.nakazawa.musicvibe.core;
+
+import org.junit.Test;
+
+import java.util.Random;
+
+import static org.junit.Assert.*;
+
+public class OnsetDetectorTest {
+
+    private static final int    BINS   = 512;
+    private static final double BIN_HZ = 22050.0 / BINS;
+
+    /** 揺らぎのある定常スペクトル */
+    private static void steady(float[] mag, Random rnd) {
+        for (int i = 0; i < BINS; i++) mag[i] = 20f + rnd.nextFloat() * 4f;
+    }
+
+    @Test
+    public void steadySpectrum_hasNoOnsets() {
+        OnsetDetector d = new OnsetDetector();
+        float[] mag = new float[BINS];
+        Random rnd = new Random(1);
+        int onsets = 0;
+        for (int f = 0; f < 200; f++) {
+            steady(mag, rnd);
+            if (d.process(mag, BINS, BIN_HZ, f * 100L) != 0) onsets++;
+        }
+        assertEquals(0, onsets);
+    }
+
+    @Test
+    public void burst_isTaggedByBand() {
+        OnsetDetector d = new OnsetDetector();
+        float[] mag = new float[BINS];
+        Random rnd = new Random(2);
+        long t = 0;
+        for (int f = 0; f < 20; f++, t += 100) {
+            steady(mag, rnd);
+            d.process(mag, BINS, BIN_HZ, t);
+        }
+        // 低域の立ち上がり → kick のみ
+        steady(mag, rnd);
+        for (int i = 1; i < (int) (150 / BIN_HZ); i++) mag[i] = 120f;
+        assertEquals(1 << OnsetDetector.BAND_KICK, d.process(mag, BINS, BIN_HZ, t += 100));
+        assertTrue(d.getStrength(OnsetDetector.BAND_KICK) >= 0.5f);
+
+        for (int f = 0; f < 20; f++) {
+            steady(mag, rnd);
+            d.process(mag, BINS, BIN_HZ, t += 100);
+        }
+        // 高域の立ち上がり → hat のみ
+        steady(mag, rnd);
+        for (int i = (int) (8000 / BIN_HZ); i < BINS; i++) mag[i] = 120f;
+        assertEquals(1 << OnsetDetector.BAND_HAT, d.process(mag, BINS, BIN_HZ, t + 100));
+    }
+
+    @Test
+    public void refractory_suppressesRepeatedOnsets() {
+        OnsetDetector d = new OnsetDetector(200, 5000, 16, 1.5, 90);
+        float[] mag = new float[BINS];
+        Random rnd = new Random(3);
+        long t = 0;
+        for (int f = 0; f < 20; f++, t += 20) {
+            steady(mag, rnd);
+            d.process(mag, BINS, BIN_HZ, t);
+        }
+        steady(mag, rnd);
+        for (int i = 1; i < 4; i++) mag[i] = 120f;
+        assertNotEquals(0, d.process(mag, BINS, BIN_HZ, t));
+        steady(mag, rnd);
+        for (int i = 1; i < 4; i++) mag[i] = 2f;
+        d.process(mag, BINS, BIN_HZ, t + 20);
+        steady(mag, rnd);
+        for (int i = 1; i < 4; i++) mag[i] = 120f;
+        assertEquals(0, d.process(mag, BINS, BIN_HZ, t + 40));
+    }
+}
@@ -0,0 +1,117 @@
+package com.nakazawa.musicvibe.core;
+
+import org.junit.Test;
+
+import java.nio.FloatBuffer;
+import java.util.Random;
+
+import static org.junit.Assert.*;
+
+public class OnsetSignalPathTest {
+
+    private static final int SR    = 4410;   // 間引き後（44.1 kHz / 10）
+    private static final int FRAME = 102;    // frameLengthFor(10)，約 23 ms
+
+    /** beatMs ごとに減衰する toneHz のバースト + 弱い定常音とノイズ（-1..1） */
+    private static float[] bursts(double toneHz, long beatMs, int seconds, long seed) {
+        float[] s = new float[SR * seconds];
+        int beat = (int) (beatMs * SR / 1000);
+        Random rnd = new Random(seed);
+        for (int i = 0; i < s.length; i++) {
+            double t = (double) (i % beat) / SR;
+            double hit = 0.6 * Math.exp(-t / 0.05) * Math.sin(2 * Math.PI * toneHz * t);
+            double bed = 0.05 * Math.sin(2 * Math.PI * 700.0 * i / SR);
+            s[i] = (float) (hit + bed + rnd.nextGaussian() * 0.005);
+        }
+        return s;
+    }
+
+    private static long frameMs(int frame) {
+        return (long) frame * FRAME * 1000 / SR;
+    }
+
+    @Test
+    public void kickBursts_areDetected_andLockTheTempo() {
+        float[] s = bursts(60, 500, 12, 1);
+        OnsetSignalPath path = new OnsetSignalPath(SR);
+        FloatBuffer buf = FloatBuffer.wrap(s);
+        int kicks = 0, others = 0;
+        int frames = s.length / FRAME;
+        for (int f = 0; f < frames; f++) {
+            buf.position(f * FRAME);
+            int mask = path.process(buf, FRAME, frameMs(f));
+            if (frameMs(f) < 1000) continue;                  // しきい値の窓が埋まるまでは数えない
+            if ((mask & (1 << OnsetDetector.BAND_KICK)) != 0) kicks++;
+            else if (mask != 0) others++;
+        }
+        // 1..12 s に拍は 22 回
+        assertTrue("kicks " + kicks, kicks >= 18 && kicks <= 22);
+        assertTrue("others " + others, others <= 4);
+
+        TempoTracker tempo = path.getTempo();
+        assertTrue(tempo.isLocked());
+        assertEquals(120, tempo.getBpm(), 4);
+    }
+
+    @Test
+    public void steadyTone_triggersNothing() {
+        OnsetSignalPath path = new OnsetSignalPath(SR);
+        short[] frame = new short[FRAME];
+        int fired = 0;
+        for (int f = 0; f < SR * 5 / FRAME; f++) {
+            for (int i = 0; i < FRAME; i++) {
+                frame[i] = (short) (12000 * Math.sin(2 * Math.PI * 440.0 * (f * FRAME + i) / SR));
+            }
+            if (path.process(frame, FRAME, frameMs(f)) != 0 && frameMs(f) >= 1000) fired++;
+        }
+        assertEquals(0, fired);
+    }
+
+    @Test
+    public void hatBand_followsTheSampleRate() {
+        // 4.41 kHz では 5 kHz の境界がナイキストを超えるので，1.9 kHz のバーストは hat として見る
+        float[] s = bursts(1900, 500, 4, 2);
+        OnsetSignalPath path = new OnsetSignalPath(SR);
+        FloatBuffer buf = FloatBuffer.wrap(s);
+        int hats = 0;
+        for (int f = 0; f < s.length / FRAME; f++) {
+            buf.position(f * FRAME);
+            int mask = path.process(buf, FRAME, frameMs(f));
+            if (frameMs(f) >= 1000 && (mask & (1 << OnsetDetector.BAND_HAT)) != 0) hats++;
+        }
+        assertTrue("hats " + hats, hats >= 4);
+    }
+
+    @Test
+    public void shortAndFloatInput_agree() {
+        float[] s = bursts(90, 430, 3, 3);
+        short[] pcm = new short[FRAME];
+        OnsetSignalPath a = new OnsetSignalPath(SR);
+        OnsetSignalPath b = new OnsetSignalPath(SR);
+        FloatBuffer buf = FloatBuffer.wrap(new float[FRAME]);
+        for (int f = 0; f < s.length / FRAME; f++) {
+            for (int i = 0; i < FRAME; i++) {
+                pcm[i] = (short) Math.round(s[f * FRAME + i] * 32767);
+                buf.put(i, pcm[i] / 32768f);
+            }
+            assertEquals(a.process(pcm, FRAME, frameMs(f)), b.process(buf, FRAME, frameMs(f)));
+            assertEquals(a.getOnsetStrength(OnsetDetector.BAND_KICK),
+                         b.getOnsetStrength(OnsetDetector.BAND_KICK), 1e-4);
+        }
+    }
+
+    @Test
+    public void reset_forgetsTheTempo() {
+        float[] s = bursts(60, 500, 10, 4);
+        OnsetSignalPath path = new OnsetSignalPath(SR);
+        FloatBuffer buf = FloatBuffer.wrap(s);
+        for (int f = 0; f < s.length / FRAME; f++) {
+            buf.position(f * FRAME);
+            path.process(buf, FRAME, frameMs(f));
+        }
+        assertTrue(path.getTempo().isLocked());
+        path.reset();
+        assertFalse(path.getTempo().isLocked());
+        assertEquals(0, path.getOnsets());
+    }
+}
@@ -0,0 +1,87 @@
+package com.nakazawa.musicvibe.core;
+
+import org.junit.Test;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+
+import static org.junit.Assert.*;
+
+public class PcmRingBufferTest {
+
+    @Test
+    public void frames_wrapAroundInOrder() {
+        PcmRingBuffer ring = new PcmRingBuffer(8);
+        short[] chunk = new short[3];
+        short[] frame = new short[4];
+        short next = 0, expect = 0;
+        for (int round = 0; round < 10; round++) {
+            for (int i = 0; i < chunk.length; i++) chunk[i] = next++;
+            assertEquals(3, ring.write(chunk, 0, chunk.length));
+            while (ring.readFrame(frame)) {
+                for (short s : frame) assertEquals(expect++, s);
+            }
+        }
+        assertEquals(0, ring.getOverflowSamples());
+    }
+
+    @Test
+    public void overflowAndUnderrun_areCounted() {
+        PcmRingBuffer ring = new PcmRingBuffer(4);
+        short[] chunk = new short[6];
+        assertEquals(4, ring.write(chunk, 0, chunk.length));
+        assertEquals(2, ring.getOverflowSamples());
+
+        short[] frame = new short[3];
+        assertTrue(ring.readFrame(frame));
+        assertFalse(ring.readFrame(frame));
+        assertEquals(1, ring.getUnderrunCount());
+    }
+
+    @Test
+    public void overflow_dropsOldest_andKeepsNewest() {
+        PcmRingBuffer ring = new PcmRingBuffer(8);
+        short[] chunk = new short[3];
+        short next = 0;
+        for (int round = 0; round < 5; round++) {          // 15 サンプル書いて読まない（解析の停滞）
+            for (int i = 0; i < chunk.length; i++) chunk[i] = next++;
+            assertEquals(3, ring.write(chunk, 0, chunk.length));
+        }
+        assertEquals(8, ring.available());
+        assertEquals(7, ring.getOverflowSamples());
+
+        short[] frame = new short[4];
+        assertTrue(ring.readFrame(frame));
+        assertArrayEquals(new short[]{7, 8, 9, 10}, frame);
+        assertTrue(ring.readFrame(frame));
+        assertArrayEquals(new short[]{11, 12, 13, 14}, frame);
+
+        // 容量を超えるチャンクは末尾だけ残る
+        short[] big = new short[11];
+        for (int i = 0; i < big.length; i++) big[i] = (short) (100 + i);
+        assertEquals(8, ring.write(big, 0, big.length));
+        assertTrue(ring.readFrame(frame));
+        assertArrayEquals(new short[]{103, 104, 105, 106}, frame);
+        assertEquals(7 + 3, ring.getOverflowSamples());
+    }
+
+    @Test
+    public void interleavedByteBuffer_isDownmixedWithoutMovingPosition() {
+        PcmRingBuffer ring = new PcmRingBuffer(8);
+        ByteBuffer buf = ByteBuffer.allocate(2 + 6 * 2 * 2).order(ByteOrder.LITTLE_ENDIAN);
+        buf.putShort((short) 12345);            // position より前は読まない
+        for (int i = 0; i < 6; i++) {
+            buf.putShort((short) (100 * i));
+            buf.putShort((short) (100 * i + 20));
+        }
+        buf.flip();
+        buf.position(2);
+        assertEquals(6, ring.write(buf, 2));
+        assertEquals(2, buf.position());
+        short[] frame = new short[3];
+        assertTrue(ring.readFrame(frame));
+        assertArrayEquals(new short[]{10, 110, 210}, frame);
+        assertTrue(ring.readFrame(frame));
+        assertArrayEquals(new short[]{310, 410, 510}, frame);
+    }
+}
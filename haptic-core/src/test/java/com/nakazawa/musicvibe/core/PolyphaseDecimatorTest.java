@@ -0,0 +1,149 @@
+package com.nakazawa.musicvibe.core;
+
+import org.junit.Test;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.FloatBuffer;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.Assert.*;
+
+public class PolyphaseDecimatorTest {
+
+    private static final int SR = 44100;
+
+    /** 出力を全部つなげて集める */
+    private static final class Collect implements PolyphaseDecimator.FrameSink {
+        final List<Float> out = new ArrayList<>();
+        final List<Integer> after = new ArrayList<>();
+        @Override public void onFrame(FloatBuffer frame, int inputAfter) {
+            for (int i = 0; i < frame.remaining(); i++) out.add(frame.get(i));
+            after.add(inputAfter);
+        }
+        float[] samples() {
+            float[] a = new float[out.size()];
+            for (int i = 0; i < a.length; i++) a[i] = out.get(i);
+            return a;
+        }
+    }
+
+    private static short[] tone(double hz, int n, double amp) {
+        short[] s = new short[n];
+        for (int i = 0; i < n; i++) s[i] = (short) (amp * Math.sin(2 * Math.PI * hz * i / SR));
+        return s;
+    }
+
+    private static double rms(float[] a, int from) {
+        double sum = 0;
+        for (int i = from; i < a.length; i++) sum += a[i] * a[i];
+        return Math.sqrt(sum / (a.length - from));
+    }
+
+    @Test
+    public void matchesDirectFormFirEveryFactorthSample() {
+        int factor = 10;
+        PolyphaseDecimator d = new PolyphaseDecimator(factor, 16, 8);
+        float[] h = d.taps();
+        short[] in = new short[12_000];   // 履歴を先頭へ寄せる境目を何度かまたぐ
+        Random rnd = new Random(3);
+        for (int i = 0; i < in.length; i++) in[i] = (short) (rnd.nextInt(65536) - 32768);
+
+        Collect c = new Collect();
+        d.process(in, 0, in.length, c);
+        float[] y = c.samples();
+        assertEquals(in.length / factor / 8 * 8, y.length);
+        for (int m = 0; m < y.length; m++) {
+            double ref = 0;
+            for (int k = 0; k < h.length; k++) {
+                int n = m * factor - k;
+                if (n >= 0) ref += h[k] * (in[n] / 32768.0);
+            }
+            assertEquals("y[" + m + "]", ref, y[m], 1e-5);
+        }
+    }
+
+    @Test
+    public void chunking_doesNotChangeOutput() {
+        short[] in = tone(440, 10_000, 12000);
+        PolyphaseDecimator whole = new PolyphaseDecimator(10, 102);
+        Collect a = new Collect();
+        whole.process(in, 0, in.length, a);
+
+        PolyphaseDecimator chunked = new PolyphaseDecimator(10, 102);
+        Collect b = new Collect();
+        Random rnd = new Random(5);
+        for (int off = 0; off < in.length; ) {
+            int len = Math.min(in.length - off, 1 + rnd.nextInt(700));
+            chunked.process(in, off, len, b);
+            off += len;
+        }
+        assertArrayEquals(a.samples(), b.samples(), 0f);
+    }
+
+    /** factor 10 で hz の正弦波（振幅 0.5）を間引いた出力の RMS を，入力の RMS に対する比で返す */
+    private static double gainAt(double hz) {
+        PolyphaseDecimator d = new PolyphaseDecimator(10, 64);
+        Collect c = new Collect();
+        d.process(tone(hz, SR, 16384), 0, SR, c);
+        return rms(c.samples(), 100) / (0.5 / Math.sqrt(2));
+    }
+
+    @Test
+    public void passband_keepsLevel_andAliasesAreRejected() {
+        assertEquals(1.0, gainAt(200), 0.01);
+        assertTrue(gainAt(1500) > 0.7);        // 上の帯域の境目（MELODY_EDGE_HZ）は -3 dB 以内
+
+        // 出力ナイキスト（2205 Hz）のすぐ上は 1.8〜2.1 kHz へ折り返すので，そこから阻止域
+        for (double hz : new double[]{2300, 2400, 2500, 2600}) {
+            assertTrue(hz + " Hz", gainAt(hz) < 1e-3);   // -60 dB 未満
+        }
+        // 15 kHz は 4.41 kHz に間引くと 1770 Hz へ折り返す
+        assertTrue(gainAt(15000) < 1e-3);
+    }
+
+    @Test
+    public void inputAfter_countsSamplesLeftInChunk() {
+        PolyphaseDecimator d = new PolyphaseDecimator(4, 4, 5);   // 20 入力で 1 フレーム
+        Collect c = new Collect();
+        d.process(new short[50], 0, 50, c);
+        // 出力 y[m] は入力 4m で出る：フレーム末尾 y[4] は入力 16，y[9] は入力 36
+        assertEquals(2, c.after.size());
+        assertEquals(50 - 1 - 16, (int) c.after.get(0));
+        assertEquals(50 - 1 - 36, (int) c.after.get(1));
+    }
+
+    @Test
+    public void floatAndInterleavedInputs_matchShortInput() {
+        short[] in = tone(300, 4096, 10000);
+        PolyphaseDecimator ref = new PolyphaseDecimator(10, 102);
+        Collect a = new Collect();
+        ref.process(in, 0, in.length, a);
+
+        FloatBuffer f = ByteBuffer.allocateDirect(in.length * 4).order(ByteOrder.nativeOrder()).asFloatBuffer();
+        for (short v : in) f.put(v / 32768f);
+        f.flip();
+        PolyphaseDecimator fd = new PolyphaseDecimator(10, 102);
+        Collect b = new Collect();
+        fd.process(f, in.length, b);
+        assertEquals(0, f.position());
+        assertArrayEquals(a.samples(), b.samples(), 1e-6f);
+
+        ByteBuffer st = ByteBuffer.allocate(in.length * 4).order(ByteOrder.LITTLE_ENDIAN);
+        for (short v : in) st.putShort(v).putShort(v);
+        st.flip();
+        PolyphaseDecimator sd = new PolyphaseDecimator(10, 102);
+        Collect c = new Collect();
+        sd.process(st, 2, c);
+        assertArrayEquals(a.samples(), c.samples(), 1e-6f);
+    }
+
+    @Test
+    public void frameLength_keepsFrameDuration() {
+        assertEquals(102, PolyphaseDecimator.frameLengthFor(10));
+        assertEquals(50, PolyphaseDecimator.frameLengthFor(20));
+        assertEquals(BackgroundSignalPath.FRAME_SAMPLES, PolyphaseDecimator.frameLengthFor(1));
+    }
+}
@@ -0,0 +1,121 @@
+package com.nakazawa.musicvibe.core;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+public class PowerGovernorTest {
+
+    private static final long MS    = 1_000_000L;
+    private static final long FRAME = 20 * MS;
+    private static final double WAKE = 0.01;
+
+    /** silent フレームを n 個流す。解析した数を返す */
+    private static int feedSilence(PowerGovernor g, long[] t, int n) {
+        int analysed = 0;
+        for (int i = 0; i < n; i++) {
+            t[0] += FRAME;
+            if (g.shouldAnalyse(0, WAKE, t[0])) {
+                analysed++;
+                g.onAnalysed(false, t[0]);
+            }
+        }
+        return analysed;
+    }
+
+    @Test
+    public void silence_entersIdle_afterConfiguredTime() {
+        PowerGovernor g = new PowerGovernor(100, 4);
+        long[] t = {0};
+        feedSilence(g, t, 5);                     // 0..100 ms
+        assertTrue(g.isActive());
+        feedSilence(g, t, 1);
+        assertEquals(PowerGovernor.IDLE, g.getState());
+    }
+
+    @Test
+    public void idle_analysesOnlyProbeFrames() {
+        PowerGovernor g = new PowerGovernor(100, 4);
+        long[] t = {0};
+        feedSilence(g, t, 6);
+        assertFalse(g.isActive());
+        assertEquals(10, feedSilence(g, t, 40));  // 4 フレームに 1 回
+        assertEquals(30, g.getSkippedFrames());
+    }
+
+    @Test
+    public void signal_wakesWithinOneFrame() {
+        PowerGovernor g = new PowerGovernor(100, 1000);
+        long[] t = {0};
+        feedSilence(g, t, 6);
+        assertFalse(g.isActive());
+        t[0] += FRAME;
+        assertTrue(g.shouldAnalyse(0.5, WAKE, t[0]));   // プローブ間隔を待たない
+        g.onAnalysed(true, t[0]);
+        assertTrue(g.isActive());
+        assertEquals(1, g.getWakeups());
+    }
+
+    @Test
+    public void shortClick_wakesOnItsOwnFrame() {
+        int sr = 44100, n = BackgroundSignalPath.FRAME_SAMPLES;
+        long frameNs = n * 1_000_000_000L / sr;
+        BackgroundSignalPath path = new BackgroundSignalPath(sr);
+        PowerGovernor g = new PowerGovernor();
+        long t = 0;
+        short[] silence = new short[n];
+        for (int i = 0; i < 9 * sr / n; i++, t += frameNs) {      // 9 s の無音で IDLE へ
+            if (g.shouldAnalyse(0, path.getWakeLevel(), t)) {
+                path.process(silence, n);
+                g.onAnalysed(path.isGateOpen(), t);
+            }
+        }
+        assertFalse(g.isActive());
+
+        // 1 ms（44 サンプル）の 1 kHz バースト。フレーム全体の RMS は wake level の 0.9 倍しかない
+        double wake = path.getWakeLevel();
+        double amp = 0.9 * wake * Math.sqrt(2) * Math.sqrt((double) n / 44) * 32768;
+        short[] click = new short[n];
+        for (int i = 0; i < 44; i++) click[i] = (short) (amp * Math.sin(2 * Math.PI * 1000.0 * i / sr));
+        assertTrue(Dsp.rmsOf(click, 0, n) / 32768 < wake);
+
+        assertTrue(g.shouldAnalyse(Dsp.peakOf(click, 0, n) / 32768.0, wake, t));
+        path.process(click, n);
+        assertTrue(path.getBands().isOpen(BiquadBandBank.MID));
+        g.onAnalysed(path.isGateOpen(), t);
+        assertTrue(g.isActive());
+        assertEquals(1, g.getWakeups());
+    }
+
+    @Test
+    public void loudButGatedFrame_staysIdle() {
+        PowerGovernor g = new PowerGovernor(100, 1000);
+        long[] t = {0};
+        feedSilence(g, t, 6);
+        t[0] += FRAME;
+        assertTrue(g.shouldAnalyse(0.5, WAKE, t[0]));
+        g.onAnalysed(false, t[0]);
+        assertFalse(g.isActive());
+    }
+
+    @Test
+    public void timeIsAccountedPerState_andGapsAreIgnored() {
+        PowerGovernor g = new PowerGovernor(100, 4);
+        long[] t = {0};
+        feedSilence(g, t, 6);                     // ACTIVE 100 ms（最初のフレームは起点）
+        feedSilence(g, t, 10);                    // IDLE 200 ms
+        t[0] += 5_000 * MS;                       // 入力が途切れた
+        feedSilence(g, t, 1);
+        assertEquals(100 * MS, g.getTimeNanos(PowerGovernor.ACTIVE));
+        assertEquals(200 * MS, g.getTimeNanos(PowerGovernor.IDLE));
+        assertEquals(2.0 / 3, g.getIdleRatio(), 1e-9);
+    }
+
+    @Test
+    public void nonPositiveIdleAfter_disablesIdle() {
+        PowerGovernor g = new PowerGovernor(0, 4);
+        long[] t = {0};
+        feedSilence(g, t, 1000);
+        assertTrue(g.isActive());
+    }
+}
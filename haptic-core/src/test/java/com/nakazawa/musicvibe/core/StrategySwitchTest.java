@@ -0,0 +1,52 @@
+package com.nakazawa.musicvibe.core;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+public class StrategySwitchTest {
+
+    private final List<String> log = new ArrayList<>();
+    private final StrategySwitch<String> sw = new StrategySwitch<>((from, to) -> log.add(from + "->" + to));
+
+    @Test
+    public void request_isNotVisibleUntilApplied() {
+        assertTrue(sw.request("hg"));
+        assertNull(sw.current());
+        assertEquals("hg", sw.pending());
+        assertTrue(sw.apply("hg"));
+        assertEquals("hg", sw.current());
+        assertNull(sw.pending());
+        assertEquals(1, sw.getSwitchCount());
+        assertEquals(1, sw.getLatency().count());
+        assertTrue(sw.getLastSwitchNanos() >= 0);
+        assertEquals("[null->hg]", log.toString());
+    }
+
+    @Test
+    public void pendingRequests_collapseToLatest() {
+        sw.request("hg");
+        sw.apply("hg");
+        sw.request("waveform");
+        sw.request("onset");
+        assertFalse(sw.apply("waveform"));         // 準備中に要求が変わった
+        assertTrue(sw.apply("onset"));
+        assertEquals("[null->hg, hg->onset]", log.toString());
+        assertEquals(2, sw.getSwitchCount());
+    }
+
+    @Test
+    public void requestingActive_cancelsPending() {
+        sw.request("hg");
+        sw.apply("hg");
+        assertTrue(sw.request("waveform"));
+        assertFalse(sw.request("hg"));
+        assertNull(sw.pending());
+        assertFalse(sw.apply("waveform"));
+        assertEquals("hg", sw.current());
+        assertEquals(1, sw.getSwitchCount());
+    }
+}
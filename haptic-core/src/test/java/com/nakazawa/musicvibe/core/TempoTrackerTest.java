@@ -0,0 +1,44 @@
+package com.nakazawa.musicvibe.core;
+
+import org.junit.Test;
+
+import java.util.Random;
+
+import static org.junit.Assert.*;
+
+public class TempoTrackerTest {
+
+    private static final long FRAME_MS = 23;   // BackGround 解析 1 フレーム相当
+
+    @Test
+    public void steadyBeat_locksAndPredictsNextBeat() {
+        TempoTracker t = new TempoTracker();
+        long beatMs = 500;   // 120 BPM
+        long now = 0;
+        long nextBeat = 0;
+        for (; now < 8000; now += FRAME_MS) {
+            double onset = 0;
+            if (now >= nextBeat) {
+                onset = 1.0;
+                nextBeat += beatMs;
+            }
+            t.addFrame(now, onset);
+        }
+        assertTrue("confidence=" + t.getConfidence(), t.isLocked());
+        assertEquals(120.0, t.getBpm(), 3.0);
+        long predicted = t.nextBeatAfter(now);
+        // 実際の拍はフレーム境界で検出されるので 1 フレーム分の遅れは許す
+        long err = Math.floorMod(predicted - nextBeat + beatMs / 2, beatMs) - beatMs / 2;
+        assertTrue("err=" + err, Math.abs(err) <= FRAME_MS + TempoTracker.GRID_MS);
+    }
+
+    @Test
+    public void randomOnsets_doNotLock() {
+        TempoTracker t = new TempoTracker();
+        Random rnd = new Random(7);
+        for (long now = 0; now < 8000; now += FRAME_MS) {
+            t.addFrame(now, rnd.nextInt(10) == 0 ? rnd.nextDouble() : 0);
+        }
+        assertFalse("confidence=" + t.getConfidence(), t.isLocked());
+    }
+}
@@ -0,0 +1,59 @@
+package com.nakazawa.musicvibe.core;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.IOException;
+
+import static org.junit.Assert.*;
+
+public class TimelineCacheTest {
+
+    @Rule public TemporaryFolder tmp = new TemporaryFolder();
+
+    private static HapticTimeline timeline(int frames) {
+        byte[] amps = new byte[frames];
+        for (int i = 0; i < frames; i++) amps[i] = (byte) i;
+        return new HapticTimeline(44100, 20, amps,
+                new int[]{3}, new byte[]{HapticTimeline.BAND_BASS}, new byte[]{(byte) 200});
+    }
+
+    @Test
+    public void hitAndMiss_areCounted() throws IOException {
+        File dir = tmp.newFolder("tlcache");
+        TimelineCache cache = new TimelineCache(dir, 1 << 20, "v1");
+        assertNull(cache.get("abc"));
+        cache.put("abc", timeline(100));
+        HapticTimeline tl = cache.get("abc");
+        assertNotNull(tl);
+        assertEquals(100, tl.frameCount());
+        assertEquals(99, tl.amplitudeAt(99));
+        assertEquals(200, tl.eventStrength(0));
+        assertEquals(1, cache.getHitCount());
+        assertEquals(1, cache.getMissCount());
+    }
+
+    @Test
+    public void oldestEntry_isEvictedOverCap() throws IOException {
+        File dir = tmp.newFolder("tlcache");
+        TimelineCache cache = new TimelineCache(dir, 2500, "v1");
+        cache.put("a", timeline(1000));
+        new File(dir, "a-v1.mvht").setLastModified(1000);
+        cache.put("b", timeline(1000));
+        cache.put("c", timeline(1000));
+        assertNull(cache.get("a"));
+        assertNotNull(cache.get("b"));
+        assertNotNull(cache.get("c"));
+    }
+
+    @Test
+    public void changedFingerprint_invalidatesEntries() throws IOException {
+        File dir = tmp.newFolder("tlcache");
+        new TimelineCache(dir, 1 << 20, "v1").put("abc", timeline(10));
+        TimelineCache next = new TimelineCache(dir, 1 << 20, "v2");
+        assertNull(next.get("abc"));
+        assertEquals(0, next.sizeBytes());
+    }
+}
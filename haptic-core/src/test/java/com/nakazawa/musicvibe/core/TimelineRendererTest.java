@@ -0,0 +1,57 @@
+package com.nakazawa.musicvibe.core;
+
+import org.junit.Test;
+
+import java.util.Random;
+
+import static org.junit.Assert.*;
+
+public class TimelineRendererTest {
+
+    private static final int SAMPLE_RATE = 44100;
+
+    /** 0.5 秒ごとにキック（60Hz の減衰音）が鳴る 3 秒の信号 */
+    private static short[] kicks() {
+        short[] pcm = new short[SAMPLE_RATE * 3];
+        for (int i = 0; i < pcm.length; i++) {
+            double t = (i % (SAMPLE_RATE / 2)) / (double) SAMPLE_RATE;
+            pcm[i] = (short) (24000 * Math.exp(-t * 12) * Math.sin(2 * Math.PI * 60 * t));
+        }
+        return pcm;
+    }
+
+    @Test
+    public void frameCount_followsDuration() {
+        TimelineRenderer r = new TimelineRenderer(SAMPLE_RATE, 20);
+        short[] pcm = kicks();
+        r.accept(pcm, 0, pcm.length);
+        HapticTimeline tl = r.finish();
+        assertEquals(150, tl.frameCount());
+        assertEquals(3000, tl.getDurationMs());
+        assertTrue(tl.eventCount() > 0);
+        assertEquals(HapticTimeline.BAND_BASS, tl.eventBand(0));
+    }
+
+    @Test
+    public void result_doesNotDependOnChunking() {
+        short[] pcm = kicks();
+
+        TimelineRenderer whole = new TimelineRenderer(SAMPLE_RATE, 20);
+        whole.accept(pcm, 0, pcm.length);
+        HapticTimeline a = whole.finish();
+
+        TimelineRenderer chunked = new TimelineRenderer(SAMPLE_RATE, 20);
+        Random rnd = new Random(1);
+        for (int off = 0; off < pcm.length; ) {
+            int len = Math.min(pcm.length - off, 1 + rnd.nextInt(3000));
+            chunked.accept(pcm, off, len);
+            off += len;
+        }
+        HapticTimeline b = chunked.finish();
+
+        assertEquals(a.frameCount(), b.frameCount());
+        for (int i = 0; i < a.frameCount(); i++) assertEquals(a.amplitudeAt(i), b.amplitudeAt(i));
+        assertEquals(a.eventCount(), b.eventCount());
+        for (int i = 0; i < a.eventCount(); i++) assertEquals(a.eventFrame(i), b.eventFrame(i));
+    }
+}
@@ -0,0 +1,36 @@
+package com.nakazawa.musicvibe.core;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+public class TransferCurveTest {
+
+    @Test
+    public void defaultTables_matchReferenceCurves() {
+        for (int i = 0; i <= 10_000; i++) {
+            double x = i / 10_000.0;
+            assertEquals(Dsp.compressBackground(x), TransferCurve.BACKGROUND.apply(x), 1e-3);
+        }
+    }
+
+    @Test
+    public void kneeStep_isKeptAndInputIsClamped() {
+        TransferCurve c = TransferCurve.BACKGROUND;
+        assertEquals(0.35, c.apply(Math.nextDown(c.getKnee())), 1e-3);
+        assertEquals(0.4, c.apply(c.getKnee()), 1e-9);
+        assertEquals(0.0, c.apply(-0.5), 0.0);
+        assertEquals(1.0, c.apply(1.5), 1e-9);
+    }
+
+    @Test
+    public void presets_trackTheirDefinition() {
+        for (TransferCurve.Preset p : TransferCurve.Preset.values()) {
+            TransferCurve c = p.background;
+            for (int i = 0; i <= 1000; i++) {
+                double x = i / 1000.0;
+                assertEquals(c.getName(), c.exact(x), c.apply(x), 1e-3 * c.getOutputMax());
+            }
+        }
+    }
+}
@@ -0,0 +1,49 @@
+package com.nakazawa.musicvibe.core;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+public class WaveformBatcherTest {
+
+    @Test
+    public void steadyLookahead_submitsOncePerWindow() {
+        WaveformBatcher b = new WaveformBatcher(20, 200, 5);
+        int[] amps = new int[10];
+        java.util.Arrays.fill(amps, 100);
+        int submits = 0;
+        for (long t = 0; t < 1000; t += 20) {
+            if (b.update(t, amps, amps.length) == WaveformBatcher.ACTION_SUBMIT) submits++;
+        }
+        // 20 ms ごとに投げていた頃は 50 回
+        assertEquals(6, submits);
+        assertEquals(-1, b.getRepeatIndex());
+        assertEquals(10, b.getTimings().length);
+    }
+
+    @Test
+    public void deviationBeyondTolerance_resubmitsEarly() {
+        WaveformBatcher b = new WaveformBatcher(20, 200, 5);
+        int[] amps = {100, 100, 100, 100, 100, 100, 100, 100, 100, 100};
+        assertEquals(WaveformBatcher.ACTION_SUBMIT, b.update(0, amps, 10));
+        amps[0] = 104;
+        assertEquals(WaveformBatcher.ACTION_NONE, b.update(20, amps, 10));
+        amps[0] = 150;
+        assertEquals(WaveformBatcher.ACTION_SUBMIT, b.update(40, amps, 10));
+        assertEquals(150, b.getAmplitudes()[0]);
+    }
+
+    @Test
+    public void shortInput_holdsLastValueOpenEnded() {
+        WaveformBatcher b = new WaveformBatcher(10, 100, 8);
+        int[] amp = {80};
+        assertEquals(WaveformBatcher.ACTION_SUBMIT, b.update(0, amp, 1));
+        assertEquals(9, b.getRepeatIndex());
+        assertEquals(80, b.getAmplitudes()[9]);
+        assertEquals(WaveformBatcher.ACTION_NONE, b.update(5000, amp, 1));
+        amp[0] = 0;
+        assertEquals(WaveformBatcher.ACTION_CANCEL, b.update(5010, amp, 1));
+        assertEquals(WaveformBatcher.ACTION_NONE, b.update(5020, amp, 1));
+        assertEquals(2, b.getTotalIpc());
+    }
+}